@@ -7,6 +7,7 @@ import HABMS.client.model.Request;
 import HABMS.client.model.Response;
 import HABMS.client.net.NetworkClient;
 import HABMS.client.util.JsonUtil;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.lowagie.text.Document;
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.Paragraph;
@@ -769,7 +770,7 @@ public class AdminMainController {
             } else {
                 scheduleImportResult.setStyle("-fx-text-fill: #c0392b;");
                 scheduleImportResult.setText("导入失败: " + resp.getErrInfo());
-                showError("导入排班失败", resp.getErrInfo());
+                showError("导入排班失败", describeScheduleError(resp));
             }
         });
 
@@ -959,10 +960,40 @@ public class AdminMainController {
         ensureAppointmentsThen(this::doExportAppointments);
     }
 
-    /** 生成月度预约统计 PDF。 */
+    /** 生成月度预约统计 PDF：统计由服务端 admin_monthly_stats 汇总，不再拉取全部预约。 */
     @FXML
     private void handleGenerateReport(ActionEvent event) {
-        ensureAppointmentsThen(this::doGenerateMonthlyReport);
+        String defaultMonth = YearMonth.now().format(DateTimeFormatter.ofPattern("yyyy-MM"));
+        TextInputDialog dialog = new TextInputDialog(defaultMonth);
+        dialog.setTitle("生成月度报表");
+        dialog.setHeaderText("输入统计月份 (yyyy-MM)");
+        dialog.setContentText("月份:");
+        Optional<String> result = dialog.showAndWait();
+        if (result.isEmpty()) return;
+
+        YearMonth targetMonth;
+        try {
+            targetMonth = YearMonth.parse(result.get().trim(), DateTimeFormatter.ofPattern("yyyy-MM"));
+        } catch (DateTimeParseException ex) {
+            showError("生成失败", "月份格式不正确，应为 yyyy-MM");
+            return;
+        }
+
+        Task<JsonNode> task = new Task<>() {
+            @Override
+            protected JsonNode call() throws Exception {
+                Map<String, Object> data = new HashMap<>();
+                data.put("month", targetMonth.toString());
+                Response resp = NetworkClient.getInstance().sendRequest(new Request("admin_monthly_stats", data));
+                if (!resp.isOk()) {
+                    throw new IOException("获取月度统计失败: " + resp.getErrInfo());
+                }
+                return resp.getData();
+            }
+        };
+        task.setOnSucceeded(e -> doGenerateMonthlyReport(targetMonth, task.getValue()));
+        task.setOnFailed(e -> showError("生成失败", e.getSource().getException().getMessage()));
+        new Thread(task).start();
     }
 
     private void ensureAppointmentsThen(Consumer<List<Appointment>> consumer) {
@@ -1053,46 +1084,21 @@ public class AdminMainController {
         }
     }
 
-    private void doGenerateMonthlyReport(List<Appointment> source) {
-        if (source == null || source.isEmpty()) {
-            showError("生成失败", "暂无预约数据");
-            return;
-        }
-
-        String defaultMonth = YearMonth.now().format(DateTimeFormatter.ofPattern("yyyy-MM"));
-        TextInputDialog dialog = new TextInputDialog(defaultMonth);
-        dialog.setTitle("生成月度报表");
-        dialog.setHeaderText("输入统计月份 (yyyy-MM)");
-        dialog.setContentText("月份:");
-        Optional<String> result = dialog.showAndWait();
-        if (result.isEmpty()) return;
-
-        YearMonth targetMonth;
-        try {
-            targetMonth = YearMonth.parse(result.get().trim(), DateTimeFormatter.ofPattern("yyyy-MM"));
-        } catch (DateTimeParseException ex) {
-            showError("生成失败", "月份格式不正确，应为 yyyy-MM");
-            return;
-        }
-
-        List<Appointment> monthApps = source.stream()
-                .filter(a -> isInMonth(a.getStartTime(), targetMonth))
-                .toList();
-
-        if (monthApps.isEmpty()) {
+    private void doGenerateMonthlyReport(YearMonth targetMonth, JsonNode stats) {
+        int total = stats.path("total").asInt();
+        if (total == 0) {
             showError("生成失败", "该月份没有预约数据");
             return;
         }
 
-        Map<String, Integer> deptCount = new HashMap<>();
-        Map<String, Integer> doctorCount = new HashMap<>();
-        for (Appointment app : monthApps) {
-            String dept = app.getDepartment() != null ? app.getDepartment() : "未知科室";
-            deptCount.put(dept, deptCount.getOrDefault(dept, 0) + 1);
-
-            String doctorKey = (app.getDoctorName() != null ? app.getDoctorName() : "未知医生")
-                    + " (" + (app.getDid() != null ? app.getDid() : "?") + ")";
-            doctorCount.put(doctorKey, doctorCount.getOrDefault(doctorKey, 0) + 1);
+        Map<String, Integer> deptCount = new LinkedHashMap<>();
+        for (JsonNode d : stats.path("departments")) {
+            deptCount.put(d.path("department").asText("未知科室"), d.path("total").asInt());
+        }
+        Map<String, Integer> doctorCount = new LinkedHashMap<>();
+        for (JsonNode d : stats.path("doctors")) {
+            String name = d.hasNonNull("name") ? d.get("name").asText() : "未知医生";
+            doctorCount.put(name + " (" + d.path("did").asText("?") + ")", d.path("total").asInt());
         }
 
         FileChooser chooser = new FileChooser();
@@ -1110,7 +1116,7 @@ public class AdminMainController {
 
             document.add(new Paragraph("预约月度报告 - " + targetMonth, zhTitleFont));
             document.add(new Paragraph("生成时间: " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")), zhBodyFont));
-            document.add(new Paragraph("当月预约总量: " + monthApps.size(), zhBodyFont));
+            document.add(new Paragraph("当月预约总量: " + total, zhBodyFont));
             document.add(new Paragraph(" ", zhBodyFont));
 
             Paragraph deptTitle = new Paragraph("按科室预约量", zhBodyFont);
@@ -1157,25 +1163,6 @@ public class AdminMainController {
         zhBodyFont = new Font(zhBaseFont, 12, Font.NORMAL);
     }
 
-    private boolean isInMonth(String startTime, YearMonth targetMonth) {
-        LocalDateTime dt = parseDateTime(startTime);
-        if (dt == null) return false;
-        return YearMonth.from(dt).equals(targetMonth);
-    }
-
-    private LocalDateTime parseDateTime(String value) {
-        if (value == null || value.isBlank()) return null;
-        try {
-            return LocalDateTime.parse(value);
-        } catch (DateTimeParseException ex) {
-            try {
-                return LocalDateTime.parse(value.replace(" ", "T"));
-            } catch (DateTimeParseException ignored) {
-                return null;
-            }
-        }
-    }
-
     private void showInfo(String title, String msg) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle(title);
@@ -1341,6 +1328,31 @@ public class AdminMainController {
         }
     }
 
+    /** 排班重叠时服务器在 conflicts 中列出全部冲突行，最多显示前 20 条。 */
+    private String describeScheduleError(Response resp) {
+        JsonNode conflicts = resp.getData() == null ? null : resp.getData().get("conflicts");
+        if (conflicts == null || !conflicts.isArray()) {
+            return resp.getErrInfo();
+        }
+        StringBuilder sb = new StringBuilder(resp.getErrInfo());
+        int shown = 0;
+        for (JsonNode c : conflicts) {
+            if (shown++ == 20) {
+                sb.append("\n……");
+                break;
+            }
+            sb.append("\n第 ").append(c.path("index").asInt() + 1).append(" 条（").append(c.path("did").asText())
+                    .append(" ").append(c.path("startTime").asText()).append("）与");
+            if (c.has("withSid")) {
+                sb.append("已有排班 ").append(c.path("withSid").asInt());
+            } else {
+                sb.append("第 ").append(c.path("withIndex").asInt() + 1).append(" 条");
+            }
+            sb.append("重叠");
+        }
+        return sb.toString();
+    }
+
     private void showError(String title, String msg) {
         Alert alert = new Alert(Alert.AlertType.ERROR);
         alert.setTitle(title);
@@ -9,7 +9,10 @@ import HABMS.client.model.Response;
 import HABMS.client.model.Schedule;
 import HABMS.client.net.NetworkClient;
 import HABMS.client.util.JsonUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -17,6 +20,7 @@ import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 
 import java.io.IOException;
+import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +29,7 @@ import java.util.Map;
  * 医生端控制器：展示排班、候诊预约和个人资料。
  */
 public class DoctorMainController {
+    private static final int PAGE_SIZE = 200;
 
     @FXML
     private Label welcomeLabel;
@@ -150,68 +155,65 @@ public class DoctorMainController {
         if (doctor == null)
             return;
 
-        Map<String, String> data = new HashMap<>();
+        // 只取今天及以后的排班，分页拉取，每到一页就追加显示
+        Map<String, Object> data = new HashMap<>();
         data.put("did", doctor.getDid());
-        Request req = new Request("schedule_by_doctor", data);
+        data.put("from", LocalDate.now().atStartOfDay().toString());
+
+        // 每次刷新换一个新列表，旧的刷新任务之后到达的页不会混入
+        ObservableList<Schedule> schedules = FXCollections.observableArrayList();
+        scheduleTable.setItems(schedules);
+        workScheduleCombo.setItems(schedules);
 
         Task<Response> task = new Task<>() {
             @Override
             protected Response call() throws Exception {
-                return NetworkClient.getInstance().sendRequest(req);
+                return NetworkClient.getInstance().sendPagedRequest("schedule_by_doctor", data, PAGE_SIZE, page -> {
+                    List<Schedule> list = convertList(page, Schedule.class);
+                    Platform.runLater(() -> {
+                        boolean first = schedules.isEmpty();
+                        schedules.addAll(list);
+                        if (first && !list.isEmpty() && workScheduleCombo.getItems() == schedules) {
+                            workScheduleCombo.getSelectionModel().select(0);
+                        }
+                    });
+                });
             }
         };
 
-        task.setOnSucceeded(e -> {
-            Response resp = task.getValue();
-            if (resp.isOk()) {
-                try {
-                    List<Schedule> list = JsonUtil.getMapper().convertValue(
-                            resp.getData(),
-                            JsonUtil.getMapper().getTypeFactory().constructCollectionType(List.class, Schedule.class));
-                    scheduleTable.setItems(FXCollections.observableArrayList(list));
-                    workScheduleCombo.setItems(FXCollections.observableArrayList(list));
-                    if (!list.isEmpty()) {
-                        workScheduleCombo.getSelectionModel().select(0);
-                    }
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                }
-            }
-        });
+        task.setOnFailed(e -> task.getException().printStackTrace());
         new Thread(task).start();
     }
 
     /** 拉取医生的预约列表，仅显示候诊中的预约。 */
     @FXML
     private void handleRefreshAppointments(ActionEvent event) {
-        Request req = new Request("doctor_appointments", null);
+        // 只取今天及以后排班的预约，分页拉取，不再加载全部历史；每到一页就追加显示
+        Map<String, Object> data = new HashMap<>();
+        data.put("from", LocalDate.now().atStartOfDay().toString());
+
+        ObservableList<Appointment> waiting = FXCollections.observableArrayList();
+        appointmentTable.setItems(waiting);
 
         Task<Response> task = new Task<>() {
             @Override
             protected Response call() throws Exception {
-                return NetworkClient.getInstance().sendRequest(req);
+                return NetworkClient.getInstance().sendPagedRequest("doctor_appointments", data, PAGE_SIZE, page -> {
+                    List<Appointment> list = convertList(page, Appointment.class).stream()
+                            .filter(a -> "Ok".equalsIgnoreCase(a.getStatus()))
+                            .toList();
+                    Platform.runLater(() -> waiting.addAll(list));
+                });
             }
         };
 
         task.setOnSucceeded(e -> {
             Response resp = task.getValue();
-            if (resp.isOk()) {
-                try {
-                    List<Appointment> list = JsonUtil.getMapper().convertValue(
-                            resp.getData(),
-                            JsonUtil.getMapper().getTypeFactory().constructCollectionType(List.class,
-                                    Appointment.class));
-                    List<Appointment> waiting = list.stream()
-                            .filter(a -> "Ok".equalsIgnoreCase(a.getStatus()))
-                            .toList();
-                    appointmentTable.setItems(FXCollections.observableArrayList(waiting));
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                }
-            } else {
+            if (!resp.isOk()) {
                 showAlert("错误", "获取预约列表失败: " + resp.getErrInfo());
             }
         });
+        task.setOnFailed(e -> task.getException().printStackTrace());
         new Thread(task).start();
     }
 
@@ -257,7 +259,8 @@ public class DoctorMainController {
                     currentSerialNumber = Integer.parseInt(nextApp.getSerialNumber());
                     showAlert("叫号成功", "请 " + nextApp.getAid() + " 号患者 (" + nextApp.getApid() + ") 就诊");
                     diagnosisArea.setText("正在诊疗: " + nextApp.getAid() + "\n预约号: " + nextApp.getApid());
-                    handleRefreshAppointments(null); // Refresh list to show status change
+                    // 已叫号的预约不再候诊，直接从列表移除，不必重新拉取全部预约
+                    appointmentTable.getItems().removeIf(a -> nextApp.getApid().equals(a.getApid()));
                 } catch (Exception ex) {
                     ex.printStackTrace();
                 }
@@ -276,6 +279,11 @@ public class DoctorMainController {
         showAlert("提示", "诊疗已完成，请呼叫下一位");
     }
 
+    private static <T> List<T> convertList(JsonNode items, Class<T> type) {
+        return JsonUtil.getMapper().convertValue(items,
+                JsonUtil.getMapper().getTypeFactory().constructCollectionType(List.class, type));
+    }
+
     private void showAlert(String title, String content) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle(title);
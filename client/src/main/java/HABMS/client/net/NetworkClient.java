@@ -3,25 +3,69 @@ package HABMS.client.net;
 import HABMS.client.model.Request;
 import HABMS.client.model.Response;
 import HABMS.client.util.JsonUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
- * TCP 客户端单例：维护与服务器的长连接并以 JSON 行协议收发。
+ * TCP 客户端单例：维护与服务器的长连接并以 JSON 收发。
+ * 连接时先协商分帧模式：成功后请求带 id 发送，可由多个线程同时发出，响应由读线程按 id 交回；
+ * 服务器不支持（旧版本）或 SERVER_FRAMING=line 时使用 JSON 行协议，一问一答。
+ * 分帧模式下默认同时协商 Smile 二进制编码（SERVER_ENCODING=json 时不协商），大列表响应的体积与解码开销更小；
+ * 以及 deflate 压缩（SERVER_COMPRESSION=none 时不协商）：超过服务器给出阈值的帧逐帧压缩，适合慢速网络。
+ * 收发记录以 FINE 级别写入日志，只含请求类型与字节数，不含请求内容（其中可能有 passwordHex）。
  */
 public class NetworkClient {
+    private static final Logger LOG = Logger.getLogger(NetworkClient.class.getName());
+    private static final int HEADER_BYTES = 9;
+    private static final int FLAG_MORE = 1;
+    private static final int FLAG_DEFLATE = 2;
+
     private static NetworkClient instance;
     private Socket socket;
     private PrintWriter out;
     private BufferedReader in;
+    /** 分帧模式下的输出与未完成的请求；行模式下为 null。 */
+    private DataOutputStream frameOut;
+    /** 分帧模式下负载是否为 Smile 编码。 */
+    private volatile boolean smile;
+    /** 分帧模式下请求负载达到此字节数时压缩；未协商压缩时为 -1。 */
+    private volatile int compressThreshold = -1;
+    /** 压缩请求负载，受 frameOut 监视器保护；每个连接一个，逐帧 reset 复用，重连或关闭时 end() 并置 null。 */
+    private Deflater deflater;
+    private final Map<Integer, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
     private static final String SERVER_HOST;
     private static final int SERVER_PORT;
+    private static final boolean FRAMING;
+    private static final String ENCODING;
+    private static final String COMPRESSION;
 
     /** 支持通过环境变量配置host:port */
     static {
@@ -29,6 +73,12 @@ public class NetworkClient {
         SERVER_HOST = (v1 == null || v1.isBlank()) ? "localhost" : v1;
         String v2 = System.getenv("SERVER_PORT");
         SERVER_PORT = (v2 == null || v2.isBlank()) ? 9000 : Integer.parseInt(v2);
+        String v3 = System.getenv("SERVER_FRAMING");
+        FRAMING = v3 == null || v3.isBlank() || !"line".equalsIgnoreCase(v3.trim());
+        String v4 = System.getenv("SERVER_ENCODING");
+        ENCODING = (v4 == null || v4.isBlank()) ? "smile" : v4.trim().toLowerCase();
+        String v5 = System.getenv("SERVER_COMPRESSION");
+        COMPRESSION = (v5 == null || v5.isBlank()) ? "deflate" : v5.trim().toLowerCase();
         System.out.println("server:" + SERVER_HOST + ':' + SERVER_PORT);
     }
 
@@ -42,19 +92,191 @@ public class NetworkClient {
         return instance;
     }
 
-    /** 建立到服务器的 socket 连接。 */
-    public void connect() throws IOException {
+    /** 建立到服务器的 socket 连接，并尝试协商分帧模式。 */
+    public synchronized void connect() throws IOException {
         if (socket == null || socket.isClosed()) {
+            endDeflater();
             Socket s = new Socket(Proxy.NO_PROXY);
             s.connect(new InetSocketAddress(SERVER_HOST, SERVER_PORT));
+            InputStream input = new BufferedInputStream(s.getInputStream());
+            out = new PrintWriter(s.getOutputStream(), true);
+            frameOut = null;
+            if (FRAMING && negotiateFraming(input)) {
+                frameOut = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                deflater = compressThreshold >= 0 ? new Deflater(Deflater.BEST_SPEED) : null;
+                Thread reader = new Thread(() -> readFrames(s, new DataInputStream(input)), "habms-client-reader");
+                reader.setDaemon(true);
+                reader.start();
+            }
+            in = new BufferedReader(new InputStreamReader(input));
             socket = s;
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
         }
     }
 
-    /** 序列化请求，发送后读取单行响应并反序列化。 */
+    /**
+     * 发送协商行并读取应答；只读到应答行末尾，后面的字节留给分帧读取。
+     * 旧版服务器回复 unknown type、或不支持所请求的编码时仍按行模式通信；
+     * 不认识 encoding、compression 的服务器不会在应答中带回它们，按 JSON 负载、不压缩通信。
+     */
+    private boolean negotiateFraming(InputStream input) throws IOException {
+        out.println("{\"type\":\"protocol\",\"data\":{\"framing\":\"length\",\"encoding\":\"" + ENCODING
+                + "\",\"compression\":\"" + COMPRESSION + "\"}}");
+        Response resp = JsonUtil.fromJson(readLine(input), Response.class);
+        smile = resp.isOk() && "smile".equals(resp.getData().path("encoding").asText());
+        compressThreshold = resp.isOk() && "deflate".equals(resp.getData().path("compression").asText())
+                ? resp.getData().path("compressThreshold").asInt(0) : -1;
+        return resp.isOk() && "length".equals(resp.getData().path("framing").asText());
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("Server closed connection");
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /** 读线程：按 id 拼接响应帧（压缩帧先解压），收到最后一帧时交给等待的请求。 */
+    private void readFrames(Socket s, DataInputStream input) {
+        Map<Integer, ByteArrayOutputStream> partial = new HashMap<>();
+        Inflater inflater = new Inflater();
+        try {
+            byte[] header = new byte[HEADER_BYTES];
+            while (true) {
+                input.readFully(header);
+                int length = (header[0] & 0xff) << 24 | (header[1] & 0xff) << 16 | (header[2] & 0xff) << 8 | (header[3] & 0xff);
+                int id = (header[4] & 0xff) << 24 | (header[5] & 0xff) << 16 | (header[6] & 0xff) << 8 | (header[7] & 0xff);
+                byte[] payload = new byte[length];
+                input.readFully(payload);
+                ByteArrayOutputStream body = partial.computeIfAbsent(id, k -> new ByteArrayOutputStream());
+                if ((header[8] & FLAG_DEFLATE) != 0) {
+                    inflate(inflater, payload, body);
+                } else {
+                    body.write(payload);
+                }
+                if ((header[8] & FLAG_MORE) == 0) {
+                    partial.remove(id);
+                    CompletableFuture<byte[]> future = pending.remove(id);
+                    if (future != null) {
+                        future.complete(body.toByteArray());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+                // 已断开
+            }
+            IOException closed = new IOException("Server closed connection", e);
+            pending.values().forEach(f -> f.completeExceptionally(closed));
+            pending.clear();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** 解压一帧 zlib 负载并追加到 body；每帧独立压缩，inflater 逐帧 reset 复用。 */
+    private static void inflate(Inflater inflater, byte[] payload, ByteArrayOutputStream body) throws IOException {
+        inflater.reset();
+        inflater.setInput(payload);
+        byte[] buffer = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("truncated compressed frame");
+                }
+                body.write(buffer, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("invalid compressed frame", e);
+        }
+    }
+
+    /** 压缩一帧请求负载；压缩后不比原文小时返回 null。须持有该连接 frameOut 的监视器。 */
+    private static byte[] deflate(Deflater deflater, byte[] payload) {
+        byte[] buffer = new byte[payload.length];
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished() && n < buffer.length) {
+            n += deflater.deflate(buffer, n, buffer.length - n);
+        }
+        return deflater.finished() ? Arrays.copyOf(buffer, n) : null;
+    }
+
+    /**
+     * 异步发送请求：分帧模式下立即返回，响应到达后完成；多个请求可以同时在途，
+     * 服务器按会话语义决定能否并发执行（登录、写操作等按发送顺序独占执行）。行模式下同步发送后返回。
+     */
+    public CompletableFuture<Response> sendAsync(Request request) throws IOException {
+        if (socket == null || socket.isClosed()) {
+            connect();
+        }
+        DataOutputStream frames = frameOut;
+        if (frames == null) {
+            return CompletableFuture.completedFuture(sendLine(request));
+        }
+        boolean binary = smile;
+        int threshold = compressThreshold;
+        byte[] payload = binary ? JsonUtil.toSmile(request) : JsonUtil.toJson(request).getBytes(StandardCharsets.UTF_8);
+        int id = nextId.incrementAndGet();
+        LOG.fine(() -> "Sending #" + id + " " + request.getType() + ": " + payload.length + " bytes");
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        pending.put(id, future);
+        try {
+            synchronized (frames) {
+                // 连接已被替换或关闭时旧 deflater 已 end()，不再使用；随后的写出会失败
+                Deflater compressor = frames == frameOut ? deflater : null;
+                byte[] compressed = compressor != null && threshold >= 0 && payload.length >= threshold
+                        ? deflate(compressor, payload) : null;
+                byte[] body = compressed == null ? payload : compressed;
+                frames.writeInt(body.length);
+                frames.writeInt(id);
+                frames.writeByte(compressed == null ? 0 : FLAG_DEFLATE);
+                frames.write(body);
+                frames.flush();
+            }
+        } catch (IOException e) {
+            pending.remove(id);
+            throw e;
+        }
+        if (socket.isClosed() && pending.remove(id) != null) {
+            // 读线程已退出，不会再完成这个请求
+            throw new IOException("Server closed connection");
+        }
+        return future.thenApply(body -> {
+            LOG.fine(() -> "Received #" + id + ": " + body.length + " bytes");
+            if (binary) {
+                return JsonUtil.fromSmile(body, Response.class);
+            }
+            return JsonUtil.fromJson(new String(body, StandardCharsets.UTF_8), Response.class);
+        });
+    }
+
+    /** 序列化请求，发送后等待响应并反序列化。 */
     public Response sendRequest(Request request) throws IOException {
+        try {
+            return sendAsync(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /** 行模式：发送一行后读取单行响应，同一时刻只有一个请求在途。 */
+    private synchronized Response sendLine(Request request) throws IOException {
         // Ensure connection
         // connect(); // In a real app, you might want to manage connection lifecycle
         // better
@@ -70,19 +292,56 @@ public class NetworkClient {
         }
 
         String jsonReq = JsonUtil.toJson(request);
-        System.out.println("Sending: " + jsonReq);
+        LOG.fine(() -> "Sending " + request.getType() + ": " + jsonReq.length() + " chars");
         out.println(jsonReq);
 
         String jsonResp = in.readLine();
-        System.out.println("Received: " + jsonResp);
         if (jsonResp == null) {
             throw new IOException("Server closed connection");
         }
+        LOG.fine(() -> "Received: " + jsonResp.length() + " chars");
 
         return JsonUtil.fromJson(jsonResp, Response.class);
     }
 
-    /** 关闭底层 socket。 */
+    /**
+     * 逐页请求分页接口：在 data 中加入 limit 与上一页返回的 cursor，每收到一页就把该页 items 交给 onPage
+     * （在调用线程上执行），调用方可以边取边显示，不必等所有页取完；next 为空时返回最后一页的响应，
+     * 任一页失败时返回该页的错误响应，已交出的页不撤回。
+     */
+    public Response sendPagedRequest(String type, Map<String, Object> data, int pageSize, Consumer<ArrayNode> onPage)
+            throws IOException {
+        Map<String, Object> pageData = new HashMap<>(data);
+        pageData.put("limit", pageSize);
+        while (true) {
+            Response resp = sendRequest(new Request(type, pageData));
+            if (!resp.isOk()) {
+                return resp;
+            }
+            onPage.accept((ArrayNode) resp.getData().path("items"));
+            JsonNode next = resp.getData().path("next");
+            if (!next.isTextual()) {
+                return resp;
+            }
+            pageData.put("cursor", next.asText());
+        }
+    }
+
+    /** 释放当前连接的 Deflater 本地内存；在 frameOut 监视器内进行，不会与正在压缩的请求交错。 */
+    private synchronized void endDeflater() {
+        DataOutputStream frames = frameOut;
+        if (frames == null) {
+            return;
+        }
+        synchronized (frames) {
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+        }
+    }
+
+    /** 关闭底层 socket 并释放压缩器。 */
     public void close() {
         try {
             if (socket != null)
@@ -90,5 +349,6 @@ public class NetworkClient {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        endDeflater();
     }
 }
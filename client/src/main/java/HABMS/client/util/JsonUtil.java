@@ -2,16 +2,22 @@ package HABMS.client.util;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import java.io.IOException;
+
 /**
  * Jackson 封装：提供统一的 ObjectMapper 及序列化工具方法。
+ * Smile 映射器与 JSON 配置相同，用于与服务器协商了 Smile 编码的分帧连接。
  */
 public class JsonUtil {
     private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
 
     static {
         mapper.registerModule(new JavaTimeModule());
+        smileMapper.registerModule(new JavaTimeModule());
     }
 
     public static String toJson(Object obj) {
@@ -30,6 +36,22 @@ public class JsonUtil {
         }
     }
     
+    public static byte[] toSmile(Object obj) {
+        try {
+            return smileMapper.writeValueAsBytes(obj);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Smile serialization failed", e);
+        }
+    }
+
+    public static <T> T fromSmile(byte[] data, Class<T> clazz) {
+        try {
+            return smileMapper.readValue(data, clazz);
+        } catch (IOException e) {
+            throw new RuntimeException("Smile deserialization failed", e);
+        }
+    }
+
     public static ObjectMapper getMapper() {
         return mapper;
     }
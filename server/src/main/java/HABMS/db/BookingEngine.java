@@ -0,0 +1,594 @@
+package HABMS.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 内存号源引擎（可选）：每个排班的剩余号源保存在 AtomicInteger 中以 CAS 无锁扣减，
+ * 每个患者维护自己 Ok 状态预约的时间段索引做重叠校验；确认的预约与状态变更按到达顺序
+ * 进入写后队列，由单一写线程分批在一个事务内落库（插入预约、合并扣减 Res、条件更新状态）。
+ * <p>
+ * 对外结果与 {@link HABMSDB#TryAppointment} 的事务实现一致：号源为 0 返回 null，
+ * 时间段重叠抛出 "duplicate appointment in time slot"。启动时从数据库恢复全部排班余量与 Ok 预约。
+ * 引擎假定本进程是唯一写入 Schedule.Res / Appointment 的节点。
+ */
+final class BookingEngine implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(BookingEngine.class.getName());
+
+    private static final int MAX_BATCH = 500;
+    private static final long FLUSH_TIMEOUT_SECONDS = 30;
+    private static final long RETRY_BACKOFF_MILLIS = 1_000;
+
+    private static final String SQL_LOAD_SCHEDULES = "SELECT SID, DID, STime, ETime, Res FROM Schedule";
+    private static final String SQL_LOAD_BOOKINGS = "SELECT a.APID, a.AID, a.SID FROM Appointment a WHERE a.Statu='Ok'";
+    private static final String SQL_INSERT = "INSERT INTO Appointment(APID,AID,DID,SID,Statu) VALUES (?,?,?,?,?)";
+    private static final String SQL_TAKE_RES = "UPDATE Schedule SET Res=Res-? WHERE SID=?";
+    private static final String SQL_CHANGE_STATU = "UPDATE Appointment SET Statu=? WHERE APID=? AND Statu='Ok'";
+    private static final String SQL_RESTORE_RES = "UPDATE Schedule SET Res=Res+1 WHERE SID=?";
+
+    private final HABMSDB db;
+    private final Map<Integer, Slot> slots = new ConcurrentHashMap<>();
+    private final Map<String, PatientBookings> patients = new ConcurrentHashMap<>();
+    /** 当前为 Ok 的预约，APID -> 预约；移除操作保证同一预约只被取消/完成一次。 */
+    private final Map<String, Booking> okBookings = new ConcurrentHashMap<>();
+    /** 尚未落库的写操作涉及的 APID、AID、SID 与 DID 计数，用于按需读己之写。 */
+    private final Map<String, Integer> pendingApids = new ConcurrentHashMap<>();
+    private final Map<String, Integer> pendingAids = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> pendingSids = new ConcurrentHashMap<>();
+    private final Map<String, Integer> pendingDids = new ConcurrentHashMap<>();
+    private final BlockingQueue<WriteOp> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    BookingEngine(HABMSDB db) {
+        this.db = db;
+        this.writer = new Thread(this::writeLoop, "habms-booking-writer");
+        this.writer.setDaemon(true);
+    }
+
+    /** 从数据库恢复排班余量与 Ok 预约，然后启动写线程。 */
+    void load() throws SQLException {
+        try (Connection conn = db.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(SQL_LOAD_SCHEDULES); ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Slot slot = new Slot(rs.getInt("SID"), rs.getString("DID"),
+                            rs.getTimestamp("STime").toLocalDateTime(), rs.getTimestamp("ETime").toLocalDateTime(), rs.getInt("Res"));
+                    slots.put(slot.sid, slot);
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(SQL_LOAD_BOOKINGS); ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Slot slot = slots.get(rs.getInt("SID"));
+                    if (slot == null) {
+                        continue; // 排班已删除的孤儿预约不参与重叠校验，与 JOIN 查询一致
+                    }
+                    Booking booking = new Booking(rs.getString("APID"), rs.getString("AID"), slot);
+                    okBookings.put(booking.apid, booking);
+                    patient(booking.aid).bookings.add(booking);
+                }
+            }
+        }
+        writer.start();
+        LOG.info(() -> "Booking engine loaded " + slots.size() + " schedules, " + okBookings.size() + " active appointments");
+    }
+
+    /** 预约：先无锁扣减号源，再在患者锁内做重叠校验并登记，最后入写后队列。 */
+    Appointment tryAppointment(String aid, int sid) throws SQLException {
+        Slot slot = slot(sid);
+        if (slot == null || !slot.take()) {
+            return null;
+        }
+        PatientBookings patient = patient(aid);
+        Appointment appointment;
+        patient.lock.lock();
+        try {
+            for (Booking other : patient.bookings) {
+                if (other.slot.start.isBefore(slot.end) && other.slot.end.isAfter(slot.start)) {
+                    slot.remaining.incrementAndGet();
+                    throw new SQLException("duplicate appointment in time slot");
+                }
+            }
+            appointment = Appointment.create(aid, slot.did, sid, AppointmentStatus.Ok, slot.start, slot.end);
+            Booking booking = new Booking(appointment.getApid(), aid, slot);
+            patient.bookings.add(booking);
+            okBookings.put(booking.apid, booking);
+        } finally {
+            patient.lock.unlock();
+        }
+        enqueue(new WriteOp(appointment, null, null));
+        return appointment;
+    }
+
+    /**
+     * 变更内存中 Ok 预约的状态（Ok -> Abandon 时返还号源）并入队落库；
+     * 预约不在内存 Ok 集合中时先冲刷队列并返回 false，由调用方走数据库事务路径。
+     */
+    boolean changeStatus(String apid, AppointmentStatus statu) throws SQLException {
+        if (statu == AppointmentStatus.Ok) {
+            if (okBookings.containsKey(apid)) {
+                return true;
+            }
+            flush();
+            return false;
+        }
+        Booking booking = okBookings.remove(apid);
+        if (booking == null) {
+            flush();
+            return false;
+        }
+        release(booking);
+        if (statu == AppointmentStatus.Abandon) {
+            booking.slot.remaining.incrementAndGet();
+        }
+        db.publishClosed(booking.slot.sid, apid);
+        enqueue(new WriteOp(null, booking, statu));
+        return true;
+    }
+
+    /** 叫号认领：预约仍为 Ok 时置为 Done 并入队落库，已不是 Ok 时返回 false。 */
+    boolean complete(String apid) {
+        Booking booking = okBookings.remove(apid);
+        if (booking == null) {
+            return false;
+        }
+        release(booking);
+        enqueue(new WriteOp(null, booking, AppointmentStatus.Done));
+        return true;
+    }
+
+    /** 直接插入的预约（管理用途）登记到内存索引，不扣减号源，与数据库实现一致。 */
+    void onAppointmentInserted(Appointment appointment) {
+        Slot slot = slots.get(appointment.getSid());
+        if (appointment.getStatus() != AppointmentStatus.Ok || slot == null) {
+            return;
+        }
+        Booking booking = new Booking(appointment.getApid(), appointment.getAid(), slot);
+        if (okBookings.putIfAbsent(booking.apid, booking) == null) {
+            PatientBookings patient = patient(booking.aid);
+            patient.lock.lock();
+            try {
+                patient.bookings.add(booking);
+            } finally {
+                patient.lock.unlock();
+            }
+        }
+    }
+
+    /** 预约在数据库中被直接置为非 Ok（叫号）：从内存索引移除，不返还号源。 */
+    void onAppointmentClosed(String apid) {
+        onAppointmentDeleted(apid);
+    }
+
+    /** 预约记录被删除：从内存索引移除（不返还号源，与数据库实现一致）。 */
+    void onAppointmentDeleted(String apid) {
+        Booking booking = okBookings.remove(apid);
+        if (booking != null) {
+            release(booking);
+        }
+    }
+
+    void onScheduleInserted(Schedule schedule) {
+        slots.put(schedule.getSid(), new Slot(schedule.getSid(), schedule.getDid(),
+                schedule.getStartTime(), schedule.getEndTime(), schedule.getRes()));
+    }
+
+    /** 排班被覆盖更新：时间以新值为准，余量按容量差值增减，不覆盖并发中的扣减。 */
+    void onScheduleUpdated(Schedule schedule, int capacityDelta) {
+        Slot old = slots.get(schedule.getSid());
+        if (old == null) {
+            onScheduleInserted(schedule);
+            return;
+        }
+        if (!old.did.equals(schedule.getDid()) || !old.start.equals(schedule.getStartTime()) || !old.end.equals(schedule.getEndTime())) {
+            LOG.warning(() -> "Schedule " + schedule.getSid() + " time/doctor changed while booking engine active; "
+                    + "existing appointments keep their old interval until restart");
+        }
+        old.remaining.addAndGet(capacityDelta);
+    }
+
+    void onCapacityChanged(int sid, int delta) {
+        Slot slot = slots.get(sid);
+        if (slot != null) {
+            slot.remaining.addAndGet(delta);
+        }
+    }
+
+    void onScheduleDeleted(int sid) {
+        slots.remove(sid);
+    }
+
+    /** 内存中的剩余号源，未跟踪的排班返回 fallback。 */
+    int remaining(int sid, int fallback) {
+        Slot slot = slots.get(sid);
+        return slot == null ? fallback : slot.remaining.get();
+    }
+
+    /** 若该预约仍有未落库的写操作，等待队列冲刷，保证随后的读取可见。 */
+    void awaitPersistedAppointment(String apid) throws SQLException {
+        if (pendingApids.containsKey(apid)) {
+            flush();
+        }
+    }
+
+    /** 若该患者仍有未落库的写操作，等待队列冲刷。 */
+    void awaitPersistedAccount(String aid) throws SQLException {
+        if (pendingAids.containsKey(aid)) {
+            flush();
+        }
+    }
+
+    /** 若该排班仍有未落库的预约写操作，等待队列冲刷。 */
+    void awaitPersistedSchedule(int sid) throws SQLException {
+        if (pendingSids.containsKey(sid)) {
+            flush();
+        }
+    }
+
+    /** 若该医生的排班仍有未落库的预约写操作，等待队列冲刷。 */
+    void awaitPersistedDoctor(String did) throws SQLException {
+        if (pendingDids.containsKey(did)) {
+            flush();
+        }
+    }
+
+    /** 等待此前入队的全部写操作落库。 */
+    void flush() throws SQLException {
+        if (queue.isEmpty() && pendingApids.isEmpty()) {
+            return;
+        }
+        CompletableFuture<Void> barrier = new CompletableFuture<>();
+        queue.add(new WriteOp(barrier));
+        try {
+            barrier.get(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while flushing booking queue", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new SQLException("booking queue flush failed", e);
+        }
+    }
+
+    /** 冲刷剩余写操作并停止写线程。 */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } catch (SQLException e) {
+            LOG.log(Level.WARNING, "Booking queue not fully persisted on shutdown", e);
+        }
+        closed = true;
+        writer.interrupt();
+    }
+
+    private Slot slot(int sid) throws SQLException {
+        Slot slot = slots.get(sid);
+        if (slot != null) {
+            return slot;
+        }
+        // 未知排班（例如由其他途径写入）：按需从数据库补载
+        Schedule schedule = db.FindSchedule(sid);
+        if (schedule == null) {
+            return null;
+        }
+        return slots.computeIfAbsent(sid, k -> new Slot(sid, schedule.getDid(),
+                schedule.getStartTime(), schedule.getEndTime(), schedule.getRes()));
+    }
+
+    private PatientBookings patient(String aid) {
+        return patients.computeIfAbsent(aid, k -> new PatientBookings());
+    }
+
+    private void release(Booking booking) {
+        PatientBookings patient = patient(booking.aid);
+        patient.lock.lock();
+        try {
+            patient.bookings.remove(booking);
+        } finally {
+            patient.lock.unlock();
+        }
+    }
+
+    private void enqueue(WriteOp op) {
+        String apid = op.apid();
+        pendingApids.merge(apid, 1, Integer::sum);
+        pendingAids.merge(op.aid(), 1, Integer::sum);
+        pendingSids.merge(op.sid(), 1, Integer::sum);
+        pendingDids.merge(op.did(), 1, Integer::sum);
+        queue.add(op);
+    }
+
+    private void done(WriteOp op) {
+        pendingApids.computeIfPresent(op.apid(), (k, v) -> v == 1 ? null : v - 1);
+        pendingAids.computeIfPresent(op.aid(), (k, v) -> v == 1 ? null : v - 1);
+        pendingSids.computeIfPresent(op.sid(), (k, v) -> v == 1 ? null : v - 1);
+        pendingDids.computeIfPresent(op.did(), (k, v) -> v == 1 ? null : v - 1);
+    }
+
+    /** 写线程：阻塞取一条后顺带取走已积压的操作，整批落库。 */
+    private void writeLoop() {
+        List<WriteOp> batch = new ArrayList<>(MAX_BATCH);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                persist(batch);
+            } catch (InterruptedException e) {
+                if (closed) {
+                    break;
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /** 整批事务写入；失败时退避重试，数据库恢复后仍失败的单条操作记录并补偿内存状态。 */
+    private void persist(List<WriteOp> batch) throws InterruptedException {
+        List<WriteOp> writes = new ArrayList<>(batch.size());
+        for (WriteOp op : batch) {
+            if (op.barrier == null) {
+                writes.add(op);
+            }
+        }
+        if (!writes.isEmpty()) {
+            try {
+                persistTransaction(writes);
+            } catch (SQLException batchError) {
+                LOG.log(Level.WARNING, "Booking batch of " + writes.size() + " failed, retrying one by one", batchError);
+                Thread.sleep(RETRY_BACKOFF_MILLIS);
+                for (WriteOp op : writes) {
+                    persistSingle(op);
+                }
+            }
+            for (WriteOp op : writes) {
+                done(op);
+            }
+        }
+        for (WriteOp op : batch) {
+            if (op.barrier != null) {
+                op.barrier.complete(null);
+            }
+        }
+    }
+
+    private void persistSingle(WriteOp op) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                persistTransaction(List.of(op));
+                return;
+            } catch (SQLException e) {
+                if (isConnectionError(e) && !closed) {
+                    LOG.log(Level.WARNING, "Database unavailable, retrying booking write (attempt " + attempt + ")", e);
+                    Thread.sleep(RETRY_BACKOFF_MILLIS);
+                    continue;
+                }
+                LOG.log(Level.SEVERE, "Dropping booking write for " + op.apid(), e);
+                compensate(op);
+                return;
+            }
+        }
+    }
+
+    private static boolean isConnectionError(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("08") || e instanceof java.sql.SQLTimeoutException;
+    }
+
+    /** 落库失败的操作：撤销其对内存状态的影响。 */
+    private void compensate(WriteOp op) {
+        if (op.appointment != null) {
+            Booking booking = okBookings.remove(op.appointment.getApid());
+            if (booking != null) {
+                release(booking);
+                booking.slot.remaining.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 一个事务内依次：批量插入预约、按排班合并扣减 Res、按顺序条件更新状态、按排班合并写入日统计。
+     * 同一预约的插入总是先于其状态变更入队，先插入后更新不改变语义；Res 加减满足交换律。
+     */
+    private void persistTransaction(List<WriteOp> writes) throws SQLException {
+        try (Connection conn = db.getConnection()) {
+            conn.setAutoCommit(false);
+            Map<Integer, Integer> taken = new HashMap<>();
+            DailyStatsDelta stats = new DailyStatsDelta();
+            List<Appointment> inserted = new ArrayList<>();
+            int[] serials = null;
+            try (PreparedStatement ps = conn.prepareStatement(SQL_INSERT, Statement.RETURN_GENERATED_KEYS)) {
+                for (WriteOp op : writes) {
+                    if (op.appointment == null) {
+                        continue;
+                    }
+                    Appointment a = op.appointment;
+                    ps.setString(1, a.getApid());
+                    ps.setString(2, a.getAid());
+                    ps.setString(3, a.getDid());
+                    ps.setInt(4, a.getSid());
+                    ps.setString(5, a.getStatus().name());
+                    ps.addBatch();
+                    taken.merge(a.getSid(), 1, Integer::sum);
+                    stats.inserted(a.getSid(), a.getStatus());
+                    inserted.add(a);
+                }
+                if (!inserted.isEmpty()) {
+                    ps.executeBatch();
+                    serials = generatedKeys(ps, inserted.size());
+                }
+            }
+            if (!taken.isEmpty()) {
+                try (PreparedStatement ps = conn.prepareStatement(SQL_TAKE_RES)) {
+                    for (Map.Entry<Integer, Integer> e : taken.entrySet()) {
+                        ps.setInt(1, e.getValue());
+                        ps.setInt(2, e.getKey());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+            List<WriteOp> lost = new ArrayList<>();
+            for (WriteOp op : writes) {
+                if (op.statusChange == null) {
+                    continue;
+                }
+                int updated;
+                try (PreparedStatement ps = conn.prepareStatement(SQL_CHANGE_STATU)) {
+                    ps.setString(1, op.newStatus.name());
+                    ps.setString(2, op.statusChange.apid);
+                    updated = ps.executeUpdate();
+                }
+                if (updated != 1) {
+                    lost.add(op);
+                    continue;
+                }
+                stats.changed(op.statusChange.slot.sid, AppointmentStatus.Ok, op.newStatus);
+                if (op.newStatus == AppointmentStatus.Abandon) {
+                    try (PreparedStatement ps = conn.prepareStatement(SQL_RESTORE_RES)) {
+                        ps.setInt(1, op.statusChange.slot.sid);
+                        ps.executeUpdate();
+                    }
+                }
+            }
+            stats.apply(conn);
+            conn.commit();
+            for (int i = 0; i < inserted.size(); i++) {
+                Appointment a = inserted.get(i);
+                if (serials != null) {
+                    db.publishBooked(a.getSid(), serials[i], a.getApid(), a.getAid());
+                } else {
+                    db.invalidateCallQueue(a.getSid());
+                }
+            }
+            for (WriteOp op : lost) {
+                // 数据库中该预约已不是 Ok（被其他途径修改）：撤销内存中的号源返还
+                LOG.warning(() -> "Appointment " + op.statusChange.apid + " was no longer Ok in database");
+                if (op.newStatus == AppointmentStatus.Abandon) {
+                    op.statusChange.slot.remaining.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /** 批量插入返回的自增序列号，数量与插入条数不一致时返回 null。 */
+    private static int[] generatedKeys(PreparedStatement ps, int expected) throws SQLException {
+        int[] serials = new int[expected];
+        int n = 0;
+        try (ResultSet keys = ps.getGeneratedKeys()) {
+            while (keys.next()) {
+                if (n == expected) {
+                    return null;
+                }
+                serials[n++] = keys.getInt(1);
+            }
+        }
+        return n == expected ? serials : null;
+    }
+
+    /** 内存中的排班：时间与医生不可变，余量可并发增减。 */
+    private static final class Slot {
+        final int sid;
+        final String did;
+        final LocalDateTime start;
+        final LocalDateTime end;
+        final AtomicInteger remaining;
+
+        Slot(int sid, String did, LocalDateTime start, LocalDateTime end, int remaining) {
+            this.sid = sid;
+            this.did = did;
+            this.start = start;
+            this.end = end;
+            this.remaining = new AtomicInteger(remaining);
+        }
+
+        /** CAS 扣减一个号源，余量不足返回 false。 */
+        boolean take() {
+            while (true) {
+                int r = remaining.get();
+                if (r <= 0) {
+                    return false;
+                }
+                if (remaining.compareAndSet(r, r - 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static final class Booking {
+        final String apid;
+        final String aid;
+        final Slot slot;
+
+        Booking(String apid, String aid, Slot slot) {
+            this.apid = apid;
+            this.aid = aid;
+            this.slot = slot;
+        }
+    }
+
+    /** 单个患者的 Ok 预约；通常无竞争，锁只用于保证"校验 + 登记"原子。 */
+    private static final class PatientBookings {
+        final ReentrantLock lock = new ReentrantLock();
+        final List<Booking> bookings = new ArrayList<>(2);
+    }
+
+    /** 写后队列元素：新预约、状态变更或冲刷屏障三者之一。 */
+    private static final class WriteOp {
+        final Appointment appointment;
+        final Booking statusChange;
+        final AppointmentStatus newStatus;
+        final CompletableFuture<Void> barrier;
+
+        WriteOp(Appointment appointment, Booking statusChange, AppointmentStatus newStatus) {
+            this.appointment = appointment;
+            this.statusChange = statusChange;
+            this.newStatus = newStatus;
+            this.barrier = null;
+        }
+
+        WriteOp(CompletableFuture<Void> barrier) {
+            this.appointment = null;
+            this.statusChange = null;
+            this.newStatus = null;
+            this.barrier = barrier;
+        }
+
+        String apid() {
+            return appointment != null ? appointment.getApid() : statusChange.apid;
+        }
+
+        String aid() {
+            return appointment != null ? appointment.getAid() : statusChange.aid;
+        }
+
+        int sid() {
+            return appointment != null ? appointment.getSid() : statusChange.slot.sid;
+        }
+
+        String did() {
+            return appointment != null ? appointment.getDid() : statusChange.slot.did;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package HABMS.db;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 叫号队列（可选）：每个正在叫号的排班在内存中维护一个按 SerialNumber 排序的候诊队列，
+ * 叫号是一次 O(log n) 出队，不再扫描整个排班的预约。
+ * <p>
+ * 队列在排班第一次叫号时从数据库装载，此后由 HABMSDB 中的预约、取消、删除事件增量维护；
+ * 排班结束后在下一次装载其他队列时被淘汰。装载期间持有队列锁，
+ * 并发到达的事件等装载完成后再应用，因此不会丢失装载快照之后提交的预约。
+ */
+final class CallQueues {
+    private final HABMSDB db;
+    private final Map<Integer, ScheduleQueue> active = new ConcurrentHashMap<>();
+
+    CallQueues(HABMSDB db) {
+        this.db = db;
+    }
+
+    /** 取得排班的叫号队列，首次访问时装载；排班不存在或已结束时返回 null，由调用方走数据库路径。 */
+    ScheduleQueue activate(int sid) throws SQLException {
+        LocalDateTime now = LocalDateTime.now();
+        ScheduleQueue queue = active.get(sid);
+        if (queue != null) {
+            queue.awaitLoaded();
+            if (queue.valid && !queue.end.isBefore(now)) {
+                return queue;
+            }
+            active.remove(sid, queue);
+        }
+        active.values().removeIf(q -> q.end.isBefore(now));
+
+        Schedule schedule = db.FindSchedule(sid);
+        if (schedule == null || schedule.getEndTime().isBefore(now)) {
+            return null;
+        }
+        ScheduleQueue created = new ScheduleQueue(schedule);
+        created.lock.lock();
+        try {
+            ScheduleQueue raced = active.putIfAbsent(sid, created);
+            if (raced != null) {
+                created.valid = false;
+                raced.awaitLoaded();
+                return raced.valid ? raced : null;
+            }
+            try {
+                created.load(db);
+            } catch (SQLException | RuntimeException e) {
+                created.valid = false;
+                active.remove(sid, created);
+                throw e;
+            }
+        } finally {
+            created.lock.unlock();
+        }
+        return created;
+    }
+
+    /** 新预约已提交（serial 为数据库分配的序列号）。 */
+    void onBooked(int sid, int serial, String apid, String aid) {
+        ScheduleQueue queue = active.get(sid);
+        if (queue != null) {
+            queue.add(serial, apid, aid);
+        }
+    }
+
+    /** 预约不再候诊（取消、完成或删除）。 */
+    void onClosed(int sid, String apid) {
+        ScheduleQueue queue = active.get(sid);
+        if (queue != null) {
+            queue.remove(apid);
+        }
+    }
+
+    /** 无法增量维护的变化（例如序列号未知、状态改回 Ok）：丢弃队列，下次叫号时重新装载。 */
+    void invalidate(int sid) {
+        ScheduleQueue queue = active.remove(sid);
+        if (queue != null) {
+            queue.valid = false;
+        }
+    }
+
+    int activeCount() {
+        return active.size();
+    }
+
+    /** 单个排班的候诊队列。 */
+    static final class ScheduleQueue {
+        final int sid;
+        final String did;
+        final LocalDateTime start;
+        final LocalDateTime end;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final TreeMap<Integer, Waiting> bySerial = new TreeMap<>();
+        private final Map<String, Integer> serialByApid = new HashMap<>();
+        private String doctorName;
+        private String department;
+        private volatile boolean valid = true;
+
+        ScheduleQueue(Schedule schedule) {
+            this.sid = schedule.getSid();
+            this.did = schedule.getDid();
+            this.start = schedule.getStartTime();
+            this.end = schedule.getEndTime();
+        }
+
+        /** 调用方已持有锁。 */
+        private void load(HABMSDB db) throws SQLException {
+            DoctorAccount doctor = db.FindDoctorAccount(did, null);
+            if (doctor != null) {
+                doctorName = doctor.getName();
+                department = doctor.getDepartment();
+            }
+            for (Appointment a : db.FindAppointmentBelongSchedule(sid)) {
+                if (a.getStatus() == AppointmentStatus.Ok) {
+                    put(a.getSerialNumber(), a.getApid(), a.getAid());
+                }
+            }
+        }
+
+        private void awaitLoaded() {
+            lock.lock();
+            lock.unlock();
+        }
+
+        /**
+         * 查看序列号大于 afterSerial 的第一个候诊预约（不出队），队列为空时返回 null。
+         * 调用方在数据库认领结束后再 {@link #remove}，认领抛出异常时预约仍留在队列中。
+         */
+        Appointment peek(int afterSerial) {
+            lock.lock();
+            try {
+                Map.Entry<Integer, Waiting> e = bySerial.higherEntry(afterSerial);
+                if (e == null) {
+                    return null;
+                }
+                return new Appointment(e.getKey(), e.getValue().apid, e.getValue().aid, did, doctorName, department,
+                        sid, AppointmentStatus.Done, start, end);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return bySerial.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void add(int serial, String apid, String aid) {
+            lock.lock();
+            try {
+                put(serial, apid, aid);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void put(int serial, String apid, String aid) {
+            if (serialByApid.putIfAbsent(apid, serial) == null) {
+                bySerial.put(serial, new Waiting(apid, aid));
+            }
+        }
+
+        void remove(String apid) {
+            lock.lock();
+            try {
+                Integer serial = serialByApid.remove(apid);
+                if (serial != null) {
+                    bySerial.remove(serial);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Waiting {
+        final String apid;
+        final String aid;
+
+        Waiting(String apid, String aid) {
+            this.apid = apid;
+            this.aid = aid;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package HABMS.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 有界 JDBC 连接池：Semaphore 限制物理连接总数，空闲连接后进先出复用；
+ * 借出前校验久置连接，后台定期回收超时空闲连接并报告疑似泄漏，同时统计等待耗时。
+ * 借出的是代理连接，close() 仅归还（自动回滚未提交事务并恢复 autoCommit）。
+ * 每个物理连接带一个按 SQL 文本索引的 PreparedStatement LRU 缓存：prepareStatement(sql[, autoGeneratedKeys])
+ * 命中时直接复用，语句的 close() 只清空参数；配合 MariaDB 服务端预处理，热点 SQL 只解析一次。
+ * 与 HABMSDB 一样不使用 synchronized，等待连接时不会钉住虚拟线程。
+ */
+public final class ConnectionPool implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(ConnectionPool.class.getName());
+
+    /** 空闲超过该时长的连接在借出前做一次 isValid 校验。 */
+    private static final long VALIDATE_AFTER_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int VALIDATE_TIMEOUT_SECONDS = 2;
+    private static final long HOUSEKEEPING_PERIOD_MILLIS = 5_000;
+
+    private final String url;
+    private final int maxSize;
+    private final int minIdle;
+    private final long maxWaitMillis;
+    private final long idleTimeoutNanos;
+    private final long leakThresholdNanos;
+    private final int statementCacheSize;
+    private final Properties connectionProperties;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+    /** 借出时是否记录调用栈；关闭时只记时间，泄漏报告不带借出处。 */
+    private volatile boolean leakTrace;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    /** 默认配置：最多 20 个连接，等待 5 秒，空闲 10 分钟回收，借出超过 60 秒报告泄漏，每连接缓存 64 条语句。 */
+    public ConnectionPool(String url, String user, String password) {
+        this(url, user, password, 20, 2, 5_000, 600_000, 60_000, 64);
+    }
+
+    /**
+     * @param maxSize          物理连接上限
+     * @param minIdle          空闲回收时至少保留的连接数
+     * @param maxWaitMillis    借连接的最长等待时间，超时抛 SQLTimeoutException
+     * @param idleTimeoutMillis 空闲超过该时长的连接会被关闭
+     * @param leakThresholdMillis 借出超过该时长未归还时报告泄漏（借出处调用栈见 {@link #setLeakTrace}），0 表示关闭检测
+     * @param statementCacheSize 每个物理连接缓存的 PreparedStatement 数，0 表示不缓存
+     */
+    public ConnectionPool(String url, String user, String password, int maxSize, int minIdle,
+                          long maxWaitMillis, long idleTimeoutMillis, long leakThresholdMillis, int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.url = Objects.requireNonNull(url);
+        this.maxSize = maxSize;
+        this.minIdle = Math.max(0, Math.min(minIdle, maxSize));
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.leakThresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakThresholdMillis);
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.connectionProperties = driverProperties(url, Objects.requireNonNull(user),
+                Objects.requireNonNull(password), this.statementCacheSize);
+        this.permits = new Semaphore(maxSize);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "habms-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, HOUSEKEEPING_PERIOD_MILLIS, HOUSEKEEPING_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 借出时记录调用栈，泄漏报告随之给出借出处。每次借出都要构造一个 Throwable，开销不小，
+     * 默认关闭，排查泄漏时再打开；只影响之后的借出。
+     */
+    public void setLeakTrace(boolean leakTrace) {
+        this.leakTrace = leakTrace;
+    }
+
+    /** 借出一个连接；用完务必 close()（归还）。 */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("connection pool closed");
+        }
+        long waitStart = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLTimeoutException("connection pool exhausted (max " + maxSize + ", waited " + maxWaitMillis + " ms)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for connection", e);
+        }
+        long waited = System.nanoTime() - waitStart;
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        try {
+            PooledConnection pc = takeIdleOrCreate();
+            pc.lease();
+            borrowed.add(pc);
+            borrowCount.incrementAndGet();
+            return pc.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdleOrCreate() throws SQLException {
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            if (System.nanoTime() - pc.lastUsedNanos < VALIDATE_AFTER_IDLE_NANOS || isAlive(pc)) {
+                return pc;
+            }
+            destroy(pc);
+        }
+        Connection physical = DriverManager.getConnection(url, connectionProperties);
+        createdCount.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    /**
+     * MariaDB 驱动参数：启用语句缓存时同时打开服务端预处理（useServerPrepStmts），
+     * 使缓存的 PreparedStatement 对应服务端已解析的语句；URL 中显式给出的同名参数优先。
+     */
+    private static Properties driverProperties(String url, String user, String password, int statementCacheSize) {
+        Properties props = new Properties();
+        props.setProperty("user", user);
+        props.setProperty("password", password);
+        if (statementCacheSize > 0) {
+            if (!url.contains("useServerPrepStmts")) {
+                props.setProperty("useServerPrepStmts", "true");
+            }
+            if (!url.contains("prepStmtCacheSize")) {
+                props.setProperty("prepStmtCacheSize", Integer.toString(Math.max(250, statementCacheSize)));
+            }
+        }
+        return props;
+    }
+
+    private boolean isAlive(PooledConnection pc) {
+        try {
+            return pc.physical.isValid(VALIDATE_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /** 归还：回滚未提交事务、恢复默认状态后放回空闲队列；异常连接直接丢弃。 */
+    private void release(PooledConnection pc) {
+        borrowed.remove(pc);
+        try {
+            boolean reusable = !closed && !pc.broken;
+            if (reusable) {
+                try {
+                    if (!pc.physical.getAutoCommit()) {
+                        pc.physical.rollback();
+                        pc.physical.setAutoCommit(true);
+                    }
+                    if (pc.physical.isReadOnly()) {
+                        pc.physical.setReadOnly(false);
+                    }
+                } catch (SQLException e) {
+                    reusable = false;
+                }
+            }
+            if (reusable) {
+                pc.lastUsedNanos = System.nanoTime();
+                idle.addFirst(pc);
+            } else {
+                destroy(pc);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void destroy(PooledConnection pc) {
+        destroyedCount.incrementAndGet();
+        try {
+            pc.physical.close();
+        } catch (SQLException e) {
+            LOG.log(Level.FINE, "Error while closing pooled connection", e);
+        }
+    }
+
+    /** 后台任务：回收超时空闲连接（保留 minIdle 个），报告借出过久的连接。 */
+    private void housekeep() {
+        try {
+            long now = System.nanoTime();
+            int keep = minIdle;
+            Iterator<PooledConnection> it = idle.iterator();
+            while (it.hasNext()) {
+                PooledConnection pc = it.next();
+                if (keep > 0) {
+                    keep--;
+                    continue;
+                }
+                if (now - pc.lastUsedNanos > idleTimeoutNanos && idle.remove(pc)) {
+                    destroy(pc);
+                }
+            }
+            if (leakThresholdNanos > 0) {
+                for (PooledConnection pc : borrowed) {
+                    long held = now - pc.borrowedAtNanos;
+                    if (held > leakThresholdNanos && !pc.leakReported) {
+                        pc.leakReported = true;
+                        leakCount.incrementAndGet();
+                        Throwable site = pc.borrowSite;
+                        String message = "Connection held for " + TimeUnit.NANOSECONDS.toMillis(held)
+                                + " ms without being returned, possible leak";
+                        if (site != null) {
+                            LOG.log(Level.WARNING, message, site);
+                        } else {
+                            LOG.warning(message + " (enable leak trace to record the borrow site)");
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Pool housekeeping failed", e);
+        }
+    }
+
+    /** 当前池状态快照。 */
+    public PoolStats stats() {
+        long borrows = borrowCount.get();
+        return new PoolStats(maxSize, borrowed.size(), idle.size(), permits.getQueueLength(),
+                borrows, timeoutCount.get(), createdCount.get(), destroyedCount.get(), leakCount.get(),
+                borrows == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.get() / borrows),
+                TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()),
+                statementHits.get(), statementMisses.get());
+    }
+
+    /** 关闭连接池：停止后台任务并关闭全部空闲连接，借出中的连接归还时关闭。 */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            destroy(pc);
+        }
+    }
+
+    /** 物理连接及其代理；代理在一次借出期间有效，归还后再次调用会抛异常。 */
+    private final class PooledConnection implements InvocationHandler {
+        private final Connection physical;
+        private final Connection proxy;
+        /** 仅由当前借用者访问（同一时刻只有一个），无需加锁。 */
+        private final Map<String, CachedStatement> statements;
+        private volatile boolean leased;
+        private volatile boolean broken;
+        private volatile boolean leakReported;
+        private volatile long lastUsedNanos = System.nanoTime();
+        private volatile long borrowedAtNanos;
+        private volatile Throwable borrowSite;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+            this.statements = statementCacheSize == 0 ? null : new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if (size() <= statementCacheSize) {
+                        return false;
+                    }
+                    eldest.getValue().evict();
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * 按 SQL 文本（以及是否返回自增键）取缓存语句；同一 SQL 正在使用中（嵌套）时退化为普通语句。
+         */
+        private PreparedStatement prepareCached(String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? sql + "\u0000keys" : sql;
+            CachedStatement cached = statements.get(key);
+            if (cached != null && !cached.inUse) {
+                statementHits.incrementAndGet();
+                cached.inUse = true;
+                return cached.proxy;
+            }
+            statementMisses.incrementAndGet();
+            PreparedStatement ps = physical.prepareStatement(sql, autoGeneratedKeys);
+            if (cached != null) {
+                return ps;
+            }
+            cached = new CachedStatement(ps);
+            statements.put(key, cached);
+            cached.inUse = true;
+            return cached.proxy;
+        }
+
+        void markBroken(Throwable cause) {
+            if (cause instanceof SQLException sql && sql.getSQLState() != null && sql.getSQLState().startsWith("08")) {
+                broken = true; // SQLState 08xxx：连接级错误，归还时丢弃
+            }
+        }
+
+        /** 缓存中的语句：逻辑 close 只清空参数与批处理，被 LRU 淘汰时才真正关闭。 */
+        private final class CachedStatement implements InvocationHandler {
+            private final PreparedStatement physicalStatement;
+            private final PreparedStatement proxy;
+            private boolean inUse;
+            private boolean evicted;
+
+            CachedStatement(PreparedStatement physicalStatement) {
+                this.physicalStatement = physicalStatement;
+                this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                        new Class<?>[]{PreparedStatement.class}, this);
+            }
+
+            void evict() {
+                evicted = true;
+                if (!inUse) {
+                    closeQuietly();
+                }
+            }
+
+            private void closeQuietly() {
+                try {
+                    physicalStatement.close();
+                } catch (SQLException e) {
+                    LOG.log(Level.FINE, "Error while closing cached statement", e);
+                }
+            }
+
+            @Override
+            public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (inUse) {
+                            inUse = false;
+                            if (evicted || broken) {
+                                closeQuietly();
+                            } else {
+                                physicalStatement.clearParameters();
+                                physicalStatement.clearBatch();
+                            }
+                        }
+                        return null;
+                    case "isClosed":
+                        return !inUse;
+                    case "getConnection":
+                        return PooledConnection.this.proxy;
+                    case "equals":
+                        return p == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(p);
+                    case "toString":
+                        return "Cached[" + physicalStatement + "]";
+                    default:
+                        break;
+                }
+                if (!inUse) {
+                    throw new SQLException("statement already closed");
+                }
+                try {
+                    return method.invoke(physicalStatement, args);
+                } catch (InvocationTargetException e) {
+                    markBroken(e.getCause());
+                    throw e.getCause();
+                }
+            }
+        }
+
+        void lease() {
+            borrowedAtNanos = System.nanoTime();
+            borrowSite = leakTrace && leakThresholdNanos > 0 ? new Throwable("connection borrowed here") : null;
+            leakReported = false;
+            leased = true;
+        }
+
+        @Override
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (leased) {
+                        leased = false;
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return !leased || physical.isClosed();
+                case "equals":
+                    return p == args[0];
+                case "hashCode":
+                    return System.identityHashCode(p);
+                case "toString":
+                    return "Pooled[" + physical + "]";
+                default:
+                    break;
+            }
+            if (!leased) {
+                throw new SQLException("connection already returned to pool");
+            }
+            if (statements != null && "prepareStatement".equals(method.getName())) {
+                if (args.length == 1) {
+                    return prepareCached((String) args[0], Statement.NO_GENERATED_KEYS);
+                }
+                if (args.length == 2 && args[1] instanceof Integer keys) {
+                    return prepareCached((String) args[0], keys);
+                }
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                markBroken(e.getCause());
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package HABMS.db;
+
+import java.time.LocalDate;
+
+/** 预约日统计的一行：某医生某天（按排班开始日期）的预约总数与各状态数。 */
+public final class DailyStats {
+    private final LocalDate date;
+    private final String did;
+    private final String doctorName;
+    private final String department;
+    private final int total;
+    private final int ok;
+    private final int abandon;
+    private final int done;
+
+    public DailyStats(LocalDate date, String did, String doctorName, String department,
+                      int total, int ok, int abandon, int done) {
+        this.date = date;
+        this.did = did;
+        this.doctorName = doctorName;
+        this.department = department;
+        this.total = total;
+        this.ok = ok;
+        this.abandon = abandon;
+        this.done = done;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public String getDid() {
+        return did;
+    }
+
+    /** 医生已删除时为 null。 */
+    public String getDoctorName() {
+        return doctorName;
+    }
+
+    public String getDepartment() {
+        return department;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getOk() {
+        return ok;
+    }
+
+    public int getAbandon() {
+        return abandon;
+    }
+
+    public int getDone() {
+        return done;
+    }
+}
@@ -0,0 +1,155 @@
+package HABMS.db;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * AppointmentDailyStats 的增量：按排班累计预约数与各状态数的变化。
+ * 统计行以 (排班开始日期, DID) 为主键定位，不存在时插入，Department 取插入时医生所在的科室。
+ * 号源引擎的批量落库在同一事务内应用（{@link #apply}）。逐次预约事务不在事务内锁统计行，统计行锁不会让同一医生当天的
+ * 全部预约事务排队：事务内只把增量插入 AppointmentStatsPending（{@link #record}，迁移 V7），提交后再用一个短事务
+ * 删除该行并累加到统计（{@link #applyRecorded}）；该行已被 {@link HABMSDB#RebuildDailyStats} 删除时说明增量已计入重算，跳过。
+ * 删除预约、修改医生科室不会回写已有统计；提交后合并失败时待合并行留在表中，这些都由重算校正。
+ */
+final class DailyStatsDelta {
+    private static final Logger LOG = Logger.getLogger(DailyStatsDelta.class.getName());
+    private static final String SQL_APPLY = "INSERT INTO AppointmentDailyStats"
+            + "(StatDate, DID, Department, Total, OkCount, AbandonCount, DoneCount) "
+            + "SELECT DATE(s.STime), s.DID, d.Department, ?, ?, ?, ? FROM Schedule s JOIN Doctor d ON s.DID=d.DID WHERE s.SID=? "
+            + "ON DUPLICATE KEY UPDATE Total=Total+?, OkCount=OkCount+?, AbandonCount=AbandonCount+?, DoneCount=DoneCount+?";
+    // 排班开始时间不可修改，用不加锁的读取取日期，不与同一排班上的订票事务争锁
+    private static final String SQL_SCHEDULE_DATE = "SELECT DATE(STime) FROM Schedule WHERE SID=?";
+    private static final String SQL_RECORD = "INSERT INTO AppointmentStatsPending"
+            + "(StatDate, SID, Total, OkCount, AbandonCount, DoneCount) VALUES (?,?,?,?,?,?)";
+    private static final String SQL_TAKE = "DELETE FROM AppointmentStatsPending WHERE Id=?";
+
+    /** 排班 SID -> {Total, Ok, Abandon, Done} 的增量。 */
+    private final Map<Integer, int[]> bySid = new HashMap<>();
+    /** {@link #record} 插入的待合并行：Id -> SID。 */
+    private final Map<Long, Integer> recorded = new HashMap<>();
+
+    /** 单条新增预约的增量。 */
+    static DailyStatsDelta ofInserted(int sid, AppointmentStatus status) {
+        DailyStatsDelta delta = new DailyStatsDelta();
+        delta.inserted(sid, status);
+        return delta;
+    }
+
+    /** 单条状态变化的增量。 */
+    static DailyStatsDelta ofChanged(int sid, AppointmentStatus from, AppointmentStatus to) {
+        DailyStatsDelta delta = new DailyStatsDelta();
+        delta.changed(sid, from, to);
+        return delta;
+    }
+
+    /** 新增一条预约。 */
+    void inserted(int sid, AppointmentStatus status) {
+        int[] delta = delta(sid);
+        delta[0]++;
+        delta[1 + status.ordinal()]++;
+    }
+
+    /** 预约状态由 from 变为 to。 */
+    void changed(int sid, AppointmentStatus from, AppointmentStatus to) {
+        if (from == to) {
+            return;
+        }
+        int[] delta = delta(sid);
+        delta[1 + from.ordinal()]--;
+        delta[1 + to.ordinal()]++;
+    }
+
+    /** 在调用方的事务中写入全部增量，不提交。 */
+    void apply(Connection conn) throws SQLException {
+        if (bySid.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(SQL_APPLY)) {
+            for (Map.Entry<Integer, int[]> e : bySid.entrySet()) {
+                int[] delta = e.getValue();
+                for (int i = 0; i < 4; i++) {
+                    ps.setInt(1 + i, delta[i]);
+                    ps.setInt(6 + i, delta[i]);
+                }
+                ps.setInt(5, e.getKey());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /** 在调用方的预约事务中把增量写成待合并行，随预约一起提交或回滚；排班已不存在的增量丢弃。 */
+    void record(Connection conn) throws SQLException {
+        for (Map.Entry<Integer, int[]> e : bySid.entrySet()) {
+            int[] delta = e.getValue();
+            if (delta[0] == 0 && delta[1] == 0 && delta[2] == 0 && delta[3] == 0) {
+                continue;
+            }
+            Date date;
+            try (PreparedStatement ps = conn.prepareStatement(SQL_SCHEDULE_DATE)) {
+                ps.setInt(1, e.getKey());
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        continue;
+                    }
+                    date = rs.getDate(1);
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(SQL_RECORD, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setDate(1, date);
+                ps.setInt(2, e.getKey());
+                for (int i = 0; i < 4; i++) {
+                    ps.setInt(3 + i, delta[i]);
+                }
+                ps.executeUpdate();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        recorded.put(keys.getLong(1), e.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 调用方提交预约事务之后调用：在一个短事务中删除 {@link #record} 写下的待合并行并累加到统计，
+     * 统计行锁只持有这两条语句的时间。已被重算删除的行不再累加。失败只记日志（预约已提交，待合并行留待重算）。
+     */
+    void applyRecorded(Connection conn) {
+        if (recorded.isEmpty()) {
+            return;
+        }
+        try {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(SQL_TAKE)) {
+                for (Map.Entry<Long, Integer> e : recorded.entrySet()) {
+                    ps.setLong(1, e.getKey());
+                    if (ps.executeUpdate() != 1) {
+                        bySid.remove(e.getValue());
+                    }
+                }
+            }
+            apply(conn);
+            conn.commit();
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException ignored) {
+                // 连接已坏，归还时丢弃
+            }
+            LOG.log(Level.WARNING, "Failed to update daily stats, run RebuildDailyStats to correct them", e);
+        }
+    }
+
+    private int[] delta(int sid) {
+        return bySid.computeIfAbsent(sid, k -> new int[4]);
+    }
+}
@@ -1,30 +1,345 @@
 package HABMS.db;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
-/** 主数据库逻辑对象：封装 JDBC CRUD 与核心业务事务。 */
-public class HABMSDB {
-    private final String url;
-    private final String user;
-    private final String password;
+/**
+ * 主数据库逻辑对象：封装 JDBC CRUD 与核心业务事务。
+ * 本类不使用 synchronized，JDBC 阻塞期间不会把虚拟线程钉在载体线程上
+ * （MariaDB Connector/J 3.x 内部同样以 ReentrantLock 加锁）；新增代码请保持这一约定。
+ */
+public class HABMSDB implements Storage {
+    // 查询 SQL 均为编译期常量，保证连接池语句缓存按 SQL 文本命中
+    private static final String DOCTOR_SELECT = "SELECT * FROM Doctor WHERE ";
+    private static final String SQL_DOCTORS_BY_DEPARTMENT = DOCTOR_SELECT + "Department=?";
+    private static final String SQL_DOCTORS_BY_NAME = DOCTOR_SELECT + "Name=?";
+    static final String APPOINTMENT_SELECT = "SELECT a.*, s.STime, s.ETime, d.Name as DocName, d.Department as DocDept "
+            + "FROM Appointment a JOIN Schedule s ON a.SID=s.SID JOIN Doctor d ON a.DID=d.DID WHERE ";
+    private static final String SQL_APPOINTMENT_BY_APID = APPOINTMENT_SELECT + "a.APID=?";
+    private static final String SQL_APPOINTMENTS_BY_AID = APPOINTMENT_SELECT + "a.AID=?";
+    private static final String SQL_APPOINTMENTS_BY_DID = APPOINTMENT_SELECT + "a.DID=?";
+    private static final String SQL_APPOINTMENTS_BY_SID = APPOINTMENT_SELECT + "a.SID=?";
+    private static final String SQL_APPOINTMENTS_BY_STATU = APPOINTMENT_SELECT + "a.Statu=?";
+    // 走 (SID, Statu, SerialNumber) 索引；SKIP LOCKED 让并发叫号的控制台各自取到不同的预约
+    private static final String SQL_CLAIM_NEXT = "SELECT APID FROM Appointment "
+            + "WHERE SID=? AND Statu='Ok' AND SerialNumber>? AND DID=? ORDER BY SerialNumber LIMIT 1 FOR UPDATE SKIP LOCKED";
+    private static final String SQL_MARK_DONE = "UPDATE Appointment SET Statu='Done' WHERE APID=?";
+    private static final String SQL_MARK_DONE_IF_OK = "UPDATE Appointment SET Statu='Done' WHERE APID=? AND Statu='Ok'";
+    // 报表整表读取
+    private static final String SQL_ALL_DOCTORS = "SELECT * FROM Doctor";
+    private static final String SQL_ALL_SCHEDULES = "SELECT * FROM Schedule";
+    private static final String SQL_ALL_APPOINTMENTS = APPOINTMENT_SELECT + "1=1";
+    // 预约日统计：按日期范围读取与重算
+    private static final String SQL_DAILY_STATS = "SELECT t.*, d.Name AS DocName FROM AppointmentDailyStats t "
+            + "LEFT JOIN Doctor d ON t.DID=d.DID WHERE t.StatDate>=? AND t.StatDate<? ORDER BY t.StatDate, t.Department, t.DID";
+    private static final String SQL_DELETE_DAILY_STATS = "DELETE FROM AppointmentDailyStats WHERE StatDate>=? AND StatDate<?";
+    private static final String SQL_DELETE_STATS_PENDING = "DELETE FROM AppointmentStatsPending WHERE StatDate>=? AND StatDate<?";
+    private static final String SQL_COUNT_DAILY_STATS = "SELECT DATE(s.STime) AS StatDate, s.DID, d.Department, COUNT(*) AS Total, "
+            + "SUM(CASE WHEN a.Statu='Ok' THEN 1 ELSE 0 END) AS OkCount, "
+            + "SUM(CASE WHEN a.Statu='Abandon' THEN 1 ELSE 0 END) AS AbandonCount, "
+            + "SUM(CASE WHEN a.Statu='Done' THEN 1 ELSE 0 END) AS DoneCount "
+            + "FROM Appointment a JOIN Schedule s ON a.SID=s.SID JOIN Doctor d ON s.DID=d.DID "
+            + "WHERE s.STime>=? AND s.STime<? GROUP BY DATE(s.STime), s.DID, d.Department";
+    private static final String SQL_INSERT_DAILY_STATS = "INSERT INTO AppointmentDailyStats"
+            + "(StatDate, DID, Department, Total, OkCount, AbandonCount, DoneCount) VALUES (?,?,?,?,?,?,?)";
+    // 分页：按 SerialNumber（预约）或 (STime, SID)（排班）续读，时间窗按排班开始时间 [from, to)
+    private static final String PAGE_WINDOW = " AND s.STime>=? AND s.STime<? ORDER BY a.SerialNumber LIMIT ?";
+    private static final String SQL_APPOINTMENT_PAGE_BY_AID = APPOINTMENT_SELECT + "a.AID=? AND a.SerialNumber>?" + PAGE_WINDOW;
+    private static final String SQL_APPOINTMENT_PAGE_BY_DID = APPOINTMENT_SELECT + "a.DID=? AND a.SerialNumber>?" + PAGE_WINDOW;
+    private static final String SQL_APPOINTMENT_PAGE_ALL = APPOINTMENT_SELECT + "a.SerialNumber>?" + PAGE_WINDOW;
+    private static final String SQL_SCHEDULE_PAGE_BY_DID = "SELECT * FROM Schedule WHERE DID=? AND (STime>? OR (STime=? AND SID>?)) "
+            + "AND STime>=? AND STime<? ORDER BY STime, SID LIMIT ?";
+    /** 时间窗缺省端点（DATETIME 的取值范围）。 */
+    private static final LocalDateTime PAGE_MIN_TIME = LocalDateTime.of(1000, 1, 1, 0, 0);
+    private static final LocalDateTime PAGE_MAX_TIME = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+    private static final int SCHEDULE_IN_CHUNK = 200;
+    private static final String SQL_SCHEDULES_BY_DIDS = "SELECT * FROM Schedule WHERE DID IN ("
+            + String.join(",", Collections.nCopies(SCHEDULE_IN_CHUNK, "?")) + ") AND STime<=? AND ETime>=?";
+    // IdSequence 中的 SID 序列名与租用段长范围
+    private static final String SID_SEQUENCE = "Schedule.SID";
+    private static final int SID_BLOCK_MIN = 1_000;
+    private static final int SID_BLOCK_MAX = 100_000;
+    // 关闭租用时，时间分配器的 SID 高水位按节点存在 IdSequence 中；检查已占用 SID 时每次查询约一天的编号区间
+    private static final String SID_MARK_PREFIX = "Schedule.SID.node";
+    private static final int SID_TAKEN_SPAN = 24 * 60 * IdGenerator.NODES * 10;
+    private static final String SQL_EXISTING_SIDS = "SELECT SID FROM Schedule WHERE SID>=? AND SID<?";
 
+    /** 并行报表查询的线程（每份报表占用两个）。 */
+    private static final ExecutorService REPORT_EXECUTOR = Executors.newFixedThreadPool(4, r -> {
+        Thread t = new Thread(r, "habms-report");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ConnectionPool pool;
+    private volatile BookingEngine booking;
+    private volatile ScheduleIndex scheduleIndex;
+    private volatile CallQueues callQueues;
+    private volatile boolean bufferedReports;
+    private volatile boolean parallelReports;
+    private volatile ReplicaRouter replicas;
+    /** 已写入 IdSequence 的本节点 SID 高水位。 */
+    private final AtomicLong sidMarkRecorded = new AtomicLong(-1);
+    /** 当前线程所在的从库读作用域（见 replicaReads）。 */
+    private final ThreadLocal<ReplicaRouter> replicaScope = new ThreadLocal<>();
+
+    /** 使用默认配置的连接池。 */
     public HABMSDB(String url, String user, String password) {
-        this.url = Objects.requireNonNull(url);
-        this.user = Objects.requireNonNull(user);
-        this.password = Objects.requireNonNull(password);
+        this(new ConnectionPool(url, user, password));
+    }
+
+    /** 使用外部配置好的连接池，所有方法都从中借还连接。 */
+    public HABMSDB(ConnectionPool pool) {
+        this.pool = Objects.requireNonNull(pool);
+    }
+
+    Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
+
+    /**
+     * 重启后恢复编号分配进度：读取本节点最近分配的 AID、APID、DID（只看新格式编号）与时间分配器持久化的 SID 高水位，
+     * 避免突发分配借用的未来时间段在重启后被再次分配；并让时间分配器跳过 Schedule 表中已存在的（旧的随机）SID。
+     */
+    public void seedIdGenerators() throws SQLException {
+        String node = "%" + IdGenerator.node();
+        try (Connection conn = getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT AID FROM Account WHERE AID>=? AND AID LIKE ? ORDER BY AID DESC LIMIT 1")) {
+                ps.setString(1, IdGenerator.firstAid());
+                ps.setString(2, node);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        IdGenerator.observeAid(rs.getString(1));
+                    }
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT APID FROM Appointment WHERE APID>=? AND SUBSTRING(APID,7,1)=? ORDER BY APID DESC LIMIT 1")) {
+                ps.setString(1, IdGenerator.firstApidOfToday());
+                ps.setString(2, Integer.toString(IdGenerator.node()));
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        IdGenerator.observeApid(rs.getString(1));
+                    }
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT DID FROM Doctor WHERE DID LIKE 'D%' AND SUBSTRING(DID,6,1)=? ORDER BY DID DESC LIMIT 1")) {
+                ps.setString(1, Integer.toString(IdGenerator.node()));
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        IdGenerator.observeDid(rs.getString(1));
+                    }
+                }
+            }
+            // 只从本分配器写下的高水位恢复：Schedule 表中还有遍布整个 int 范围的旧随机 SID，不能取最大值
+            try (PreparedStatement ps = conn.prepareStatement("SELECT NextValue FROM IdSequence WHERE Name=?")) {
+                ps.setString(1, SID_MARK_PREFIX + IdGenerator.node());
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        long mark = rs.getLong(1);
+                        IdGenerator.observeSid((int) mark);
+                        sidMarkRecorded.accumulateAndGet(mark, Math::max);
+                    }
+                }
+            }
+        }
+        IdGenerator.skipTakenSids(new TakenIdWindow(this, SQL_EXISTING_SIDS, SID_TAKEN_SPAN));
+    }
+
+    /**
+     * 改为从 IdSequence 表（迁移 V3）按段租用 SID：每段一次事务，段内编号在内存中发放并提前预取下一段，
+     * 批量导入排班时不会为每行访问数据库，多节点共用序列也不会重复。序列行不存在时抛出 SQLException。
+     */
+    public void enableSidLeasing() throws SQLException {
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT NextValue FROM IdSequence WHERE Name=?")) {
+            ps.setString(1, SID_SEQUENCE);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("sequence " + SID_SEQUENCE + " not found");
+                }
+            }
+        }
+        SequenceBlockAllocator allocator = new SequenceBlockAllocator(this, SID_SEQUENCE,
+                SQL_EXISTING_SIDS, SID_BLOCK_MIN, SID_BLOCK_MAX);
+        IdGenerator.useSidSource(allocator::next);
     }
 
-    private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+    /**
+     * 启用内存号源引擎：从数据库恢复排班余量与 Ok 预约，此后 TryAppointment /
+     * ChangeAppointmentStatu 在内存中完成并由后台线程批量落库。只应在单节点部署时启用。
+     */
+    public void enableBookingEngine() throws SQLException {
+        if (booking != null) {
+            return;
+        }
+        BookingEngine engine = new BookingEngine(this);
+        engine.load();
+        booking = engine;
+    }
+
+    /**
+     * 启用内存排班时间索引：FindScheduleByTime / FindScheduleByTimeInDepartment 改为查询内存，
+     * 排班与医生的增删改经由本类同步到索引。只应在单节点部署时启用。
+     */
+    public void enableScheduleIndex() throws SQLException {
+        if (scheduleIndex != null) {
+            return;
+        }
+        ScheduleIndex index = new ScheduleIndex();
+        try (Connection conn = getConnection()) {
+            index.load(conn);
+        }
+        scheduleIndex = index;
+    }
+
+    /**
+     * 启用内存叫号队列：CallNextAppointment 从按序列号排序的内存队列出队，
+     * 队列在排班首次叫号时装载并由预约/取消事件维护。只应在单节点部署时启用。
+     */
+    public void enableCallQueues() {
+        if (callQueues == null) {
+            callQueues = new CallQueues(this);
+        }
+    }
+
+    public boolean isBookingEngineEnabled() {
+        return booking != null;
+    }
+
+    /** 等待内存号源引擎中尚未落库的写操作完成（未启用时立即返回）。 */
+    public void flushBookings() throws SQLException {
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.flush();
+        }
+    }
+
+    /** admin_report 是否先用 {@link #LoadReportSnapshot} 整表读入内存再输出（默认 false：快照游标流式输出）。 */
+    public void setBufferedReports(boolean buffered) {
+        this.bufferedReports = buffered;
+    }
+
+    @Override
+    public boolean isBufferedReports() {
+        return bufferedReports;
+    }
+
+    /**
+     * {@link #LoadReportSnapshot} 的读取方式：false（默认）在一个连接的只读 REPEATABLE READ 事务中依次执行三条查询，
+     * 结果来自同一快照；true 时三条查询各借一个连接并行执行，延迟约为最慢一条，但三者之间可能相差并发提交的几行。
+     */
+    public void setParallelReports(boolean parallel) {
+        this.parallelReports = parallel;
+    }
+
+    public boolean isParallelReports() {
+        return parallelReports;
+    }
+
+    /** 打开只读快照游标（先冲刷号源引擎），用于把大结果逐行流式输出；调用方负责关闭。 */
+    public SnapshotReader OpenSnapshot() throws SQLException {
+        flushBookings();
+        Connection conn = readConnection();
+        try {
+            return new JdbcSnapshotReader(this, conn);
+        } catch (SQLException | RuntimeException e) {
+            conn.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 启用只读从库：{@link #replicaReads} 作用域内的 Find/Load/OpenSnapshot 查询从 replica 借连接。
+     * 复制延迟超过 maxLagMillis 或从库不可达时退回主库；会话写入后 pinMillis 内其读固定到主库。
+     * 需要迁移 V6 的心跳表（在主库上建好后随复制同步到从库）。
+     */
+    public void enableReadReplica(ConnectionPool replica, long maxLagMillis, long pinMillis) {
+        replicas = new ReplicaRouter(this, Objects.requireNonNull(replica), maxLagMillis, pinMillis);
+    }
+
+    /**
+     * 在当前线程上把只读查询路由到从库，直到返回的作用域关闭；未启用从库、
+     * 或会话仍在写后固定窗口内时返回空作用域（照常走主库）。写入方法不受影响，总是走主库。
+     */
+    public ReadScope replicaReads(ReadSession session) {
+        ReplicaRouter router = replicas;
+        if (router == null || session.isPinned(System.nanoTime())) {
+            return ReadScope.NONE;
+        }
+        replicaScope.set(router);
+        return replicaScope::remove;
+    }
+
+    /** 会话刚写入（或可能写入）：之后一个固定窗口内其读请求走主库。 */
+    public void pinToPrimary(ReadSession session) {
+        ReplicaRouter router = replicas;
+        if (router != null) {
+            session.pin(System.nanoTime() + router.pinNanos);
+        }
+    }
+
+    /** 只读查询用的连接：处于从库作用域且从库可用时借从库连接，否则借主库连接。 */
+    private Connection readConnection() throws SQLException {
+        return readConnection(replicaScope.get());
+    }
+
+    private Connection readConnection(ReplicaRouter router) throws SQLException {
+        if (router != null) {
+            Connection conn = router.connection();
+            if (conn != null) {
+                return conn;
+            }
+        }
+        return getConnection();
+    }
+
+    /** 连接池运行统计。 */
+    public PoolStats getPoolStats() {
+        return pool.stats();
+    }
+
+    /** 从库运行统计，未启用从库时返回 null。 */
+    public ReplicaStats getReplicaStats() {
+        ReplicaRouter router = replicas;
+        return router == null ? null
+                : new ReplicaStats(router.usable(), router.lagMillis(), router.replicaReads(), router.primaryReads());
+    }
+
+    /** 冲刷号源引擎后关闭底层连接池。 */
+    @Override
+    public void close() {
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.close();
+        }
+        ReplicaRouter router = replicas;
+        if (router != null) {
+            router.close();
+        }
+        pool.close();
     }
 
     // insert
@@ -54,6 +369,7 @@ public class HABMSDB {
             ps.setString(6, doctor.getDescription());
             ps.executeUpdate();
         }
+        indexDoctor(doctor.getDid(), doctor.getDepartment());
     }
 
     /** 覆盖更新医生信息。 */
@@ -68,10 +384,17 @@ public class HABMSDB {
             ps.setString(6, doctor.getDid());
             ps.executeUpdate();
         }
+        indexDoctor(doctor.getDid(), doctor.getDepartment());
     }
 
     /** 覆盖更新排班信息。 */
     public void UpdateSchedule(Schedule schedule) throws SQLException {
+        BookingEngine engine = booking;
+        if (engine != null) {
+            updateScheduleByCapacityDelta(schedule, engine);
+            indexSchedule(schedule);
+            return;
+        }
         String sql = "UPDATE Schedule SET DID=?, STime=?, ETime=?, Capacity=?, Res=? WHERE SID=?";
         try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, schedule.getDid());
@@ -82,25 +405,73 @@ public class HABMSDB {
             ps.setInt(6, schedule.getSid());
             ps.executeUpdate();
         }
+        indexSchedule(schedule);
+    }
+
+    /**
+     * 号源引擎启用时的排班更新：Res 不按传入值覆盖，而是按容量差值增减，
+     * 避免覆盖写后队列中尚未落库的扣减。
+     */
+    private void updateScheduleByCapacityDelta(Schedule schedule, BookingEngine engine) throws SQLException {
+        String selectSql = "SELECT Capacity FROM Schedule WHERE SID=? FOR UPDATE";
+        String updateSql = "UPDATE Schedule SET DID=?, STime=?, ETime=?, Capacity=?, Res=Res+? WHERE SID=?";
+        int delta;
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(selectSql)) {
+                ps.setInt(1, schedule.getSid());
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        return;
+                    }
+                    delta = schedule.getCapacity() - rs.getInt("Capacity");
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(updateSql)) {
+                ps.setString(1, schedule.getDid());
+                ps.setTimestamp(2, Timestamp.valueOf(schedule.getStartTime()));
+                ps.setTimestamp(3, Timestamp.valueOf(schedule.getEndTime()));
+                ps.setInt(4, schedule.getCapacity());
+                ps.setInt(5, delta);
+                ps.setInt(6, schedule.getSid());
+                ps.executeUpdate();
+            }
+            conn.commit();
+        }
+        engine.onScheduleUpdated(schedule, delta);
     }
 
     /** 插入预约记录（无并发控制，供管理用）。 */
     public void InsertAppointment(Appointment appointment) throws SQLException {
         String sql = "INSERT INTO Appointment(APID,AID,DID,SID,Statu) VALUES (?,?,?,?,?)";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, appointment.getApid());
-            ps.setString(2, appointment.getAid());
-            ps.setString(3, appointment.getDid());
-            ps.setInt(4, appointment.getSid());
-            ps.setString(5, appointment.getStatus().name());
-            ps.executeUpdate();
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, appointment.getApid());
+                ps.setString(2, appointment.getAid());
+                ps.setString(3, appointment.getDid());
+                ps.setInt(4, appointment.getSid());
+                ps.setString(5, appointment.getStatus().name());
+                ps.executeUpdate();
+            }
+            DailyStatsDelta stats = DailyStatsDelta.ofInserted(appointment.getSid(), appointment.getStatus());
+            stats.record(conn);
+            conn.commit();
+            stats.applyRecorded(conn);
+        }
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.onAppointmentInserted(appointment);
         }
+        invalidateCallQueue(appointment.getSid());
     }
 
     /** 插入单条排班。 */
     public void InsertSchedule(Schedule schedule) throws SQLException {
         String sql = "INSERT INTO Schedule(SID,DID,STime,ETime,Capacity,Res) VALUES (?,?,?,?,?,?)";
         try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            recordSidHighWater(conn);
             ps.setInt(1, schedule.getSid());
             ps.setString(2, schedule.getDid());
             ps.setTimestamp(3, Timestamp.valueOf(schedule.getStartTime()));
@@ -109,12 +480,18 @@ public class HABMSDB {
             ps.setInt(6, schedule.getRes());
             ps.executeUpdate();
         }
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.onScheduleInserted(schedule);
+        }
+        indexSchedule(schedule);
     }
 
     /** 批量插入排班列表。 */
     public void InsertSchedules(List<Schedule> schedules) throws SQLException {
         String sql = "INSERT INTO Schedule(SID,DID,STime,ETime,Capacity,Res) VALUES (?,?,?,?,?,?)";
         try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            recordSidHighWater(conn);
             for (Schedule s : schedules) {
                 ps.setInt(1, s.getSid());
                 ps.setString(2, s.getDid());
@@ -126,6 +503,33 @@ public class HABMSDB {
             }
             ps.executeBatch();
         }
+        BookingEngine engine = booking;
+        if (engine != null) {
+            for (Schedule s : schedules) {
+                engine.onScheduleInserted(s);
+            }
+        }
+        for (Schedule s : schedules) {
+            indexSchedule(s);
+        }
+    }
+
+    /**
+     * 时间分配器分配过新的 SID 时，在插入排班之前把高水位写入 IdSequence（只增不减），重启后从这里恢复进度。
+     * 先写高水位再插入，中途失败时高水位只会偏高，不会让已落库的编号被再次分配。
+     */
+    private void recordSidHighWater(Connection conn) throws SQLException {
+        long mark = IdGenerator.sidHighWater();
+        if (mark <= sidMarkRecorded.get()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO IdSequence(Name, NextValue) VALUES (?,?) "
+                + "ON DUPLICATE KEY UPDATE NextValue=GREATEST(NextValue, VALUES(NextValue))")) {
+            ps.setString(1, SID_MARK_PREFIX + IdGenerator.node());
+            ps.setLong(2, mark);
+            ps.executeUpdate();
+        }
+        sidMarkRecorded.accumulateAndGet(mark, Math::max);
     }
 
     // delete
@@ -137,11 +541,19 @@ public class HABMSDB {
     /** 删除医生账号。 */
     public void DelDoctorAccount(String did) throws SQLException {
         executeDelete("DELETE FROM Doctor WHERE DID=?", did);
+        indexDoctor(did, null);
     }
 
     /** 删除预约记录。 */
     public void DelAppointment(String apid) throws SQLException {
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.awaitPersistedAppointment(apid);
+        }
         executeDelete("DELETE FROM Appointment WHERE APID=?", apid);
+        if (engine != null) {
+            engine.onAppointmentDeleted(apid);
+        }
     }
 
     /** 删除排班。 */
@@ -150,6 +562,53 @@ public class HABMSDB {
             ps.setInt(1, sid);
             ps.executeUpdate();
         }
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.onScheduleDeleted(sid);
+        }
+        ScheduleIndex index = scheduleIndex;
+        if (index != null) {
+            index.remove(sid);
+        }
+        invalidateCallQueue(sid);
+    }
+
+    private void indexSchedule(Schedule schedule) {
+        ScheduleIndex index = scheduleIndex;
+        if (index != null) {
+            index.put(schedule);
+        }
+    }
+
+    /** 新预约已提交：通知叫号队列。 */
+    void publishBooked(int sid, int serial, String apid, String aid) {
+        CallQueues queues = callQueues;
+        if (queues != null) {
+            queues.onBooked(sid, serial, apid, aid);
+        }
+    }
+
+    /** 预约不再候诊：通知叫号队列。 */
+    void publishClosed(int sid, String apid) {
+        CallQueues queues = callQueues;
+        if (queues != null) {
+            queues.onClosed(sid, apid);
+        }
+    }
+
+    /** 排班的候诊集合发生无法增量表达的变化：丢弃其叫号队列。 */
+    void invalidateCallQueue(int sid) {
+        CallQueues queues = callQueues;
+        if (queues != null) {
+            queues.invalidate(sid);
+        }
+    }
+
+    private void indexDoctor(String did, String department) {
+        ScheduleIndex index = scheduleIndex;
+        if (index != null) {
+            index.doctorChanged(did, department);
+        }
     }
 
     private void executeDelete(String sql, String key) throws SQLException {
@@ -163,7 +622,7 @@ public class HABMSDB {
     /** 按 AID/PID/Phone 任一匹配查询账户（限制 1 条）。 */
     public Account FindAccount(String aid, String pid, String phone) throws SQLException {
         String sql = "SELECT * FROM Account WHERE AID=? OR PID=? OR Phone=? LIMIT 1";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = readConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, aid);
             ps.setString(2, pid);
             ps.setString(3, phone);
@@ -179,7 +638,7 @@ public class HABMSDB {
     /** 按 DID 或姓名查询医生（限制 1 条）。 */
     public DoctorAccount FindDoctorAccount(String did, String name) throws SQLException {
         String sql = "SELECT * FROM Doctor WHERE DID=? OR Name=? LIMIT 1";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = readConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, did);
             ps.setString(2, name);
             try (ResultSet rs = ps.executeQuery()) {
@@ -193,18 +652,17 @@ public class HABMSDB {
 
     /** 按科室查找医生列表。 */
     public DoctorAccount[] FindDoctorAccounts(String department) throws SQLException {
-        return findDoctorsWithWhere("Department=?", department);
+        return findDoctors(SQL_DOCTORS_BY_DEPARTMENT, department);
     }
 
     /** 按姓名模糊/精确查询医生列表。 */
     public DoctorAccount[] FindDoctorAccountsByName(String name) throws SQLException {
-        return findDoctorsWithWhere("Name=?", name);
+        return findDoctors(SQL_DOCTORS_BY_NAME, name);
     }
 
-    private DoctorAccount[] findDoctorsWithWhere(String whereClause, String value) throws SQLException {
-        String sql = "SELECT * FROM Doctor WHERE " + whereClause;
+    private DoctorAccount[] findDoctors(String sql, String value) throws SQLException {
         List<DoctorAccount> list = new ArrayList<>();
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = readConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, value);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
@@ -217,8 +675,11 @@ public class HABMSDB {
 
     /** 查单个预约，附带医生与排班时间。 */
     public Appointment FindAppointment(String apid) throws SQLException {
-        String sql = "SELECT a.*, s.STime, s.ETime, d.Name as DocName, d.Department as DocDept FROM Appointment a JOIN Schedule s ON a.SID=s.SID JOIN Doctor d ON a.DID=d.DID WHERE a.APID=?";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.awaitPersistedAppointment(apid);
+        }
+        try (Connection conn = readConnection(); PreparedStatement ps = conn.prepareStatement(SQL_APPOINTMENT_BY_APID)) {
             ps.setString(1, apid);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
@@ -231,28 +692,275 @@ public class HABMSDB {
 
     /** 查询患者的全部预约。 */
     public Appointment[] FindAppointmentBelongAccount(String aid) throws SQLException {
-        return findAppointmentsWithWhere("a.AID=?", aid);
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.awaitPersistedAccount(aid);
+        }
+        return findAppointments(SQL_APPOINTMENTS_BY_AID, aid);
     }
 
     /** 查询医生的全部预约。 */
     public Appointment[] FindAppointmentBelongDoctorAccount(String did) throws SQLException {
-        return findAppointmentsWithWhere("a.DID=?", did);
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.awaitPersistedDoctor(did);
+        }
+        return findAppointments(SQL_APPOINTMENTS_BY_DID, did);
     }
 
     /** 查询某排班下的全部预约。 */
     public Appointment[] FindAppointmentBelongSchedule(int sid) throws SQLException {
-        return findAppointmentsWithWhere("a.SID=?", sid);
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.awaitPersistedSchedule(sid);
+        }
+        return findAppointments(SQL_APPOINTMENTS_BY_SID, sid);
     }
 
-    /** 按状态查询预约。 */
+    /**
+     * 分页查询患者的预约：SerialNumber 大于 afterSerial 的前 limit 条（升序），
+     * 只含排班开始时间在 [from, to) 内的预约，from/to 为 null 表示不限。
+     */
+    public Appointment[] FindAppointmentBelongAccount(String aid, int afterSerial, LocalDateTime from, LocalDateTime to,
+            int limit) throws SQLException {
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.awaitPersistedAccount(aid);
+        }
+        return findAppointmentPage(SQL_APPOINTMENT_PAGE_BY_AID, aid, afterSerial, from, to, limit);
+    }
+
+    /** 分页查询医生的预约，参数同 {@link #FindAppointmentBelongAccount(String, int, LocalDateTime, LocalDateTime, int)}。 */
+    public Appointment[] FindAppointmentBelongDoctorAccount(String did, int afterSerial, LocalDateTime from, LocalDateTime to,
+            int limit) throws SQLException {
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.awaitPersistedDoctor(did);
+        }
+        return findAppointmentPage(SQL_APPOINTMENT_PAGE_BY_DID, did, afterSerial, from, to, limit);
+    }
+
+    /** 分页查询全部预约（先冲刷号源引擎），参数同上。 */
+    public Appointment[] FindAllAppointments(int afterSerial, LocalDateTime from, LocalDateTime to, int limit)
+            throws SQLException {
+        flushBookings();
+        return findAppointmentPage(SQL_APPOINTMENT_PAGE_ALL, null, afterSerial, from, to, limit);
+    }
+
+    /** key 为 null 时 sql 不含 AID/DID 条件。 */
+    private Appointment[] findAppointmentPage(String sql, String key, int afterSerial, LocalDateTime from,
+            LocalDateTime to, int limit) throws SQLException {
+        List<Appointment> list = new ArrayList<>();
+        try (Connection conn = readConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            int i = 1;
+            if (key != null) {
+                ps.setString(i++, key);
+            }
+            ps.setInt(i++, afterSerial);
+            ps.setTimestamp(i++, Timestamp.valueOf(from != null ? from : PAGE_MIN_TIME));
+            ps.setTimestamp(i++, Timestamp.valueOf(to != null ? to : PAGE_MAX_TIME));
+            ps.setInt(i, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    list.add(mapAppointment(rs));
+                }
+            }
+        }
+        return list.toArray(new Appointment[0]);
+    }
+
+    /**
+     * 读取管理员报表：医生、排班、预约各一条整表查询（不随科室数、医生数增加），
+     * 在内存中按科室过滤医生、按医生分组排班、按状态排序预约，顺序与逐科室/逐医生查询时一致。
+     */
+    public ReportSnapshot LoadReportSnapshot(Collection<String> departments) throws SQLException {
+        flushBookings();
+        List<DoctorAccount> allDoctors;
+        List<Schedule> allSchedules;
+        List<Appointment> allAppointments;
+        if (parallelReports) {
+            CompletableFuture<List<DoctorAccount>> d = fetchAsync(SQL_ALL_DOCTORS, this::mapDoctor);
+            CompletableFuture<List<Schedule>> s = fetchAsync(SQL_ALL_SCHEDULES, this::mapSchedule);
+            List<Appointment> a;
+            try (Connection conn = readConnection()) {
+                a = fetchAll(conn, SQL_ALL_APPOINTMENTS, this::mapAppointment);
+            }
+            allDoctors = join(d);
+            allSchedules = join(s);
+            allAppointments = a;
+        } else {
+            try (Connection conn = readConnection()) {
+                int isolation = conn.getTransactionIsolation();
+                conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                conn.setReadOnly(true);
+                conn.setAutoCommit(false);
+                try {
+                    allDoctors = fetchAll(conn, SQL_ALL_DOCTORS, this::mapDoctor);
+                    allSchedules = fetchAll(conn, SQL_ALL_SCHEDULES, this::mapSchedule);
+                    allAppointments = fetchAll(conn, SQL_ALL_APPOINTMENTS, this::mapAppointment);
+                } finally {
+                    conn.rollback();
+                    conn.setReadOnly(false);
+                    conn.setTransactionIsolation(isolation);
+                }
+            }
+        }
+
+        Map<String, Integer> departmentOrder = new HashMap<>();
+        for (String dep : departments) {
+            departmentOrder.putIfAbsent(dep, departmentOrder.size());
+        }
+        List<DoctorAccount> doctors = new ArrayList<>();
+        for (DoctorAccount d : allDoctors) {
+            if (departmentOrder.containsKey(d.getDepartment())) {
+                doctors.add(d);
+            }
+        }
+        doctors.sort(Comparator.comparingInt(d -> departmentOrder.get(d.getDepartment())));
+
+        Map<String, List<Schedule>> schedulesByDid = new HashMap<>();
+        for (Schedule s : allSchedules) {
+            schedulesByDid.computeIfAbsent(s.getDid(), k -> new ArrayList<>()).add(s);
+        }
+        List<Schedule> schedules = new ArrayList<>();
+        for (DoctorAccount d : doctors) {
+            schedules.addAll(schedulesByDid.getOrDefault(d.getDid(), List.of()));
+        }
+
+        List<Appointment> appointments = new ArrayList<>(allAppointments);
+        appointments.sort(Comparator.comparingInt(a -> a.getStatus().ordinal()));
+        return new ReportSnapshot(doctors, schedules, appointments);
+    }
+
+    /** 查询全部预约（先冲刷号源引擎，一条整表查询，按状态排序）。 */
+    public Appointment[] FindAllAppointments() throws SQLException {
+        flushBookings();
+        List<Appointment> list;
+        try (Connection conn = readConnection()) {
+            list = fetchAll(conn, SQL_ALL_APPOINTMENTS, this::mapAppointment);
+        }
+        list.sort(Comparator.comparingInt(a -> a.getStatus().ordinal()));
+        return list.toArray(new Appointment[0]);
+    }
+
+    /**
+     * 读取 [from, to) 内的预约日统计（按日期、科室、DID 排序），附带医生当前姓名。
+     * 写后队列先落库，保证刚提交的预约已计入。
+     */
+    public DailyStats[] FindDailyStats(LocalDate from, LocalDate to) throws SQLException {
+        flushBookings();
+        List<DailyStats> list = new ArrayList<>();
+        try (Connection conn = readConnection(); PreparedStatement ps = conn.prepareStatement(SQL_DAILY_STATS)) {
+            ps.setDate(1, Date.valueOf(from));
+            ps.setDate(2, Date.valueOf(to));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    list.add(new DailyStats(
+                            rs.getDate("StatDate").toLocalDate(),
+                            rs.getString("DID"),
+                            rs.getString("DocName"),
+                            rs.getString("Department"),
+                            rs.getInt("Total"),
+                            rs.getInt("OkCount"),
+                            rs.getInt("AbandonCount"),
+                            rs.getInt("DoneCount")));
+                }
+            }
+        }
+        return list.toArray(new DailyStats[0]);
+    }
+
+    /**
+     * 按预约表重算 [from, to) 内的日统计，返回写入的统计行数。用于回填历史，以及校正删除预约、
+     * 医生换科室后增量计数未覆盖的部分（科室按医生当前科室重新归属）。
+     * 一个事务内依次：删除范围内的待合并增量（已提交预约的增量由本次重算计入，提交后的合并发现行已删除便跳过；
+     * 间隙锁让之后的预约事务等到重算提交后再写增量）、删除统计行、快照读计数并写回。
+     * 计数用不加锁的快照读，读视图建立在两条 DELETE 之后：已提交的预约都计入，未提交的都由其增量在重算后累加，
+     * 因此并发的逐次预约既不丢失也不重复；号源引擎的批量事务在统计行锁上排队，结论相同。
+     */
+    public int RebuildDailyStats(LocalDate from, LocalDate to) throws SQLException {
+        flushBookings();
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            for (String sql : new String[]{SQL_DELETE_STATS_PENDING, SQL_DELETE_DAILY_STATS}) {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setDate(1, Date.valueOf(from));
+                    ps.setDate(2, Date.valueOf(to));
+                    ps.executeUpdate();
+                }
+            }
+            int rows = 0;
+            try (PreparedStatement count = conn.prepareStatement(SQL_COUNT_DAILY_STATS);
+                 PreparedStatement insert = conn.prepareStatement(SQL_INSERT_DAILY_STATS)) {
+                count.setTimestamp(1, Timestamp.valueOf(from.atStartOfDay()));
+                count.setTimestamp(2, Timestamp.valueOf(to.atStartOfDay()));
+                try (ResultSet rs = count.executeQuery()) {
+                    while (rs.next()) {
+                        insert.setDate(1, rs.getDate("StatDate"));
+                        insert.setString(2, rs.getString("DID"));
+                        insert.setString(3, rs.getString("Department"));
+                        insert.setInt(4, rs.getInt("Total"));
+                        insert.setInt(5, rs.getInt("OkCount"));
+                        insert.setInt(6, rs.getInt("AbandonCount"));
+                        insert.setInt(7, rs.getInt("DoneCount"));
+                        insert.addBatch();
+                        rows++;
+                    }
+                }
+                if (rows > 0) {
+                    insert.executeBatch();
+                }
+            }
+            conn.commit();
+            return rows;
+        }
+    }
+
+    private <T> CompletableFuture<List<T>> fetchAsync(String sql, RowMapper<T> mapper) {
+        ReplicaRouter router = replicaScope.get(); // 作用域是线程级的，带到报表线程上
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection conn = readConnection(router)) {
+                return fetchAll(conn, sql, mapper);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, REPORT_EXECUTOR);
+    }
+
+    private static <T> List<T> join(CompletableFuture<List<T>> future) throws SQLException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException sql) {
+                throw sql;
+            }
+            throw e;
+        }
+    }
+
+    private static <T> List<T> fetchAll(Connection conn, String sql, RowMapper<T> mapper) throws SQLException {
+        List<T> list = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql); ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                list.add(mapper.map(rs));
+            }
+        }
+        return list;
+    }
+
+    private interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    /** 按状态查询预约（先冲刷号源引擎）。 */
     public Appointment[] FindAppointmentByStatu(AppointmentStatus statu) throws SQLException {
-        return findAppointmentsWithWhere("a.Statu=?", statu.name());
+        flushBookings();
+        return findAppointments(SQL_APPOINTMENTS_BY_STATU, statu.name());
     }
 
-    private Appointment[] findAppointmentsWithWhere(String whereClause, Object value) throws SQLException {
-        String sql = "SELECT a.*, s.STime, s.ETime, d.Name as DocName, d.Department as DocDept FROM Appointment a JOIN Schedule s ON a.SID=s.SID JOIN Doctor d ON a.DID=d.DID WHERE " + whereClause;
+    private Appointment[] findAppointments(String sql, Object value) throws SQLException {
         List<Appointment> list = new ArrayList<>();
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = readConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
             if (value instanceof Integer) {
                 ps.setInt(1, (Integer) value);
             } else {
@@ -270,7 +978,7 @@ public class HABMSDB {
     /** 按 SID 查排班。 */
     public Schedule FindSchedule(int sid) throws SQLException {
         String sql = "SELECT * FROM Schedule WHERE SID=?";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = readConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, sid);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
@@ -285,8 +993,33 @@ public class HABMSDB {
     public Schedule[] FindScheduleBelongDoctorAccount(String did) throws SQLException {
         String sql = "SELECT * FROM Schedule WHERE DID=?";
         List<Schedule> list = new ArrayList<>();
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = readConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, did);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    list.add(mapSchedule(rs));
+                }
+            }
+        }
+        return list.toArray(new Schedule[0]);
+    }
+
+    /**
+     * 分页查询医生的排班：按 (STime, SID) 升序取 (afterStart, afterSid) 之后的前 limit 条，
+     * 只含开始时间在 [from, to) 内的排班；afterStart 为 null 表示从头开始，from/to 为 null 表示不限。
+     */
+    public Schedule[] FindScheduleBelongDoctorAccount(String did, LocalDateTime afterStart, int afterSid,
+            LocalDateTime from, LocalDateTime to, int limit) throws SQLException {
+        Timestamp after = Timestamp.valueOf(afterStart != null ? afterStart : PAGE_MIN_TIME);
+        List<Schedule> list = new ArrayList<>();
+        try (Connection conn = readConnection(); PreparedStatement ps = conn.prepareStatement(SQL_SCHEDULE_PAGE_BY_DID)) {
             ps.setString(1, did);
+            ps.setTimestamp(2, after);
+            ps.setTimestamp(3, after);
+            ps.setInt(4, afterStart != null ? afterSid : Integer.MIN_VALUE);
+            ps.setTimestamp(5, Timestamp.valueOf(from != null ? from : PAGE_MIN_TIME));
+            ps.setTimestamp(6, Timestamp.valueOf(to != null ? to : PAGE_MAX_TIME));
+            ps.setInt(7, limit);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
                     list.add(mapSchedule(rs));
@@ -296,11 +1029,44 @@ public class HABMSDB {
         return list.toArray(new Schedule[0]);
     }
 
+    /**
+     * 批量查询多名医生在 [from, to] 内（端点相接也算）的排班，按 DID 分组；用于批量导入时的一次性重叠校验。
+     * DID 按 SCHEDULE_IN_CHUNK 个一组查询，不足一组时用最后一个 DID 补齐，使 SQL 文本固定以命中语句缓存。
+     */
+    public Map<String, List<Schedule>> FindSchedulesBelongDoctorAccounts(Collection<String> dids,
+            LocalDateTime from, LocalDateTime to) throws SQLException {
+        Map<String, List<Schedule>> result = new HashMap<>();
+        if (dids.isEmpty()) {
+            return result;
+        }
+        String[] all = dids.toArray(new String[0]);
+        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(SQL_SCHEDULES_BY_DIDS)) {
+            for (int offset = 0; offset < all.length; offset += SCHEDULE_IN_CHUNK) {
+                for (int i = 0; i < SCHEDULE_IN_CHUNK; i++) {
+                    ps.setString(i + 1, all[Math.min(offset + i, all.length - 1)]);
+                }
+                ps.setTimestamp(SCHEDULE_IN_CHUNK + 1, Timestamp.valueOf(to));
+                ps.setTimestamp(SCHEDULE_IN_CHUNK + 2, Timestamp.valueOf(from));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Schedule s = mapSchedule(rs);
+                        result.computeIfAbsent(s.getDid(), k -> new ArrayList<>()).add(s);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
     /** 查覆盖指定时间的排班列表。 */
     public Schedule[] FindScheduleByTime(LocalDateTime time) throws SQLException {
+        ScheduleIndex index = scheduleIndex;
+        if (index != null) {
+            return withLiveRes(index.find(time));
+        }
         String sql = "SELECT * FROM Schedule WHERE STime<=? AND ETime>=?";
         List<Schedule> list = new ArrayList<>();
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = readConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
             Timestamp ts = Timestamp.valueOf(time);
             ps.setTimestamp(1, ts);
             ps.setTimestamp(2, ts);
@@ -315,9 +1081,13 @@ public class HABMSDB {
 
     /** 按时间与科室过滤排班列表。 */
     public Schedule[] FindScheduleByTimeInDepartment(LocalDateTime time, String department) throws SQLException {
+        ScheduleIndex index = scheduleIndex;
+        if (index != null) {
+            return withLiveRes(index.find(time, department));
+        }
         String sql = "SELECT s.* FROM Schedule s JOIN Doctor d ON s.DID=d.DID WHERE s.STime<=? AND s.ETime>=? AND d.Department=?";
         List<Schedule> list = new ArrayList<>();
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = readConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
             Timestamp ts = Timestamp.valueOf(time);
             ps.setTimestamp(1, ts);
             ps.setTimestamp(2, ts);
@@ -331,6 +1101,15 @@ public class HABMSDB {
         return list.toArray(new Schedule[0]);
     }
 
+    private Schedule[] withLiveRes(List<Schedule> schedules) {
+        Schedule[] out = new Schedule[schedules.size()];
+        for (int i = 0; i < out.length; i++) {
+            Schedule s = schedules.get(i);
+            out[i] = new Schedule(s.getSid(), s.getDid(), s.getStartTime(), s.getEndTime(), s.getCapacity(), res(s.getSid(), s.getRes()));
+        }
+        return out;
+    }
+
     // change
     /** 修改患者姓名/密码/电话。 */
     public void ChangeAccountInfo(Account account) throws SQLException {
@@ -356,12 +1135,17 @@ public class HABMSDB {
             ps.setString(6, doctor.getDid());
             ps.executeUpdate();
         }
+        indexDoctor(doctor.getDid(), doctor.getDepartment());
     }
 
     /**
      * 更新预约状态，若从 Ok -> Abandon 则返还号源；使用事务保证一致性。
      */
     public void ChangeAppointmentStatu(String apid, AppointmentStatus statu) throws SQLException {
+        BookingEngine engine = booking;
+        if (engine != null && engine.changeStatus(apid, statu)) {
+            return;
+        }
         String selectSql = "SELECT Statu, SID FROM Appointment WHERE APID=? FOR UPDATE";
         String updateAppointmentSql = "UPDATE Appointment SET Statu=? WHERE APID=?";
         String restoreScheduleResSql = "UPDATE Schedule SET Res=Res+1 WHERE SID=?";
@@ -386,7 +1170,8 @@ public class HABMSDB {
             }
 
             // Only restore capacity when changing from Ok to Abandon
-            if (oldStatus == AppointmentStatus.Ok && statu == AppointmentStatus.Abandon) {
+            boolean restore = oldStatus == AppointmentStatus.Ok && statu == AppointmentStatus.Abandon;
+            if (restore) {
                 try (PreparedStatement ps = conn.prepareStatement(restoreScheduleResSql)) {
                     ps.setInt(1, sid);
                     ps.executeUpdate();
@@ -398,9 +1183,20 @@ public class HABMSDB {
                 ps.setString(2, apid);
                 ps.executeUpdate();
             }
-
+            DailyStatsDelta stats = DailyStatsDelta.ofChanged(sid, oldStatus, statu);
+            stats.record(conn);
             conn.commit();
+            stats.applyRecorded(conn);
             conn.setAutoCommit(oldAutoCommit);
+            ScheduleIndex index = scheduleIndex;
+            if (restore && index != null) {
+                index.adjustRes(sid, 1);
+            }
+            if (statu != AppointmentStatus.Ok) {
+                publishClosed(sid, apid);
+            } else if (oldStatus != AppointmentStatus.Ok) {
+                invalidateCallQueue(sid);
+            }
         }
     }
 
@@ -413,10 +1209,22 @@ public class HABMSDB {
             ps.setInt(3, sid);
             ps.executeUpdate();
         }
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.onCapacityChanged(sid, delta);
+        }
+        ScheduleIndex index = scheduleIndex;
+        if (index != null) {
+            index.adjustCapacity(sid, delta);
+        }
     }
 
     /** 尝试预定操作，原子扣减号源并插入预约，失败回滚。 */
     public Appointment TryAppointment(String aid, int sid) throws SQLException {
+        BookingEngine engine = booking;
+        if (engine != null) {
+            return engine.tryAppointment(aid, sid);
+        }
         String updateSql = "UPDATE Schedule SET Res=Res-1 WHERE SID=? AND Res>0";
         String selectSchedule = "SELECT DID, STime, ETime FROM Schedule WHERE SID=?";
         String overlapSql = "SELECT 1 FROM Appointment a JOIN Schedule s ON a.SID=s.SID "
@@ -468,19 +1276,119 @@ public class HABMSDB {
                 }
             }
 
-            Appointment appointment = Appointment.create(aid, did, sid, AppointmentStatus.Ok, sTime, eTime);
-            try (PreparedStatement ps = conn.prepareStatement(insertAppointment)) {
-                ps.setString(1, appointment.getApid());
-                ps.setString(2, appointment.getAid());
-                ps.setString(3, appointment.getDid());
-                ps.setInt(4, appointment.getSid());
-                ps.setString(5, appointment.getStatus().name());
+            Appointment created = Appointment.create(aid, did, sid, AppointmentStatus.Ok, sTime, eTime);
+            int serial = 0;
+            try (PreparedStatement ps = conn.prepareStatement(insertAppointment, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setString(1, created.getApid());
+                ps.setString(2, created.getAid());
+                ps.setString(3, created.getDid());
+                ps.setInt(4, created.getSid());
+                ps.setString(5, created.getStatus().name());
                 ps.executeUpdate();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        serial = keys.getInt(1);
+                    }
+                }
             }
 
+            DailyStatsDelta stats = DailyStatsDelta.ofInserted(sid, AppointmentStatus.Ok);
+            stats.record(conn);
             conn.commit();
+            stats.applyRecorded(conn);
             conn.setAutoCommit(oldAutoCommit);
-            return appointment;
+            ScheduleIndex index = scheduleIndex;
+            if (index != null) {
+                index.adjustRes(sid, -1);
+            }
+            if (serial > 0) {
+                publishBooked(sid, serial, created.getApid(), aid);
+            } else {
+                invalidateCallQueue(sid);
+            }
+            return new Appointment(serial, created.getApid(), aid, did, null, null, sid, AppointmentStatus.Ok, sTime, eTime);
+        }
+    }
+
+    /**
+     * 叫号：在一个事务内取出该排班中序列号大于 afterSerial 的第一个 Ok 预约并置为 Done，
+     * 返回更新后的预约；没有候诊预约时返回 null。
+     */
+    public Appointment CallNextAppointment(String did, int sid, int afterSerial) throws SQLException {
+        BookingEngine engine = booking;
+        if (engine != null) {
+            engine.flush(); // 让写后队列中的预约与取消先落库并进入叫号队列
+        }
+        CallQueues queues = callQueues;
+        CallQueues.ScheduleQueue queue = queues == null ? null : queues.activate(sid);
+        if (queue != null) {
+            if (!queue.did.equals(did)) {
+                return null;
+            }
+            // 队列中可能残留已被取消/删除的预约，认领失败时出队并继续；
+            // 认领抛出异常（连接超时、死锁等）时不出队，预约仍在数据库中为 Ok，下次叫号还能叫到
+            Appointment next;
+            while ((next = queue.peek(afterSerial)) != null) {
+                boolean claimed = engine != null ? engine.complete(next.getApid()) : markDoneIfOk(next.getApid(), sid);
+                queue.remove(next.getApid());
+                if (claimed) {
+                    return next;
+                }
+            }
+            return null;
+        }
+        Appointment claimed;
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            String apid;
+            try (PreparedStatement ps = conn.prepareStatement(SQL_CLAIM_NEXT)) {
+                ps.setInt(1, sid);
+                ps.setInt(2, afterSerial);
+                ps.setString(3, did);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        return null;
+                    }
+                    apid = rs.getString("APID");
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(SQL_MARK_DONE)) {
+                ps.setString(1, apid);
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = conn.prepareStatement(SQL_APPOINTMENT_BY_APID)) {
+                ps.setString(1, apid);
+                try (ResultSet rs = ps.executeQuery()) {
+                    claimed = rs.next() ? mapAppointment(rs) : null;
+                }
+            }
+            DailyStatsDelta stats = DailyStatsDelta.ofChanged(sid, AppointmentStatus.Ok, AppointmentStatus.Done);
+            stats.record(conn);
+            conn.commit();
+            stats.applyRecorded(conn);
+        }
+        if (engine != null && claimed != null) {
+            engine.onAppointmentClosed(claimed.getApid());
+        }
+        return claimed;
+    }
+
+    private boolean markDoneIfOk(String apid, int sid) throws SQLException {
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(SQL_MARK_DONE_IF_OK)) {
+                ps.setString(1, apid);
+                if (ps.executeUpdate() != 1) {
+                    conn.rollback();
+                    return false;
+                }
+            }
+            DailyStatsDelta stats = DailyStatsDelta.ofChanged(sid, AppointmentStatus.Ok, AppointmentStatus.Done);
+            stats.record(conn);
+            conn.commit();
+            stats.applyRecorded(conn);
+            return true;
         }
     }
 
@@ -509,7 +1417,7 @@ public class HABMSDB {
         );
     }
 
-    private DoctorAccount mapDoctor(ResultSet rs) throws SQLException {
+    DoctorAccount mapDoctor(ResultSet rs) throws SQLException {
         return new DoctorAccount(
                 rs.getString("DID"),
                 rs.getString("Name"),
@@ -520,7 +1428,7 @@ public class HABMSDB {
         );
     }
 
-    private Schedule mapSchedule(ResultSet rs) throws SQLException {
+    Schedule mapSchedule(ResultSet rs) throws SQLException {
         Timestamp st = rs.getTimestamp("STime");
         Timestamp et = rs.getTimestamp("ETime");
         return new Schedule(
@@ -529,11 +1437,17 @@ public class HABMSDB {
                 st.toLocalDateTime(),
                 et.toLocalDateTime(),
                 rs.getInt("Capacity"),
-                rs.getInt("Res")
+                res(rs.getInt("SID"), rs.getInt("Res"))
         );
     }
 
-    private Appointment mapAppointment(ResultSet rs) throws SQLException {
+    /** 号源引擎启用时以内存余量为准（数据库中的 Res 可能尚未落库）。 */
+    private int res(int sid, int stored) {
+        BookingEngine engine = booking;
+        return engine == null ? stored : engine.remaining(sid, stored);
+    }
+
+    Appointment mapAppointment(ResultSet rs) throws SQLException {
         Timestamp st = rs.getTimestamp("STime");
         Timestamp et = rs.getTimestamp("ETime");
         LocalDateTime sTime = st != null ? st.toLocalDateTime() : null;
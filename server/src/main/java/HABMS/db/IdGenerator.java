@@ -1,50 +1,181 @@
 package HABMS.db;
 
-import java.security.SecureRandom;
 import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.function.IntPredicate;
+import java.util.function.IntSupplier;
 
-/** ID 生成工具：为账号、医生、预约、排班生成近似唯一的编号。 */
+/**
+ * ID 生成工具：按 时间 + 节点号 + 序列号 分配编号（见 {@link TimeSequenceAllocator}），
+ * 同一节点内不重复，不同节点号之间互不相交。节点号取环境变量 HABMS_NODE_ID（0-9，默认 0），
+ * 多个服务器实例共用一个数据库时必须各不相同。突发分配会借用后续时间段，重启后由存储层用各 observe 方法
+ * 从已有的最大编号（SID 为持久化的高水位）恢复进度；借用超过上限时分配失败（IllegalStateException），不等待。
+ */
 final class IdGenerator {
-    private static final SecureRandom RANDOM = new SecureRandom();
+    static final int NODES = 10;
+    /** 纪元 2025-01-01T00:00:00Z。 */
+    private static final long EPOCH_MILLIS = 1_735_689_600_000L;
+    private static final int NODE = nodeId();
+    private static final DateTimeFormatter APID_DATE = DateTimeFormatter.ofPattern("yyMMdd");
+
+    private static final TimeSequenceAllocator APID = apidLayout(NODE);
+    private static final TimeSequenceAllocator AID = aidLayout(NODE);
+    private static final long AID_OFFSET = 1_000_000_000L;
+    private static final TimeSequenceAllocator DID = didLayout(NODE);
+    /** 新格式 DID 的前缀：旧的随机 DID 是 8 位数字，用字母开头的编号不会与之相交。 */
+    private static final char DID_PREFIX = 'D';
+    private static final TimeSequenceAllocator SID = sidLayout(NODE);
+    /** 启用序列段租用后的 SID 来源（见 {@link SequenceBlockAllocator}），为 null 时使用时间分配器。 */
+    private static volatile IntSupplier sidSource;
+    /** 时间分配的 SID 是否已被占用（旧的随机 SID），为 null 时不检查。 */
+    private static volatile IntPredicate sidTaken;
 
     private IdGenerator() {
     }
 
     /** 生成 10 位患者编号。 */
     static String newAid() {
-        return formatNumeric(10);
+        return Long.toString(AID_OFFSET + AID.next());
     }
 
-    /** 生成 8 位医生编号。 */
+    /** 生成 8 位医生编号：D + 7 位数字。 */
     static String newDid() {
-        return formatNumeric(8);
+        return DID_PREFIX + String.format("%07d", DID.next());
     }
 
-    /** 生成 12 位预约号：yyMMdd + 随机 6 位。 */
+    /** 生成 12 位预约号：yyMMdd + 节点 1 位 + 序列 5 位。 */
     static String newApid() {
-        // 12 digits: yyMMdd (6) + random (6)
-        String datePart = java.time.format.DateTimeFormatter.ofPattern("yyMMdd").format(LocalDate.now());
-        long randomPart = Math.abs(RANDOM.nextLong()) % 1_000_000L;
-        return datePart + String.format("%06d", randomPart);
+        long id = APID.next();
+        return APID_DATE.format(LocalDate.ofEpochDay(APID.unitOf(id))) + APID.nodeOf(id) + String.format("%05d", APID.seqOf(id));
     }
 
-    /** 生成正整数排班编号，避开 0。 */
+    /** 生成正整数排班编号；时间分配器跳过已被占用的编号。 */
     static int newSid() {
-        int value = RANDOM.nextInt(Integer.MAX_VALUE);
-        return value == 0 ? 1 : value; // avoid zero to keep it visually distinct
+        IntSupplier source = sidSource;
+        if (source != null) {
+            return source.getAsInt();
+        }
+        IntPredicate taken = sidTaken;
+        while (true) {
+            int sid = (int) SID.next();
+            if (taken == null || !taken.test(sid)) {
+                return sid;
+            }
+        }
+    }
+
+    static void useSidSource(IntSupplier source) {
+        sidSource = source;
+    }
+
+    static void skipTakenSids(IntPredicate taken) {
+        sidTaken = taken;
+    }
+
+    /** 时间分配器已分配的最大 SID（重启后需持久化的高水位）；尚未分配或已改用序列租用时为 -1。 */
+    static long sidHighWater() {
+        return sidSource != null ? -1 : SID.last();
+    }
+
+    /** 本节点号。 */
+    static int node() {
+        return NODE;
+    }
+
+    /** 重启后用数据库中本节点最大的 AID 恢复分配进度。 */
+    static void observeAid(String aid) {
+        long value = Long.parseLong(aid);
+        if (value >= AID_OFFSET) {
+            AID.observe(value - AID_OFFSET);
+        }
+    }
+
+    /** 重启后用数据库中本节点最大的 APID 恢复分配进度。 */
+    static void observeApid(String apid) {
+        long day = LocalDate.parse("20" + apid.substring(0, 6), DateTimeFormatter.BASIC_ISO_DATE).toEpochDay();
+        long node = apid.charAt(6) - '0';
+        long seq = Long.parseLong(apid.substring(7));
+        APID.observe((day * NODES + node) * 100_000 + seq);
+    }
+
+    /** 重启后用本节点最大的新格式 DID 恢复分配进度；旧的随机 DID 忽略。 */
+    static void observeDid(String did) {
+        if (isAllocatedDid(did)) {
+            DID.observe(Long.parseLong(did.substring(1)));
+        }
+    }
+
+    /** 是否为本分配器格式的 DID（D + 7 位数字）。 */
+    static boolean isAllocatedDid(String did) {
+        if (did == null || did.length() != 8 || did.charAt(0) != DID_PREFIX) {
+            return false;
+        }
+        for (int i = 1; i < 8; i++) {
+            if (!Character.isDigit(did.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * 生成固定宽度的数字串：以当年日序为前缀，后接随机数，超过宽度时截断末尾。
+     * 重启后恢复时间分配器的 SID 进度，应传入本分配器分配过的编号（数据库存储用持久化的高水位）。
+     * 只接受 {@link #sidSeedBound()} 以下的编号：更大的只可能是旧的随机 SID，记入后会让分配器超前借用上限而无法分配。
      */
-    private static String formatNumeric(int width) {
-        long prefix = LocalDate.now().getDayOfYear();
-        long randomPart = Math.abs(RANDOM.nextLong());
-        long value = prefix * 1_000_000L + randomPart % 1_000_000L;
-        String formatted = Long.toString(value);
-        if (formatted.length() > width) {
-            formatted = formatted.substring(formatted.length() - width);
-        }
-        return String.format("%0" + width + "d", Long.parseLong(formatted));
+    static void observeSid(int sid) {
+        if (sid > 0 && sid < sidSeedBound()) {
+            SID.observe(sid);
+        }
+    }
+
+    /** 时间分配器当前可能已分配的 SID 上界（不含）。 */
+    static int sidSeedBound() {
+        return (int) Math.min(Integer.MAX_VALUE, SID.upperBound());
+    }
+
+    /** 首个新格式 AID，更小的是旧的随机 AID。 */
+    static String firstAid() {
+        return Long.toString(AID_OFFSET);
+    }
+
+    /** 当天 APID 的下界。 */
+    static String firstApidOfToday() {
+        return APID_DATE.format(LocalDate.now()) + "000000";
+    }
+
+    /** APID：yyMMdd + 节点 1 位 + 序列 5 位，每节点每天 10 万个，最多借用 1 天。 */
+    static TimeSequenceAllocator apidLayout(int node) {
+        return new TimeSequenceAllocator(() -> LocalDate.now().toEpochDay(), 100_000, NODES, node,
+                LocalDate.of(2100, 1, 1).toEpochDay(), 1);
+    }
+
+    /** AID：10 位，1 开头 + (秒 × 10 + 节点)，与旧的随机 AID（< 4 亿）不相交，可用约 28 年；突发注册最多借用 30 天。 */
+    static TimeSequenceAllocator aidLayout(int node) {
+        return new TimeSequenceAllocator(() -> (System.currentTimeMillis() - EPOCH_MILLIS) / 1_000, 1, NODES, node,
+                900_000_000L, 30L * 24 * 3_600);
+    }
+
+    /** DID：D + 7 位 ((天 × 10 + 节点) × 100 + 序列)，每节点每天 100 个，可用约 27 年；批量添加最多借用 1 年。 */
+    static TimeSequenceAllocator didLayout(int node) {
+        return new TimeSequenceAllocator(() -> (System.currentTimeMillis() - EPOCH_MILLIS) / 86_400_000, 100, NODES, node,
+                10_000L, 366);
+    }
+
+    /** SID：正 int，(分钟 × 10 + 节点) × 10 + 序列，可用约 40 年；批量导入最多借用 30 天。 */
+    static TimeSequenceAllocator sidLayout(int node) {
+        return new TimeSequenceAllocator(() -> (System.currentTimeMillis() - EPOCH_MILLIS) / 60_000, 10, NODES, node,
+                Integer.MAX_VALUE / 100L, 60 * 24 * 30);
+    }
+
+    private static int nodeId() {
+        String v = System.getenv("HABMS_NODE_ID");
+        if (v == null || v.isBlank()) {
+            v = System.getProperty("habms.nodeId", "0");
+        }
+        int node = Integer.parseInt(v.trim());
+        if (node < 0 || node >= NODES) {
+            throw new IllegalArgumentException("HABMS_NODE_ID must be between 0 and " + (NODES - 1));
+        }
+        return node;
     }
 }
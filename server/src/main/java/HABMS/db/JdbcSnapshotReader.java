@@ -0,0 +1,91 @@
+package HABMS.db;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@link SnapshotReader} 的 JDBC 实现：独占一个连接上的只读 REPEATABLE READ 事务，各查询看到同一快照。
+ * 结果集只进、只读并按 FETCH_SIZE 分批取行，逐行交给 {@link RowSink}，不在内存中保留整表，
+ * 因此内存占用与表大小无关。游标存续期间占用一个连接，用完必须 close()。
+ */
+final class JdbcSnapshotReader implements SnapshotReader {
+    static final int FETCH_SIZE = 500;
+
+    private static final String SQL_DOCTORS = "SELECT * FROM Doctor ORDER BY Department, DID";
+    private static final String SQL_SCHEDULES = "SELECT * FROM Schedule ORDER BY DID, STime";
+    private static final String SQL_APPOINTMENTS = HABMSDB.APPOINTMENT_SELECT + "1=1 ORDER BY a.Statu, a.SerialNumber";
+
+    private final HABMSDB db;
+    private final Connection conn;
+    private final int isolation;
+
+    JdbcSnapshotReader(HABMSDB db, Connection conn) throws SQLException {
+        this.db = db;
+        this.conn = conn;
+        this.isolation = conn.getTransactionIsolation();
+        conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        conn.setReadOnly(true);
+        conn.setAutoCommit(false);
+    }
+
+    @Override
+    public Set<String> doctors(Collection<String> departments, RowSink<DoctorAccount> sink) throws SQLException, IOException {
+        Set<String> wanted = new HashSet<>(departments);
+        Set<String> dids = new HashSet<>();
+        scan(SQL_DOCTORS, rs -> {
+            DoctorAccount d = db.mapDoctor(rs);
+            if (wanted.contains(d.getDepartment())) {
+                dids.add(d.getDid());
+                sink.accept(d);
+            }
+        });
+        return dids;
+    }
+
+    @Override
+    public void schedules(Set<String> dids, RowSink<Schedule> sink) throws SQLException, IOException {
+        scan(SQL_SCHEDULES, rs -> {
+            if (dids.contains(rs.getString("DID"))) {
+                sink.accept(db.mapSchedule(rs));
+            }
+        });
+    }
+
+    @Override
+    public void appointments(RowSink<Appointment> sink) throws SQLException, IOException {
+        scan(SQL_APPOINTMENTS, rs -> sink.accept(db.mapAppointment(rs)));
+    }
+
+    private void scan(String sql, RowCallback callback) throws SQLException, IOException {
+        try (PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    callback.row(rs);
+                }
+            }
+        }
+    }
+
+    /** 结束只读事务，恢复连接设置并归还连接池。 */
+    @Override
+    public void close() throws SQLException {
+        try {
+            conn.rollback();
+            conn.setReadOnly(false);
+            conn.setTransactionIsolation(isolation);
+        } finally {
+            conn.close();
+        }
+    }
+
+    private interface RowCallback {
+        void row(ResultSet rs) throws SQLException, IOException;
+    }
+}
@@ -0,0 +1,1192 @@
+package HABMS.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 内存存储：不需要数据库服务器的 {@link Storage} 实现，用于演示部署与压测。
+ * <p>
+ * 数据放在并发 Map 中，按查询路径建二级索引（患者的 PID/电话、科室的医生、医生的排班、
+ * 患者/医生/排班的预约），排班时间查询复用 {@link ScheduleIndex}。每个排班的余量是一个原子计数，
+ * 预约先 CAS 扣减余量，再在按患者分段的锁内检查时间段重复并登记，不同排班、不同患者之间互不阻塞；
+ * 叫号以 CAS 把 Ok 改为 Done 认领，并发叫号不会取到同一预约。各状态的预约数按排班原子计数，日统计由其实时汇总。
+ * <p>
+ * 可选把全部数据定期写入本地快照文件（见 {@link #startSnapshots}），启动时从中恢复。
+ * 写操作持有读写锁的共享端，快照在独占端下复制数据，得到某一时刻的一致状态后在锁外写盘，
+ * 先写临时文件再原子改名，写到一半崩溃也不会损坏上一份快照。两次快照之间的写入在进程崩溃时丢失。
+ * 假定本进程是唯一的使用方。
+ */
+public final class MemoryStorage implements Storage {
+    private static final Logger LOG = Logger.getLogger(MemoryStorage.class.getName());
+    private static final int SNAPSHOT_MAGIC = 0x48414D53; // "HAMS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int PATIENT_LOCK_STRIPES = 64;
+    private static final int STATUS_COUNT = AppointmentStatus.values().length;
+    private static final Comparator<Appointment> BY_STATUS = Comparator.comparingInt(a -> a.getStatus().ordinal());
+    private static final ConcurrentSkipListMap<Integer, Entry> NO_ENTRIES = new ConcurrentSkipListMap<>();
+    private static final ConcurrentSkipListMap<SlotKey, Slot> NO_SLOTS = new ConcurrentSkipListMap<>();
+
+    // 患者：AID 主键，PID、电话唯一
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final Map<String, String> aidByPid = new ConcurrentHashMap<>();
+    private final Map<String, String> aidByPhone = new ConcurrentHashMap<>();
+    private final ReentrantLock accountLock = new ReentrantLock();
+    // 医生：DID 主键，(姓名, 科室) 唯一
+    private final Map<String, DoctorAccount> doctors = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> didsByDepartment = new ConcurrentHashMap<>();
+    private final Map<String, String> didByNameDepartment = new ConcurrentHashMap<>();
+    private final ReentrantLock doctorLock = new ReentrantLock();
+    // 排班：SID 主键，(DID, 开始, 结束) 唯一；每名医生的排班按 (开始时间, SID) 排序
+    private final Map<Integer, Slot> slots = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<SlotKey, Slot>> slotsByDid = new ConcurrentHashMap<>();
+    private final ScheduleIndex timeIndex = new ScheduleIndex();
+    private final ReentrantLock scheduleLock = new ReentrantLock();
+    // 预约：APID 主键，序列号自增；各索引按序列号排序
+    private final Map<String, Entry> byApid = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Entry> bySerial = new ConcurrentSkipListMap<>();
+    private final Map<String, ConcurrentSkipListMap<Integer, Entry>> byAid = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<Integer, Entry>> byDid = new ConcurrentHashMap<>();
+    private final AtomicInteger serial = new AtomicInteger();
+    /** 同一患者的预约串行化（时间段重复检查与登记之间不能插入同一患者的另一次预约）。 */
+    private final ReentrantLock[] patientLocks = new ReentrantLock[PATIENT_LOCK_STRIPES];
+
+    /** 写操作持共享端，快照复制持独占端。 */
+    private final ReentrantReadWriteLock state = new ReentrantReadWriteLock();
+    /** 每次写操作加一，快照线程据此跳过没有变化的周期。 */
+    private final AtomicLong version = new AtomicLong();
+    private final ReentrantLock saveLock = new ReentrantLock();
+    private final Path snapshotFile;
+    private long savedVersion;
+    private volatile ScheduledExecutorService snapshotter;
+
+    /** 不落盘的内存存储。 */
+    public MemoryStorage() {
+        this(null);
+    }
+
+    /**
+     * 以 snapshotFile 为快照文件：文件存在时从中恢复，否则从空库开始；两种情况下没有医生时都补上默认管理员，
+     * 与建库脚本一致。snapshotFile 为 null 表示不落盘。
+     */
+    public MemoryStorage(Path snapshotFile) {
+        for (int i = 0; i < patientLocks.length; i++) {
+            patientLocks[i] = new ReentrantLock();
+        }
+        this.snapshotFile = snapshotFile;
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            try {
+                load(snapshotFile);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to load snapshot " + snapshotFile, e);
+            }
+            LOG.info(() -> "Loaded memory snapshot " + snapshotFile + ": " + accounts.size() + " accounts, "
+                    + doctors.size() + " doctors, " + slots.size() + " schedules, " + byApid.size() + " appointments");
+        }
+        if (doctors.isEmpty()) {
+            putDoctor(new DoctorAccount("00000000", "Admin",
+                    "8c6976e5b5410415bde908bd4dee15dfb167a9c873fc4bb8a81f6f2ab448a918", true, "管理", null));
+        }
+        savedVersion = version.get();
+    }
+
+    /** 每隔 periodSeconds 秒把有变化的数据写入快照文件（守护线程），关闭时再写一次。 */
+    public void startSnapshots(long periodSeconds) {
+        if (snapshotFile == null || snapshotter != null) {
+            return;
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "habms-memory-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                saveSnapshot();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Memory snapshot failed", e);
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        snapshotter = executor;
+    }
+
+    /** 立即写一份快照（自上次快照以来没有写操作时跳过），返回是否写入；未配置快照文件时返回 false。 */
+    public boolean saveSnapshot() throws IOException {
+        if (snapshotFile == null) {
+            return false;
+        }
+        saveLock.lock();
+        try {
+            Image image;
+            state.writeLock().lock();
+            try {
+                if (version.get() == savedVersion) {
+                    return false;
+                }
+                image = capture();
+            } finally {
+                state.writeLock().unlock();
+            }
+            writeImage(image, snapshotFile);
+            savedVersion = image.version;
+            return true;
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    /** 停止定期快照并写最后一份。 */
+    @Override
+    public void close() {
+        ScheduledExecutorService executor = snapshotter;
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            saveSnapshot();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Final memory snapshot failed", e);
+        }
+    }
+
+    // insert
+    @Override
+    public void InsertAccount(Account account) throws SQLException {
+        write(() -> {
+            accountLock.lock();
+            try {
+                requireAbsent(accounts, account.getAid(), "PRIMARY");
+                requireAbsent(aidByPid, account.getPid(), "PID");
+                requireAbsent(aidByPhone, account.getPhone(), "Phone");
+                putAccount(account);
+            } finally {
+                accountLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public void InsertDoctorAccount(DoctorAccount doctor) throws SQLException {
+        write(() -> {
+            doctorLock.lock();
+            try {
+                requireAbsent(doctors, doctor.getDid(), "PRIMARY");
+                requireAbsent(didByNameDepartment, nameDepartment(doctor), "uk_doctor_name_department");
+                putDoctor(doctor);
+            } finally {
+                doctorLock.unlock();
+            }
+        });
+    }
+
+    /** 覆盖更新医生信息（DID 不存在时无操作）。 */
+    @Override
+    public void UpdateDoctorAccount(DoctorAccount doctor) throws SQLException {
+        write(() -> {
+            doctorLock.lock();
+            try {
+                DoctorAccount old = doctors.get(doctor.getDid());
+                if (old == null) {
+                    return;
+                }
+                String key = nameDepartment(doctor);
+                String owner = didByNameDepartment.get(key);
+                if (owner != null && !owner.equals(doctor.getDid())) {
+                    throw duplicate(key, "uk_doctor_name_department");
+                }
+                removeDoctor(old);
+                putDoctor(doctor);
+            } finally {
+                doctorLock.unlock();
+            }
+        });
+    }
+
+    /**
+     * 覆盖更新排班信息。余量不按传入值覆盖，而是按容量差值增减（与启用号源引擎时的 HABMSDB 一致），
+     * 避免覆盖并发预约的扣减。
+     */
+    @Override
+    public void UpdateSchedule(Schedule schedule) throws SQLException {
+        write(() -> {
+            scheduleLock.lock();
+            try {
+                Slot slot = slots.get(schedule.getSid());
+                if (slot == null) {
+                    return;
+                }
+                Schedule old = slot.base;
+                if (!sameTime(old, schedule)) {
+                    requireNoTimeConflict(schedule);
+                }
+                unlinkSlot(slot);
+                slot.base = schedule;
+                slot.res.addAndGet(schedule.getCapacity() - old.getCapacity());
+                linkSlot(slot);
+            } finally {
+                scheduleLock.unlock();
+            }
+        });
+    }
+
+    /** 插入预约记录（无并发控制，供管理用），序列号重新分配、不扣减余量。 */
+    @Override
+    public void InsertAppointment(Appointment appointment) throws SQLException {
+        write(() -> {
+            if (byApid.containsKey(appointment.getApid())) {
+                throw duplicate(appointment.getApid(), "PRIMARY");
+            }
+            Entry entry = new Entry(serial.incrementAndGet(), appointment.getApid(), appointment.getAid(),
+                    appointment.getDid(), appointment.getSid(), appointment.getStatus());
+            linkEntry(entry);
+            if (byApid.putIfAbsent(entry.apid, entry) != null) {
+                unlinkEntry(entry);
+                throw duplicate(entry.apid, "PRIMARY");
+            }
+        });
+    }
+
+    @Override
+    public void InsertSchedule(Schedule schedule) throws SQLException {
+        InsertSchedules(List.of(schedule));
+    }
+
+    /** 批量插入排班：先整体校验唯一性，任一冲突时一条也不插入。 */
+    @Override
+    public void InsertSchedules(List<Schedule> schedules) throws SQLException {
+        write(() -> {
+            scheduleLock.lock();
+            try {
+                Set<Integer> sids = new HashSet<>();
+                Set<String> times = new HashSet<>();
+                for (Schedule s : schedules) {
+                    if (slots.containsKey(s.getSid()) || !sids.add(s.getSid())) {
+                        throw duplicate(Integer.toString(s.getSid()), "PRIMARY");
+                    }
+                    if (!times.add(s.getDid() + '|' + s.getStartTime() + '|' + s.getEndTime())) {
+                        throw duplicate(s.getDid() + "-" + s.getStartTime() + "-" + s.getEndTime(), "uk_schedule_doctor_time");
+                    }
+                    requireNoTimeConflict(s);
+                }
+                for (Schedule s : schedules) {
+                    Slot slot = new Slot(s);
+                    slots.put(slot.sid, slot);
+                    linkSlot(slot);
+                }
+            } finally {
+                scheduleLock.unlock();
+            }
+        });
+    }
+
+    // delete
+    @Override
+    public void DelAccount(String aid) throws SQLException {
+        write(() -> {
+            accountLock.lock();
+            try {
+                Account old = accounts.remove(aid);
+                if (old != null) {
+                    aidByPid.remove(old.getPid());
+                    aidByPhone.remove(old.getPhone());
+                }
+            } finally {
+                accountLock.unlock();
+            }
+        });
+    }
+
+    /** 删除医生；其排班与预约保留，但与联表查询一样不再出现在预约查询结果中。 */
+    @Override
+    public void DelDoctorAccount(String did) throws SQLException {
+        write(() -> {
+            doctorLock.lock();
+            try {
+                DoctorAccount old = doctors.get(did);
+                if (old != null) {
+                    removeDoctor(old);
+                    timeIndex.doctorChanged(did, null);
+                }
+            } finally {
+                doctorLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public void DelAppointment(String apid) throws SQLException {
+        write(() -> {
+            Entry entry = byApid.remove(apid);
+            if (entry != null) {
+                unlinkEntry(entry);
+            }
+        });
+    }
+
+    /** 删除排班；其预约保留，但与联表查询一样不再出现在查询结果中。 */
+    @Override
+    public void DelSchedule(int sid) throws SQLException {
+        write(() -> {
+            scheduleLock.lock();
+            try {
+                Slot slot = slots.remove(sid);
+                if (slot != null) {
+                    unlinkSlot(slot);
+                }
+            } finally {
+                scheduleLock.unlock();
+            }
+        });
+    }
+
+    // find
+    @Override
+    public Account FindAccount(String aid, String pid, String phone) {
+        Account account = aid == null ? null : accounts.get(aid);
+        if (account == null && pid != null) {
+            account = accountByKey(aidByPid.get(pid));
+        }
+        if (account == null && phone != null) {
+            account = accountByKey(aidByPhone.get(phone));
+        }
+        return account;
+    }
+
+    @Override
+    public DoctorAccount FindDoctorAccount(String did, String name) {
+        DoctorAccount doctor = did == null ? null : doctors.get(did);
+        if (doctor == null && name != null) {
+            for (DoctorAccount d : doctors.values()) {
+                if (d.getName().equals(name)) {
+                    return d;
+                }
+            }
+        }
+        return doctor;
+    }
+
+    @Override
+    public DoctorAccount[] FindDoctorAccounts(String department) {
+        List<DoctorAccount> list = new ArrayList<>();
+        for (String did : didsByDepartment.getOrDefault(department, Set.of())) {
+            DoctorAccount d = doctors.get(did);
+            if (d != null && d.getDepartment().equals(department)) {
+                list.add(d);
+            }
+        }
+        return list.toArray(new DoctorAccount[0]);
+    }
+
+    @Override
+    public DoctorAccount[] FindDoctorAccountsByName(String name) {
+        List<DoctorAccount> list = new ArrayList<>();
+        for (DoctorAccount d : doctors.values()) {
+            if (d.getName().equals(name)) {
+                list.add(d);
+            }
+        }
+        list.sort(Comparator.comparing(DoctorAccount::getDid));
+        return list.toArray(new DoctorAccount[0]);
+    }
+
+    @Override
+    public Appointment FindAppointment(String apid) {
+        Entry entry = byApid.get(apid);
+        return entry == null ? null : materialize(entry);
+    }
+
+    @Override
+    public Appointment[] FindAppointmentBelongAccount(String aid) {
+        return materialize(byAid.getOrDefault(aid, NO_ENTRIES), 0, null, null, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Appointment[] FindAppointmentBelongDoctorAccount(String did) {
+        return materialize(byDid.getOrDefault(did, NO_ENTRIES), 0, null, null, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Appointment[] FindAppointmentBelongSchedule(int sid) {
+        Slot slot = slots.get(sid);
+        return slot == null ? new Appointment[0] : materialize(slot.appointments, 0, null, null, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Appointment[] FindAppointmentBelongAccount(String aid, int afterSerial, LocalDateTime from, LocalDateTime to,
+            int limit) {
+        return materialize(byAid.getOrDefault(aid, NO_ENTRIES), afterSerial, from, to, limit);
+    }
+
+    @Override
+    public Appointment[] FindAppointmentBelongDoctorAccount(String did, int afterSerial, LocalDateTime from, LocalDateTime to,
+            int limit) {
+        return materialize(byDid.getOrDefault(did, NO_ENTRIES), afterSerial, from, to, limit);
+    }
+
+    @Override
+    public Appointment[] FindAllAppointments(int afterSerial, LocalDateTime from, LocalDateTime to, int limit) {
+        return materialize(bySerial, afterSerial, from, to, limit);
+    }
+
+    @Override
+    public Appointment[] FindAllAppointments() {
+        Appointment[] all = materialize(bySerial, 0, null, null, Integer.MAX_VALUE);
+        Arrays.sort(all, BY_STATUS);
+        return all;
+    }
+
+    @Override
+    public Appointment[] FindAppointmentByStatu(AppointmentStatus statu) {
+        List<Appointment> list = new ArrayList<>();
+        for (Entry entry : bySerial.values()) {
+            if (entry.status.get() == statu) {
+                Appointment a = materialize(entry);
+                if (a != null) {
+                    list.add(a);
+                }
+            }
+        }
+        return list.toArray(new Appointment[0]);
+    }
+
+    /** 与 HABMSDB 相同的报表结构；三类数据分别读取，彼此之间可能相差并发写入的几行。 */
+    @Override
+    public ReportSnapshot LoadReportSnapshot(Collection<String> departments) {
+        Map<String, Integer> departmentOrder = new HashMap<>();
+        for (String dep : departments) {
+            departmentOrder.putIfAbsent(dep, departmentOrder.size());
+        }
+        List<DoctorAccount> doctorList = new ArrayList<>();
+        for (DoctorAccount d : doctors.values()) {
+            if (departmentOrder.containsKey(d.getDepartment())) {
+                doctorList.add(d);
+            }
+        }
+        doctorList.sort(Comparator.<DoctorAccount>comparingInt(d -> departmentOrder.get(d.getDepartment()))
+                .thenComparing(DoctorAccount::getDid));
+        List<Schedule> scheduleList = new ArrayList<>();
+        for (DoctorAccount d : doctorList) {
+            scheduleList.addAll(List.of(FindScheduleBelongDoctorAccount(d.getDid())));
+        }
+        return new ReportSnapshot(doctorList, scheduleList, List.of(FindAllAppointments()));
+    }
+
+    @Override
+    public SnapshotReader OpenSnapshot() {
+        return new Reader();
+    }
+
+    /** 由各排班的状态计数实时汇总 [from, to) 内的日统计，科室按医生当前科室归属（相当于每次都已重算）。 */
+    @Override
+    public DailyStats[] FindDailyStats(LocalDate from, LocalDate to) {
+        Map<String, int[]> totals = new HashMap<>();
+        Map<String, Slot> keys = new HashMap<>();
+        for (Slot slot : slots.values()) {
+            Schedule s = slot.base;
+            LocalDate date = s.getStartTime().toLocalDate();
+            if (date.isBefore(from) || !date.isBefore(to) || !doctors.containsKey(s.getDid())) {
+                continue;
+            }
+            String key = date + "|" + s.getDid();
+            keys.putIfAbsent(key, slot);
+            int[] sum = totals.computeIfAbsent(key, k -> new int[STATUS_COUNT]);
+            for (int i = 0; i < STATUS_COUNT; i++) {
+                sum[i] += slot.counts.get(i);
+            }
+        }
+        List<DailyStats> list = new ArrayList<>();
+        for (Map.Entry<String, int[]> e : totals.entrySet()) {
+            int[] sum = e.getValue();
+            int total = sum[0] + sum[1] + sum[2];
+            Schedule s = keys.get(e.getKey()).base;
+            DoctorAccount d = doctors.get(s.getDid());
+            if (total == 0 || d == null) {
+                continue;
+            }
+            list.add(new DailyStats(s.getStartTime().toLocalDate(), d.getDid(), d.getName(), d.getDepartment(),
+                    total, sum[AppointmentStatus.Ok.ordinal()], sum[AppointmentStatus.Abandon.ordinal()],
+                    sum[AppointmentStatus.Done.ordinal()]));
+        }
+        list.sort(Comparator.comparing(DailyStats::getDate).thenComparing(DailyStats::getDepartment)
+                .thenComparing(DailyStats::getDid));
+        return list.toArray(new DailyStats[0]);
+    }
+
+    /** 日统计总是实时汇总，无需重算；返回 [from, to) 内的统计行数。 */
+    @Override
+    public int RebuildDailyStats(LocalDate from, LocalDate to) {
+        return FindDailyStats(from, to).length;
+    }
+
+    @Override
+    public Schedule FindSchedule(int sid) {
+        Slot slot = slots.get(sid);
+        return slot == null ? null : slot.snapshot();
+    }
+
+    @Override
+    public Schedule[] FindScheduleBelongDoctorAccount(String did) {
+        return snapshots(slotsByDid.getOrDefault(did, NO_SLOTS).values(), null, null, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Schedule[] FindScheduleBelongDoctorAccount(String did, LocalDateTime afterStart, int afterSid,
+            LocalDateTime from, LocalDateTime to, int limit) {
+        ConcurrentSkipListMap<SlotKey, Slot> own = slotsByDid.getOrDefault(did, NO_SLOTS);
+        Collection<Slot> tail = afterStart == null ? own.values() : own.tailMap(new SlotKey(afterStart, afterSid), false).values();
+        return snapshots(tail, from, to, limit);
+    }
+
+    @Override
+    public Map<String, List<Schedule>> FindSchedulesBelongDoctorAccounts(Collection<String> dids,
+            LocalDateTime from, LocalDateTime to) {
+        Map<String, List<Schedule>> result = new HashMap<>();
+        for (String did : new HashSet<>(dids)) {
+            ConcurrentSkipListMap<SlotKey, Slot> own = slotsByDid.get(did);
+            if (own == null) {
+                continue;
+            }
+            for (Slot slot : own.headMap(new SlotKey(to, Integer.MAX_VALUE), true).values()) {
+                Schedule s = slot.snapshot();
+                if (!s.getEndTime().isBefore(from)) {
+                    result.computeIfAbsent(did, k -> new ArrayList<>()).add(s);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Schedule[] FindScheduleByTime(LocalDateTime time) {
+        return withLiveRes(timeIndex.find(time));
+    }
+
+    @Override
+    public Schedule[] FindScheduleByTimeInDepartment(LocalDateTime time, String department) {
+        return withLiveRes(timeIndex.find(time, department));
+    }
+
+    // change
+    /** 修改患者姓名/密码/电话。 */
+    @Override
+    public void ChangeAccountInfo(Account account) throws SQLException {
+        write(() -> {
+            accountLock.lock();
+            try {
+                Account old = accounts.get(account.getAid());
+                if (old == null) {
+                    return;
+                }
+                String owner = aidByPhone.get(account.getPhone());
+                if (owner != null && !owner.equals(old.getAid())) {
+                    throw duplicate(account.getPhone(), "Phone");
+                }
+                aidByPhone.remove(old.getPhone());
+                putAccount(new Account(old.getAid(), account.getName(), account.getPasswordHex(), old.getPid(),
+                        account.getPhone(), old.getSex()));
+            } finally {
+                accountLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public void ChangeDoctorAccountInfo(DoctorAccount doctor) throws SQLException {
+        UpdateDoctorAccount(doctor);
+    }
+
+    /** 更新预约状态，从 Ok 改为 Abandon 时返还号源。 */
+    @Override
+    public void ChangeAppointmentStatu(String apid, AppointmentStatus statu) throws SQLException {
+        write(() -> {
+            Entry entry = byApid.get(apid);
+            if (entry == null) {
+                return;
+            }
+            AppointmentStatus old = entry.status.getAndSet(statu);
+            Slot slot = slots.get(entry.sid);
+            if (slot != null && old != statu) {
+                slot.counts.decrementAndGet(old.ordinal());
+                slot.counts.incrementAndGet(statu.ordinal());
+                if (old == AppointmentStatus.Ok && statu == AppointmentStatus.Abandon) {
+                    slot.res.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /** 修改排班容量，输入的是增量（余量同步增减）。 */
+    @Override
+    public void ChangeScheduleCapacity(int sid, int delta) throws SQLException {
+        write(() -> {
+            scheduleLock.lock();
+            try {
+                Slot slot = slots.get(sid);
+                if (slot != null) {
+                    Schedule s = slot.base;
+                    slot.base = new Schedule(s.getSid(), s.getDid(), s.getStartTime(), s.getEndTime(), s.getCapacity() + delta, 0);
+                    slot.res.addAndGet(delta);
+                }
+            } finally {
+                scheduleLock.unlock();
+            }
+        });
+    }
+
+    /**
+     * 预约：CAS 扣减排班余量，再在该患者的锁内检查时间段重复并登记；排班不存在或已约满返回 null，
+     * 时间段重复时返还余量并抛出 SQLException。
+     */
+    @Override
+    public Appointment TryAppointment(String aid, int sid) throws SQLException {
+        return write(() -> {
+            Slot slot = slots.get(sid);
+            if (slot == null || !slot.take()) {
+                return null;
+            }
+            Schedule s = slot.base;
+            ReentrantLock lock = patientLocks[Math.floorMod(aid.hashCode(), patientLocks.length)];
+            lock.lock();
+            try {
+                if (overlapping(aid, s.getStartTime(), s.getEndTime())) {
+                    slot.res.incrementAndGet();
+                    throw new SQLException("duplicate appointment in time slot");
+                }
+                Appointment created = Appointment.create(aid, s.getDid(), sid, AppointmentStatus.Ok, s.getStartTime(), s.getEndTime());
+                Entry entry = new Entry(serial.incrementAndGet(), created.getApid(), aid, s.getDid(), sid, AppointmentStatus.Ok);
+                linkEntry(entry);
+                byApid.put(entry.apid, entry);
+                return new Appointment(entry.serial, entry.apid, aid, entry.did, null, null, sid, AppointmentStatus.Ok,
+                        s.getStartTime(), s.getEndTime());
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    /**
+     * 叫号：按序列号顺序找该排班中 afterSerial 之后第一个 Ok 预约并以 CAS 置为 Done；
+     * 排班内的预约数不超过容量，顺序扫描即可。没有候诊预约时返回 null。
+     */
+    @Override
+    public Appointment CallNextAppointment(String did, int sid, int afterSerial) throws SQLException {
+        return write(() -> {
+            Slot slot = slots.get(sid);
+            if (slot == null) {
+                return null;
+            }
+            for (Entry entry : slot.appointments.tailMap(afterSerial, false).values()) {
+                if (entry.did.equals(did) && entry.status.compareAndSet(AppointmentStatus.Ok, AppointmentStatus.Done)) {
+                    slot.counts.decrementAndGet(AppointmentStatus.Ok.ordinal());
+                    slot.counts.incrementAndGet(AppointmentStatus.Done.ordinal());
+                    return materialize(entry);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean hasOverlappingOkAppointment(String aid, LocalDateTime start, LocalDateTime end) {
+        return overlapping(aid, start, end);
+    }
+
+    private boolean overlapping(String aid, LocalDateTime start, LocalDateTime end) {
+        ConcurrentSkipListMap<Integer, Entry> own = byAid.get(aid);
+        if (own == null) {
+            return false;
+        }
+        for (Entry entry : own.values()) {
+            if (entry.status.get() != AppointmentStatus.Ok) {
+                continue;
+            }
+            Slot slot = slots.get(entry.sid);
+            if (slot != null) {
+                Schedule s = slot.base;
+                if (s.getEndTime().isAfter(start) && s.getStartTime().isBefore(end)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // 索引维护（调用方持有相应的锁）
+    private void putAccount(Account account) {
+        accounts.put(account.getAid(), account);
+        aidByPid.put(account.getPid(), account.getAid());
+        aidByPhone.put(account.getPhone(), account.getAid());
+    }
+
+    private Account accountByKey(String aid) {
+        return aid == null ? null : accounts.get(aid);
+    }
+
+    private void putDoctor(DoctorAccount doctor) {
+        doctors.put(doctor.getDid(), doctor);
+        didByNameDepartment.put(nameDepartment(doctor), doctor.getDid());
+        didsByDepartment.computeIfAbsent(doctor.getDepartment(), k -> new ConcurrentSkipListSet<>()).add(doctor.getDid());
+        timeIndex.doctorChanged(doctor.getDid(), doctor.getDepartment());
+    }
+
+    private void removeDoctor(DoctorAccount doctor) {
+        doctors.remove(doctor.getDid());
+        didByNameDepartment.remove(nameDepartment(doctor));
+        Set<String> dids = didsByDepartment.get(doctor.getDepartment());
+        if (dids != null) {
+            dids.remove(doctor.getDid());
+        }
+    }
+
+    private static String nameDepartment(DoctorAccount doctor) {
+        return doctor.getName() + '|' + doctor.getDepartment();
+    }
+
+    private void linkSlot(Slot slot) {
+        Schedule s = slot.base;
+        slotsByDid.computeIfAbsent(s.getDid(), k -> new ConcurrentSkipListMap<>()).put(new SlotKey(s.getStartTime(), slot.sid), slot);
+        timeIndex.put(s);
+    }
+
+    private void unlinkSlot(Slot slot) {
+        Schedule s = slot.base;
+        ConcurrentSkipListMap<SlotKey, Slot> own = slotsByDid.get(s.getDid());
+        if (own != null) {
+            own.remove(new SlotKey(s.getStartTime(), slot.sid));
+        }
+        timeIndex.remove(slot.sid);
+    }
+
+    /** 同一医生不能有开始、结束时间都相同的两个排班。 */
+    private void requireNoTimeConflict(Schedule schedule) throws SQLException {
+        ConcurrentSkipListMap<SlotKey, Slot> own = slotsByDid.get(schedule.getDid());
+        if (own == null) {
+            return;
+        }
+        NavigableMap<SlotKey, Slot> sameStart = own.subMap(new SlotKey(schedule.getStartTime(), Integer.MIN_VALUE), true,
+                new SlotKey(schedule.getStartTime(), Integer.MAX_VALUE), true);
+        for (Slot other : sameStart.values()) {
+            if (other.sid != schedule.getSid() && sameTime(other.base, schedule)) {
+                throw duplicate(schedule.getDid() + "-" + schedule.getStartTime() + "-" + schedule.getEndTime(),
+                        "uk_schedule_doctor_time");
+            }
+        }
+    }
+
+    private static boolean sameTime(Schedule a, Schedule b) {
+        return a.getDid().equals(b.getDid()) && a.getStartTime().equals(b.getStartTime()) && a.getEndTime().equals(b.getEndTime());
+    }
+
+    /**
+     * 登记新预约。先计数再放入排班，之后才放入 byApid：可能改状态的路径（按 APID 改状态、按排班叫号）
+     * 看到预约时它已计入状态计数。
+     */
+    private void linkEntry(Entry entry) {
+        bySerial.put(entry.serial, entry);
+        byAid.computeIfAbsent(entry.aid, k -> new ConcurrentSkipListMap<>()).put(entry.serial, entry);
+        byDid.computeIfAbsent(entry.did, k -> new ConcurrentSkipListMap<>()).put(entry.serial, entry);
+        Slot slot = slots.get(entry.sid);
+        if (slot != null) {
+            slot.counts.incrementAndGet(entry.status.get().ordinal());
+            slot.appointments.put(entry.serial, entry);
+        }
+    }
+
+    private void unlinkEntry(Entry entry) {
+        bySerial.remove(entry.serial);
+        removeFrom(byAid, entry.aid, entry.serial);
+        removeFrom(byDid, entry.did, entry.serial);
+        Slot slot = slots.get(entry.sid);
+        if (slot != null && slot.appointments.remove(entry.serial) != null) {
+            slot.counts.decrementAndGet(entry.status.get().ordinal());
+        }
+    }
+
+    private static void removeFrom(Map<String, ConcurrentSkipListMap<Integer, Entry>> index, String key, int serial) {
+        ConcurrentSkipListMap<Integer, Entry> own = index.get(key);
+        if (own != null) {
+            own.remove(serial);
+        }
+    }
+
+    /** 预约与排班、医生组合成完整预约；排班或医生已删除时返回 null（与联表查询一致）。 */
+    private Appointment materialize(Entry entry) {
+        Slot slot = slots.get(entry.sid);
+        DoctorAccount doctor = doctors.get(entry.did);
+        if (slot == null || doctor == null) {
+            return null;
+        }
+        Schedule s = slot.base;
+        return new Appointment(entry.serial, entry.apid, entry.aid, entry.did, doctor.getName(), doctor.getDepartment(),
+                entry.sid, entry.status.get(), s.getStartTime(), s.getEndTime());
+    }
+
+    /** 序列号大于 afterSerial、排班开始时间在 [from, to) 内的前 limit 条，from/to 为 null 表示不限。 */
+    private Appointment[] materialize(ConcurrentSkipListMap<Integer, Entry> index, int afterSerial,
+            LocalDateTime from, LocalDateTime to, int limit) {
+        List<Appointment> list = new ArrayList<>();
+        for (Entry entry : index.tailMap(afterSerial, false).values()) {
+            if (list.size() >= limit) {
+                break;
+            }
+            Appointment a = materialize(entry);
+            if (a != null && inWindow(a.getStartTime(), from, to)) {
+                list.add(a);
+            }
+        }
+        return list.toArray(new Appointment[0]);
+    }
+
+    private static Schedule[] snapshots(Collection<Slot> ordered, LocalDateTime from, LocalDateTime to, int limit) {
+        List<Schedule> list = new ArrayList<>();
+        for (Slot slot : ordered) {
+            if (list.size() >= limit) {
+                break;
+            }
+            Schedule s = slot.snapshot();
+            if (inWindow(s.getStartTime(), from, to)) {
+                list.add(s);
+            }
+        }
+        return list.toArray(new Schedule[0]);
+    }
+
+    private static boolean inWindow(LocalDateTime time, LocalDateTime from, LocalDateTime to) {
+        return (from == null || !time.isBefore(from)) && (to == null || time.isBefore(to));
+    }
+
+    private Schedule[] withLiveRes(List<Schedule> found) {
+        List<Schedule> list = new ArrayList<>(found.size());
+        for (Schedule s : found) {
+            Slot slot = slots.get(s.getSid());
+            if (slot != null) {
+                list.add(slot.snapshot());
+            }
+        }
+        return list.toArray(new Schedule[0]);
+    }
+
+    private static <K> void requireAbsent(Map<K, ?> map, K key, String index) throws SQLException {
+        if (map.containsKey(key)) {
+            throw duplicate(String.valueOf(key), index);
+        }
+    }
+
+    /** 与 MariaDB 唯一键冲突相同的异常类型与错误码。 */
+    private static SQLException duplicate(String value, String index) {
+        return new SQLIntegrityConstraintViolationException(
+                "Duplicate entry '" + value + "' for key '" + index + "'", "23000", 1062);
+    }
+
+    // 写操作
+    private interface Mutation<T> {
+        T run() throws SQLException;
+    }
+
+    private interface VoidMutation {
+        void run() throws SQLException;
+    }
+
+    private <T> T write(Mutation<T> mutation) throws SQLException {
+        state.readLock().lock();
+        try {
+            return mutation.run();
+        } finally {
+            version.incrementAndGet();
+            state.readLock().unlock();
+        }
+    }
+
+    private void write(VoidMutation mutation) throws SQLException {
+        write(() -> {
+            mutation.run();
+            return null;
+        });
+    }
+
+    // 快照文件
+    /** 持有独占锁时复制出的一致状态。 */
+    private static final class Image {
+        long version;
+        int serial;
+        List<Account> accounts;
+        List<DoctorAccount> doctors;
+        List<Schedule> schedules;
+        List<Entry> appointments;
+    }
+
+    private Image capture() {
+        Image image = new Image();
+        image.version = version.get();
+        image.serial = serial.get();
+        image.accounts = new ArrayList<>(accounts.values());
+        image.doctors = new ArrayList<>(doctors.values());
+        image.schedules = new ArrayList<>(slots.size());
+        for (Slot slot : slots.values()) {
+            image.schedules.add(slot.snapshot());
+        }
+        image.appointments = new ArrayList<>(byApid.size());
+        for (Entry entry : byApid.values()) {
+            image.appointments.add(new Entry(entry.serial, entry.apid, entry.aid, entry.did, entry.sid, entry.status.get()));
+        }
+        return image;
+    }
+
+    private static void writeImage(Image image, Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(image.serial);
+                out.writeInt(image.accounts.size());
+                for (Account a : image.accounts) {
+                    out.writeUTF(a.getAid());
+                    out.writeUTF(a.getName());
+                    out.writeUTF(a.getPasswordHex());
+                    out.writeUTF(a.getPid());
+                    out.writeUTF(a.getPhone());
+                    out.writeByte(a.getSex().ordinal());
+                }
+                out.writeInt(image.doctors.size());
+                for (DoctorAccount d : image.doctors) {
+                    out.writeUTF(d.getDid());
+                    out.writeUTF(d.getName());
+                    out.writeUTF(d.getPasswordHex());
+                    out.writeBoolean(d.isAdmin());
+                    out.writeUTF(d.getDepartment());
+                    out.writeBoolean(d.getDescription() != null);
+                    if (d.getDescription() != null) {
+                        out.writeUTF(d.getDescription());
+                    }
+                }
+                out.writeInt(image.schedules.size());
+                for (Schedule s : image.schedules) {
+                    out.writeInt(s.getSid());
+                    out.writeUTF(s.getDid());
+                    writeTime(out, s.getStartTime());
+                    writeTime(out, s.getEndTime());
+                    out.writeInt(s.getCapacity());
+                    out.writeInt(s.getRes());
+                }
+                out.writeInt(image.appointments.size());
+                for (Entry e : image.appointments) {
+                    out.writeInt(e.serial);
+                    out.writeUTF(e.apid);
+                    out.writeUTF(e.aid);
+                    out.writeUTF(e.did);
+                    out.writeInt(e.sid);
+                    out.writeByte(e.status.get().ordinal());
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("not a HABMS memory snapshot (or unsupported version)");
+            }
+            serial.set(in.readInt());
+            String firstAid = IdGenerator.firstAid();
+            for (int i = in.readInt(); i > 0; i--) {
+                Account a = new Account(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+                        Sex.values()[in.readByte()]);
+                putAccount(a);
+                if (a.getAid().compareTo(firstAid) >= 0) {
+                    IdGenerator.observeAid(a.getAid());
+                }
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                DoctorAccount d = new DoctorAccount(in.readUTF(), in.readUTF(), in.readUTF(), in.readBoolean(), in.readUTF(),
+                        in.readBoolean() ? in.readUTF() : null);
+                putDoctor(d);
+                IdGenerator.observeDid(d.getDid());
+            }
+            // 内存存储没有序列租用，SID 来自时间分配器：恢复进度，避免批量导入借用的编号在重启后再次分配
+            for (int i = in.readInt(); i > 0; i--) {
+                Slot slot = new Slot(new Schedule(in.readInt(), in.readUTF(), readTime(in), readTime(in), in.readInt(), in.readInt()));
+                slots.put(slot.sid, slot);
+                linkSlot(slot);
+                IdGenerator.observeSid(slot.sid);
+            }
+            String firstApid = IdGenerator.firstApidOfToday();
+            for (int i = in.readInt(); i > 0; i--) {
+                Entry entry = new Entry(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF(), in.readInt(),
+                        AppointmentStatus.values()[in.readByte()]);
+                linkEntry(entry);
+                byApid.put(entry.apid, entry);
+                if (entry.apid.compareTo(firstApid) >= 0) {
+                    IdGenerator.observeApid(entry.apid);
+                }
+            }
+        }
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime time) throws IOException {
+        out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(time.getNano());
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+    }
+
+    /** 排班：时间、医生与容量整体替换（持 scheduleLock），余量与各状态预约数是原子计数。 */
+    private static final class Slot {
+        final int sid;
+        volatile Schedule base;
+        final AtomicInteger res;
+        final AtomicIntegerArray counts = new AtomicIntegerArray(STATUS_COUNT);
+        final ConcurrentSkipListMap<Integer, Entry> appointments = new ConcurrentSkipListMap<>();
+
+        Slot(Schedule schedule) {
+            this.sid = schedule.getSid();
+            this.base = schedule;
+            this.res = new AtomicInteger(schedule.getRes());
+        }
+
+        /** 余量大于 0 时减一。 */
+        boolean take() {
+            int r;
+            do {
+                r = res.get();
+                if (r <= 0) {
+                    return false;
+                }
+            } while (!res.compareAndSet(r, r - 1));
+            return true;
+        }
+
+        Schedule snapshot() {
+            Schedule s = base;
+            return new Schedule(sid, s.getDid(), s.getStartTime(), s.getEndTime(), s.getCapacity(), res.get());
+        }
+    }
+
+    private record SlotKey(LocalDateTime start, int sid) implements Comparable<SlotKey> {
+        @Override
+        public int compareTo(SlotKey o) {
+            int c = start.compareTo(o.start);
+            return c != 0 ? c : Integer.compare(sid, o.sid);
+        }
+    }
+
+    /** 预约：除状态外不可变。 */
+    private static final class Entry {
+        final int serial;
+        final String apid;
+        final String aid;
+        final String did;
+        final int sid;
+        final AtomicReference<AppointmentStatus> status;
+
+        Entry(int serial, String apid, String aid, String did, int sid, AppointmentStatus status) {
+            this.serial = serial;
+            this.apid = apid;
+            this.aid = aid;
+            this.did = did;
+            this.sid = sid;
+            this.status = new AtomicReference<>(status);
+        }
+    }
+
+    /** 快照游标：医生与排班排序后输出，预约按状态分三遍顺序扫描序列号索引，不复制整表。 */
+    private final class Reader implements SnapshotReader {
+        @Override
+        public Set<String> doctors(Collection<String> departments, RowSink<DoctorAccount> sink) throws IOException {
+            Set<String> wanted = new HashSet<>(departments);
+            List<DoctorAccount> sorted = new ArrayList<>();
+            for (DoctorAccount d : doctors.values()) {
+                if (wanted.contains(d.getDepartment())) {
+                    sorted.add(d);
+                }
+            }
+            sorted.sort(Comparator.comparing(DoctorAccount::getDepartment).thenComparing(DoctorAccount::getDid));
+            Set<String> dids = new HashSet<>();
+            for (DoctorAccount d : sorted) {
+                dids.add(d.getDid());
+                sink.accept(d);
+            }
+            return dids;
+        }
+
+        @Override
+        public void schedules(Set<String> dids, RowSink<Schedule> sink) throws IOException {
+            for (String did : new TreeMap<>(slotsByDid).keySet()) {
+                if (dids.contains(did)) {
+                    for (Schedule s : FindScheduleBelongDoctorAccount(did)) {
+                        sink.accept(s);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void appointments(RowSink<Appointment> sink) throws IOException {
+            for (AppointmentStatus status : AppointmentStatus.values()) {
+                for (Entry entry : bySerial.values()) {
+                    if (entry.status.get() == status) {
+                        Appointment a = materialize(entry);
+                        if (a != null) {
+                            sink.accept(a);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package HABMS.db;
+
+/** 连接池统计快照（计数均为连接池创建以来的累计值）。 */
+public final class PoolStats {
+    private final int maxSize;
+    private final int active;
+    private final int idle;
+    private final int waiting;
+    private final long borrows;
+    private final long timeouts;
+    private final long created;
+    private final long destroyed;
+    private final long leaks;
+    private final long avgWaitMicros;
+    private final long maxWaitMicros;
+    private final long statementCacheHits;
+    private final long statementCacheMisses;
+
+    public PoolStats(int maxSize, int active, int idle, int waiting, long borrows, long timeouts,
+                     long created, long destroyed, long leaks, long avgWaitMicros, long maxWaitMicros,
+                     long statementCacheHits, long statementCacheMisses) {
+        this.maxSize = maxSize;
+        this.active = active;
+        this.idle = idle;
+        this.waiting = waiting;
+        this.borrows = borrows;
+        this.timeouts = timeouts;
+        this.created = created;
+        this.destroyed = destroyed;
+        this.leaks = leaks;
+        this.avgWaitMicros = avgWaitMicros;
+        this.maxWaitMicros = maxWaitMicros;
+        this.statementCacheHits = statementCacheHits;
+        this.statementCacheMisses = statementCacheMisses;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** 已借出的连接数。 */
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    /** 正在等待连接的线程数（估算）。 */
+    public int getWaiting() {
+        return waiting;
+    }
+
+    public long getBorrows() {
+        return borrows;
+    }
+
+    /** 等待超时次数。 */
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getDestroyed() {
+        return destroyed;
+    }
+
+    /** 被报告为疑似泄漏的借出次数。 */
+    public long getLeaks() {
+        return leaks;
+    }
+
+    public long getAvgWaitMicros() {
+        return avgWaitMicros;
+    }
+
+    public long getMaxWaitMicros() {
+        return maxWaitMicros;
+    }
+
+    /** PreparedStatement 缓存命中次数。 */
+    public long getStatementCacheHits() {
+        return statementCacheHits;
+    }
+
+    /** PreparedStatement 缓存未命中（需要重新 prepare）次数。 */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStats{max=" + maxSize + ", active=" + active + ", idle=" + idle + ", waiting=" + waiting
+                + ", borrows=" + borrows + ", timeouts=" + timeouts + ", created=" + created
+                + ", destroyed=" + destroyed + ", leaks=" + leaks
+                + ", avgWaitUs=" + avgWaitMicros + ", maxWaitUs=" + maxWaitMicros
+                + ", stmtHits=" + statementCacheHits + ", stmtMisses=" + statementCacheMisses + '}';
+    }
+}
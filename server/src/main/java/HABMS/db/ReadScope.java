@@ -0,0 +1,11 @@
+package HABMS.db;
+
+/** 只读查询走从库的作用域（见 {@link HABMSDB#replicaReads}），关闭后恢复走主库。 */
+public interface ReadScope extends AutoCloseable {
+    /** 空作用域：照常走主库。 */
+    ReadScope NONE = () -> {
+    };
+
+    @Override
+    void close();
+}
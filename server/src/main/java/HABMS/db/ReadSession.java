@@ -0,0 +1,19 @@
+package HABMS.db;
+
+/**
+ * 一个客户端会话的读一致性状态：写入后在固定窗口内把该会话的读固定到主库（read-your-writes），
+ * 避免刚写入的数据因从库复制延迟而读不到。由 {@link HABMSDB#pinToPrimary} 与 {@link HABMSDB#replicaReads} 使用。
+ */
+public final class ReadSession {
+    private volatile boolean pinned;
+    private volatile long pinnedUntil;
+
+    void pin(long untilNanos) {
+        pinnedUntil = untilNanos;
+        pinned = true;
+    }
+
+    boolean isPinned(long nowNanos) {
+        return pinned && nowNanos - pinnedUntil < 0;
+    }
+}
@@ -0,0 +1,167 @@
+package HABMS.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 只读从库（可选）：{@link HABMSDB#replicaReads} 作用域内的只读查询从从库连接池借连接。
+ * <p>
+ * 复制延迟用心跳测量：监控线程定期在主库把本实例的心跳序号加一（ReplicaHeartbeat，迁移 V6），再从从库读回，
+ * 延迟即从库尚未看到的最早一次心跳距今的时长，不依赖两台服务器的时钟，也不需要复制监控权限。
+ * 延迟超过上限、读取心跳失败或检测停滞时不可用，读请求退回主库，直到从库追上。
+ */
+final class ReplicaRouter implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(ReplicaRouter.class.getName());
+    private static final long CHECK_PERIOD_MILLIS = 250;
+    /** 超过该时长没有成功检测（监控线程阻塞在慢查询上）视为不可用。 */
+    private static final long STALE_NANOS = TimeUnit.SECONDS.toNanos(5);
+    /** 从库停止复制时心跳记录的上限（约 40 分钟），此后延迟按最早一条继续增长。 */
+    private static final int MAX_PENDING_BEATS = 10_000;
+
+    private static final String SQL_BEAT = "INSERT INTO ReplicaHeartbeat(Instance, Seq) VALUES (?, ?) ON DUPLICATE KEY UPDATE Seq=?";
+    private static final String SQL_SEEN = "SELECT Seq FROM ReplicaHeartbeat WHERE Instance=?";
+    private static final String SQL_REMOVE = "DELETE FROM ReplicaHeartbeat WHERE Instance=?";
+
+    private final HABMSDB db;
+    private final ConnectionPool replica;
+    private final long maxLagNanos;
+    final long pinNanos;
+    private final long instance = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private final ScheduledExecutorService monitor;
+    private final AtomicLong replicaReads = new AtomicLong();
+    private final AtomicLong primaryReads = new AtomicLong();
+
+    /** 已写入主库、从库尚未读到的心跳 {序号, 写入前的 nanoTime}；只由监控线程访问。 */
+    private final ArrayDeque<long[]> pending = new ArrayDeque<>();
+    private long seq;
+    private volatile long lagNanos = Long.MAX_VALUE;
+    private volatile long checkedAt = System.nanoTime() - STALE_NANOS - 1;
+    private volatile boolean wasUsable;
+
+    ReplicaRouter(HABMSDB db, ConnectionPool replica, long maxLagMillis, long pinMillis) {
+        this.db = db;
+        this.replica = replica;
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+        this.pinNanos = TimeUnit.MILLISECONDS.toNanos(pinMillis);
+        this.monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "habms-replica-monitor");
+            t.setDaemon(true);
+            return t;
+        });
+        monitor.scheduleWithFixedDelay(this::check, 0, CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** 从库可用时借出从库连接，否则返回 null，由调用方改用主库。 */
+    Connection connection() {
+        if (usable()) {
+            try {
+                Connection conn = replica.getConnection();
+                replicaReads.incrementAndGet();
+                return conn;
+            } catch (SQLException e) {
+                lagNanos = Long.MAX_VALUE;
+                LOG.log(Level.WARNING, "Replica connection failed, reading from primary", e);
+            }
+        }
+        primaryReads.incrementAndGet();
+        return null;
+    }
+
+    boolean usable() {
+        return lagNanos <= maxLagNanos && System.nanoTime() - checkedAt <= STALE_NANOS;
+    }
+
+    /** 最近一次测得的复制延迟（毫秒），从库不可达时为 -1。 */
+    long lagMillis() {
+        long lag = lagNanos;
+        return lag == Long.MAX_VALUE ? -1 : TimeUnit.NANOSECONDS.toMillis(lag);
+    }
+
+    long replicaReads() {
+        return replicaReads.get();
+    }
+
+    long primaryReads() {
+        return primaryReads.get();
+    }
+
+    private void check() {
+        try {
+            beat();
+        } catch (SQLException e) {
+            LOG.log(Level.FINE, "Replica heartbeat write failed", e);
+        }
+        long seen;
+        try (Connection conn = replica.getConnection(); PreparedStatement ps = conn.prepareStatement(SQL_SEEN)) {
+            ps.setLong(1, instance);
+            try (ResultSet rs = ps.executeQuery()) {
+                seen = rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            lagNanos = Long.MAX_VALUE;
+            logTransition(e);
+            return;
+        }
+        while (!pending.isEmpty() && pending.peekFirst()[0] <= seen) {
+            pending.pollFirst();
+        }
+        long now = System.nanoTime();
+        lagNanos = pending.isEmpty() ? 0 : now - pending.peekFirst()[1];
+        checkedAt = now;
+        logTransition(null);
+    }
+
+    private void beat() throws SQLException {
+        long next = seq + 1;
+        long sentAt = System.nanoTime();
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(SQL_BEAT)) {
+            ps.setLong(1, instance);
+            ps.setLong(2, next);
+            ps.setLong(3, next);
+            ps.executeUpdate();
+        }
+        seq = next;
+        if (pending.size() < MAX_PENDING_BEATS) {
+            pending.addLast(new long[]{next, sentAt});
+        }
+    }
+
+    private void logTransition(SQLException failure) {
+        boolean now = usable();
+        if (now != wasUsable) {
+            wasUsable = now;
+            if (now) {
+                LOG.info("Replica reads enabled (lag " + lagMillis() + " ms)");
+            } else {
+                LOG.log(Level.WARNING, "Replica reads suspended (lag " + lagMillis() + " ms), reading from primary", failure);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        monitor.shutdownNow();
+        try {
+            monitor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(SQL_REMOVE)) {
+            ps.setLong(1, instance);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            LOG.log(Level.FINE, "Failed to remove replica heartbeat", e);
+        }
+        replica.close();
+    }
+}
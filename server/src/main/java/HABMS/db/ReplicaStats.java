@@ -0,0 +1,36 @@
+package HABMS.db;
+
+/** 只读从库统计快照（读次数为启用以来的累计值）。 */
+public final class ReplicaStats {
+    private final boolean usable;
+    private final long lagMillis;
+    private final long replicaReads;
+    private final long primaryReads;
+
+    public ReplicaStats(boolean usable, long lagMillis, long replicaReads, long primaryReads) {
+        this.usable = usable;
+        this.lagMillis = lagMillis;
+        this.replicaReads = replicaReads;
+        this.primaryReads = primaryReads;
+    }
+
+    /** 当前是否把只读查询路由到从库。 */
+    public boolean isUsable() {
+        return usable;
+    }
+
+    /** 最近一次测得的复制延迟，从库不可达时为 -1。 */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    /** 从库作用域内实际走从库的连接借用次数。 */
+    public long getReplicaReads() {
+        return replicaReads;
+    }
+
+    /** 从库作用域内因延迟或故障退回主库的次数。 */
+    public long getPrimaryReads() {
+        return primaryReads;
+    }
+}
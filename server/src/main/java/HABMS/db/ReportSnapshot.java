@@ -0,0 +1,31 @@
+package HABMS.db;
+
+import java.util.List;
+
+/**
+ * 管理员报表快照：医生（限定科室，按科室顺序）、这些医生的排班、全部预约（按状态分组）。
+ * 由 {@link HABMSDB#LoadReportSnapshot} 用固定数量的整表查询一次读出，不随医生数增加查询次数。
+ */
+public final class ReportSnapshot {
+    private final List<DoctorAccount> doctors;
+    private final List<Schedule> schedules;
+    private final List<Appointment> appointments;
+
+    public ReportSnapshot(List<DoctorAccount> doctors, List<Schedule> schedules, List<Appointment> appointments) {
+        this.doctors = List.copyOf(doctors);
+        this.schedules = List.copyOf(schedules);
+        this.appointments = List.copyOf(appointments);
+    }
+
+    public List<DoctorAccount> getDoctors() {
+        return doctors;
+    }
+
+    public List<Schedule> getSchedules() {
+        return schedules;
+    }
+
+    public List<Appointment> getAppointments() {
+        return appointments;
+    }
+}
@@ -0,0 +1,9 @@
+package HABMS.db;
+
+import java.io.IOException;
+
+/** 流式查询的逐行回调，每行只在回调期间被引用；回调抛出的 IOException 原样传给调用方。 */
+@FunctionalInterface
+public interface RowSink<T> {
+    void accept(T row) throws IOException;
+}
@@ -0,0 +1,228 @@
+package HABMS.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 排班时间索引（可选）：按科室分区，每个分区把排班登记到其覆盖的每个整点小时桶中。
+ * "某时刻有哪些排班"只需取出该时刻所在的小时桶再过滤，代价约为 O(1 + k)，
+ * 不再对 Schedule 全表做 STime/ETime 范围扫描并联表 Doctor。
+ * <p>
+ * 桶内是不可变数组，写入时复制替换，读取无锁；写入（排班/医生的增删改）由一把锁串行化。
+ * 余量与容量随 HABMSDB 中的预约、取消与容量调整同步更新。假定本进程是唯一的写入方。
+ */
+final class ScheduleIndex {
+    private static final long BUCKET_SECONDS = 3600;
+    /** 医生不存在（已删除）时的分区，与联表查询一样不会出现在任何科室结果中。 */
+    private static final String NO_DEPARTMENT = "";
+    private static final Entry[] EMPTY = new Entry[0];
+    private static final Comparator<Schedule> ORDER =
+            Comparator.comparing(Schedule::getStartTime).thenComparingInt(Schedule::getSid);
+
+    private final Map<Integer, Entry> bySid = new ConcurrentHashMap<>();
+    private final Map<String, String> departmentByDid = new ConcurrentHashMap<>();
+    private final Map<String, Map<Long, Entry[]>> partitions = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /** 从数据库加载全部医生科室与排班。 */
+    void load(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT DID, Department FROM Doctor");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                departmentByDid.put(rs.getString("DID"), rs.getString("Department"));
+            }
+        }
+        try (PreparedStatement ps = conn.prepareStatement("SELECT * FROM Schedule");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                put(new Schedule(rs.getInt("SID"), rs.getString("DID"),
+                        rs.getTimestamp("STime").toLocalDateTime(), rs.getTimestamp("ETime").toLocalDateTime(),
+                        rs.getInt("Capacity"), rs.getInt("Res")));
+            }
+        }
+    }
+
+    int size() {
+        return bySid.size();
+    }
+
+    /** 包含该时刻（STime<=time<=ETime）且属于该科室的排班，按开始时间排序。 */
+    List<Schedule> find(LocalDateTime time, String department) {
+        Map<Long, Entry[]> partition = partitions.get(department);
+        List<Schedule> result = new ArrayList<>();
+        if (partition != null) {
+            collect(partition, time, result);
+        }
+        result.sort(ORDER);
+        return result;
+    }
+
+    /** 包含该时刻的全部排班（不限科室）。 */
+    List<Schedule> find(LocalDateTime time) {
+        List<Schedule> result = new ArrayList<>();
+        for (Map<Long, Entry[]> partition : partitions.values()) {
+            collect(partition, time, result);
+        }
+        result.sort(ORDER);
+        return result;
+    }
+
+    private static void collect(Map<Long, Entry[]> partition, LocalDateTime time, List<Schedule> out) {
+        for (Entry e : partition.getOrDefault(bucket(time), EMPTY)) {
+            if (!e.start.isAfter(time) && !e.end.isBefore(time)) {
+                out.add(e.snapshot());
+            }
+        }
+    }
+
+    /** 新增或覆盖一个排班。 */
+    void put(Schedule schedule) {
+        writeLock.lock();
+        try {
+            Entry old = bySid.remove(schedule.getSid());
+            if (old != null) {
+                unlink(old);
+            }
+            Entry entry = new Entry(schedule, departmentByDid.getOrDefault(schedule.getDid(), NO_DEPARTMENT));
+            bySid.put(entry.sid, entry);
+            link(entry);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void remove(int sid) {
+        writeLock.lock();
+        try {
+            Entry old = bySid.remove(sid);
+            if (old != null) {
+                unlink(old);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** 余量增减（预约 -1，取消 +1）。 */
+    void adjustRes(int sid, int delta) {
+        Entry e = bySid.get(sid);
+        if (e != null) {
+            e.res.addAndGet(delta);
+        }
+    }
+
+    /** 容量与余量同时增减，对应 ChangeScheduleCapacity。 */
+    void adjustCapacity(int sid, int delta) {
+        writeLock.lock();
+        try {
+            Entry e = bySid.get(sid);
+            if (e != null) {
+                e.capacity += delta;
+                e.res.addAndGet(delta);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** 医生新增或科室变化：把该医生的排班移动到新科室分区；department 为 null 表示医生已删除。 */
+    void doctorChanged(String did, String department) {
+        writeLock.lock();
+        try {
+            String target = department == null ? NO_DEPARTMENT : department;
+            String previous = department == null ? departmentByDid.remove(did) : departmentByDid.put(did, department);
+            if (target.equals(previous == null ? NO_DEPARTMENT : previous)) {
+                return;
+            }
+            for (Entry old : new ArrayList<>(bySid.values())) {
+                if (old.did.equals(did)) {
+                    unlink(old);
+                    Entry moved = new Entry(old, target);
+                    bySid.put(moved.sid, moved);
+                    link(moved);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void link(Entry e) {
+        Map<Long, Entry[]> partition = partitions.computeIfAbsent(e.department, k -> new ConcurrentHashMap<>());
+        for (long b = bucket(e.start), last = bucket(e.end); b <= last; b++) {
+            partition.compute(b, (k, arr) -> {
+                if (arr == null) {
+                    return new Entry[]{e};
+                }
+                Entry[] grown = Arrays.copyOf(arr, arr.length + 1);
+                grown[arr.length] = e;
+                return grown;
+            });
+        }
+    }
+
+    private void unlink(Entry e) {
+        Map<Long, Entry[]> partition = partitions.get(e.department);
+        if (partition == null) {
+            return;
+        }
+        for (long b = bucket(e.start), last = bucket(e.end); b <= last; b++) {
+            partition.computeIfPresent(b, (k, arr) -> {
+                Entry[] kept = Arrays.stream(arr).filter(x -> x != e).toArray(Entry[]::new);
+                return kept.length == 0 ? null : kept;
+            });
+        }
+    }
+
+    private static long bucket(LocalDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), BUCKET_SECONDS);
+    }
+
+    /** 索引项：时间、医生与科室不可变（变化时整体替换），容量与余量可变。 */
+    private static final class Entry {
+        final int sid;
+        final String did;
+        final String department;
+        final LocalDateTime start;
+        final LocalDateTime end;
+        volatile int capacity;
+        final AtomicInteger res;
+
+        Entry(Schedule s, String department) {
+            this.sid = s.getSid();
+            this.did = s.getDid();
+            this.department = department;
+            this.start = s.getStartTime();
+            this.end = s.getEndTime();
+            this.capacity = s.getCapacity();
+            this.res = new AtomicInteger(s.getRes());
+        }
+
+        /** 换分区时复制，沿用同一个余量计数器。 */
+        Entry(Entry other, String department) {
+            this.sid = other.sid;
+            this.did = other.did;
+            this.department = department;
+            this.start = other.start;
+            this.end = other.end;
+            this.capacity = other.capacity;
+            this.res = other.res;
+        }
+
+        Schedule snapshot() {
+            return new Schedule(sid, did, start, end, capacity, res.get());
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package HABMS.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * 版本化的数据库结构迁移：按版本号顺序执行 classpath 中 db/migration 下的 SQL 脚本，
+ * 每个已执行的版本连同脚本的 SHA-256 校验和记录在 SchemaVersion 表中。
+ * 已执行脚本的内容被修改时拒绝启动；多个服务器实例同时启动时用 GET_LOCK 串行化。
+ * <p>
+ * 新迁移只追加到 {@link #MIGRATIONS} 末尾，不修改已发布的脚本。
+ * 注意 MariaDB 的 DDL 会隐式提交，脚本应写成可重复执行的形式（IF NOT EXISTS）。
+ */
+public final class SchemaMigrator {
+    private static final Logger LOG = Logger.getLogger(SchemaMigrator.class.getName());
+
+    private static final String LOCK_NAME = "habms_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+    private static final String SQL_CREATE_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS SchemaVersion ("
+            + "Version INT NOT NULL PRIMARY KEY, "
+            + "Description VARCHAR(100) NOT NULL, "
+            + "Checksum CHAR(64) NOT NULL, "
+            + "AppliedAt DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP"
+            + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
+    /** 全部迁移，按版本号递增。 */
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "baseline", "db/migration/V1__baseline.sql"),
+            new Migration(2, "hot path indexes", "db/migration/V2__hot_path_indexes.sql"),
+            new Migration(3, "id sequence", "db/migration/V3__id_sequence.sql"),
+            new Migration(4, "keyset pagination indexes", "db/migration/V4__keyset_pagination_indexes.sql"),
+            new Migration(5, "appointment daily stats", "db/migration/V5__appointment_daily_stats.sql"),
+            new Migration(6, "replica heartbeat", "db/migration/V6__replica_heartbeat.sql"),
+            new Migration(7, "daily stats pending deltas", "db/migration/V7__daily_stats_pending.sql"));
+
+    private final ConnectionPool pool;
+
+    public SchemaMigrator(ConnectionPool pool) {
+        this.pool = Objects.requireNonNull(pool);
+    }
+
+    /** 执行全部未执行的迁移，返回本次执行的数量。 */
+    public int migrate() throws SQLException {
+        return migrate(Integer.MAX_VALUE);
+    }
+
+    /** 执行版本号不大于 targetVersion 的未执行迁移，返回本次执行的数量。 */
+    public int migrate(int targetVersion) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            lock(conn);
+            try {
+                try (Statement st = conn.createStatement()) {
+                    st.execute(SQL_CREATE_VERSION_TABLE);
+                }
+                Map<Integer, String> applied = appliedChecksums(conn);
+                int count = 0;
+                for (Migration m : MIGRATIONS) {
+                    if (m.version > targetVersion) {
+                        break;
+                    }
+                    String sql = m.load();
+                    String checksum = checksum(sql);
+                    String recorded = applied.get(m.version);
+                    if (recorded != null) {
+                        if (!recorded.equals(checksum)) {
+                            throw new SQLException("checksum mismatch for schema migration V" + m.version
+                                    + " (" + m.description + "): applied scripts must not be edited");
+                        }
+                        continue;
+                    }
+                    apply(conn, m, sql, checksum);
+                    count++;
+                }
+                return count;
+            } finally {
+                unlock(conn);
+            }
+        }
+    }
+
+    /** 当前数据库记录的最高版本，未迁移过返回 0。 */
+    public int currentVersion() throws SQLException {
+        try (Connection conn = pool.getConnection(); Statement st = conn.createStatement()) {
+            st.execute(SQL_CREATE_VERSION_TABLE);
+            try (ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(Version), 0) FROM SchemaVersion")) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private void apply(Connection conn, Migration m, String sql, String checksum) throws SQLException {
+        long start = System.nanoTime();
+        try (Statement st = conn.createStatement()) {
+            for (String statement : split(sql)) {
+                st.execute(statement);
+            }
+        }
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO SchemaVersion(Version, Description, Checksum) VALUES (?,?,?)")) {
+            ps.setInt(1, m.version);
+            ps.setString(2, m.description);
+            ps.setString(3, checksum);
+            ps.executeUpdate();
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        LOG.info(() -> "Applied schema migration V" + m.version + " (" + m.description + ") in " + millis + " ms");
+    }
+
+    private static Map<Integer, String> appliedChecksums(Connection conn) throws SQLException {
+        Map<Integer, String> applied = new LinkedHashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT Version, Checksum FROM SchemaVersion ORDER BY Version");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                applied.put(rs.getInt("Version"), rs.getString("Checksum"));
+            }
+        }
+        return applied;
+    }
+
+    private static void lock(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            ps.setString(1, LOCK_NAME);
+            ps.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("timed out waiting for schema migration lock");
+                }
+            }
+        }
+    }
+
+    private static void unlock(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            ps.setString(1, LOCK_NAME);
+            ps.executeQuery().close();
+        }
+    }
+
+    /** 按行尾分号切分语句，忽略 "--" 注释行；脚本中的字符串常量不应含行尾分号。 */
+    static List<String> split(String sql) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : sql.split("\n")) {
+            String trimmed = line.strip();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+            if (current.length() > 0) {
+                current.append('\n');
+            }
+            if (trimmed.endsWith(";")) {
+                current.append(trimmed, 0, trimmed.length() - 1);
+                statements.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(trimmed);
+            }
+        }
+        if (current.length() > 0) {
+            statements.add(current.toString());
+        }
+        return statements;
+    }
+
+    /** 脚本内容的 SHA-256；读取时已把换行统一为 \n，避免检出时的换行转换导致校验失败。 */
+    static String checksum(String sql) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sql.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final String resource;
+
+        Migration(int version, String description, String resource) {
+            this.version = version;
+            this.description = description;
+            this.resource = resource;
+        }
+
+        String load() throws SQLException {
+            try (InputStream is = SchemaMigrator.class.getClassLoader().getResourceAsStream(resource)) {
+                if (is == null) {
+                    throw new SQLException("schema migration script not found: " + resource);
+                }
+                return new String(is.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+            } catch (IOException e) {
+                throw new SQLException("failed to read schema migration script " + resource, e);
+            }
+        }
+    }
+}
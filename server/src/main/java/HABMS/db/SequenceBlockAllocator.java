@@ -0,0 +1,191 @@
+package HABMS.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 基于数据库序列表（IdSequence）的编号段租用：一次事务租下一段连续编号，在内存中用 CAS 游标无锁发放；
+ * 当前段剩余不足四分之一时由后台线程预先租下一段，段用完时直接切换，调用方通常不会等待数据库。
+ * 租用频繁时段长加倍（最多 maxBlock），空闲后减半。
+ * 租用时一并查询该区间内已存在的编号（历史上随机分配的）并跳过，因此不会产生主键冲突。
+ * 多个服务器实例共用同一序列行，租到的段互不重叠。
+ */
+final class SequenceBlockAllocator {
+    private static final Logger LOG = Logger.getLogger(SequenceBlockAllocator.class.getName());
+    private static final long GROW_WITHIN_MILLIS = 1_000;
+    private static final long SHRINK_AFTER_MILLIS = 60_000;
+
+    private static final Executor PREFETCH = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "habms-id-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final HABMSDB db;
+    private final String sequence;
+    private final String existingSql;
+    private final int minBlock;
+    private final int maxBlock;
+    private final ReentrantLock switchLock = new ReentrantLock();
+    private final AtomicReference<CompletableFuture<Block>> prefetched = new AtomicReference<>();
+    private volatile Block current = Block.EMPTY;
+    private volatile int blockSize;
+    private volatile long lastLeaseMillis;
+
+    /**
+     * @param sequence    IdSequence.Name
+     * @param existingSql 查询区间 [?, ?) 内已占用编号的 SQL
+     */
+    SequenceBlockAllocator(HABMSDB db, String sequence, String existingSql, int minBlock, int maxBlock) {
+        this.db = db;
+        this.sequence = sequence;
+        this.existingSql = existingSql;
+        this.minBlock = minBlock;
+        this.maxBlock = maxBlock;
+        this.blockSize = minBlock;
+    }
+
+    /** 发放下一个编号；只有当前段与预取段都不可用时才同步访问数据库。 */
+    int next() {
+        while (true) {
+            Block block = current;
+            int i = block.cursor.getAndIncrement();
+            if (i < block.ids.length) {
+                if (i == block.prefetchAt) {
+                    prefetch();
+                }
+                return block.ids[i];
+            }
+            advance(block);
+        }
+    }
+
+    private void prefetch() {
+        CompletableFuture<Block> future = new CompletableFuture<>();
+        if (prefetched.compareAndSet(null, future)) {
+            PREFETCH.execute(() -> {
+                try {
+                    future.complete(lease());
+                } catch (SQLException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        }
+    }
+
+    private void advance(Block exhausted) {
+        switchLock.lock();
+        try {
+            if (current != exhausted) {
+                return; // 其他线程已经切换
+            }
+            Block next = null;
+            CompletableFuture<Block> future = prefetched.getAndSet(null);
+            if (future != null) {
+                try {
+                    next = future.get();
+                } catch (ExecutionException e) {
+                    LOG.log(Level.WARNING, "Prefetching " + sequence + " block failed, leasing synchronously", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for " + sequence + " block", e);
+                }
+            }
+            current = next != null ? next : lease();
+        } catch (SQLException e) {
+            throw new IllegalStateException("failed to lease " + sequence + " block", e);
+        } finally {
+            switchLock.unlock();
+        }
+    }
+
+    /** 一个事务内推进序列并读出区间起点，然后跳过区间内已存在的编号。 */
+    private Block lease() throws SQLException {
+        int size = resize();
+        long start;
+        try (Connection conn = db.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement("SELECT NextValue FROM IdSequence WHERE Name=? FOR UPDATE")) {
+                ps.setString(1, sequence);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("sequence " + sequence + " not found (schema migration V3 missing?)");
+                    }
+                    start = rs.getLong(1);
+                }
+            }
+            if (start + size > Integer.MAX_VALUE) {
+                throw new SQLException("sequence " + sequence + " exhausted");
+            }
+            try (PreparedStatement ps = conn.prepareStatement("UPDATE IdSequence SET NextValue=NextValue+? WHERE Name=?")) {
+                ps.setInt(1, size);
+                ps.setString(2, sequence);
+                ps.executeUpdate();
+            }
+            conn.commit();
+
+            Set<Integer> taken = new HashSet<>();
+            try (PreparedStatement ps = conn.prepareStatement(existingSql)) {
+                ps.setLong(1, start);
+                ps.setLong(2, start + size);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        taken.add(rs.getInt(1));
+                    }
+                }
+            }
+            return new Block((int) start, size, taken);
+        }
+    }
+
+    /** 上一段很快用完则加倍，长时间未租用则减半。 */
+    private int resize() {
+        long now = System.currentTimeMillis();
+        long since = now - lastLeaseMillis;
+        lastLeaseMillis = now;
+        int size = blockSize;
+        if (since < GROW_WITHIN_MILLIS) {
+            size = Math.min(maxBlock, size * 2);
+        } else if (since > SHRINK_AFTER_MILLIS) {
+            size = Math.max(minBlock, size / 2);
+        }
+        blockSize = size;
+        return size;
+    }
+
+    /** 一段可发放的编号；游标越过末尾即为用完。 */
+    private static final class Block {
+        static final Block EMPTY = new Block(0, 0, Set.of());
+
+        final int[] ids;
+        final int prefetchAt;
+        final AtomicInteger cursor = new AtomicInteger();
+
+        Block(int start, int size, Set<Integer> taken) {
+            int[] free = new int[size];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                int id = start + i;
+                if (id != 0 && !taken.contains(id)) {
+                    free[n++] = id;
+                }
+            }
+            this.ids = n == size ? free : Arrays.copyOf(free, n);
+            this.prefetchAt = ids.length - ids.length / 4 - 1;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package HABMS.db;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * 只读快照游标：逐行把医生、排班、预约交给 {@link RowSink}，不在内存中保留整表，用于流式输出大结果。
+ * 游标存续期间可能占用底层资源（JDBC 实现占用一个连接），用完必须 close()。
+ */
+public interface SnapshotReader extends AutoCloseable {
+    /** 依次输出指定科室的医生（按科室、DID 排序），返回输出的 DID 集合。 */
+    Set<String> doctors(Collection<String> departments, RowSink<DoctorAccount> sink) throws SQLException, IOException;
+
+    /** 依次输出属于 dids 的排班（按 DID、开始时间排序）。 */
+    void schedules(Set<String> dids, RowSink<Schedule> sink) throws SQLException, IOException;
+
+    /** 依次输出全部预约（按状态、序列号排序）。 */
+    void appointments(RowSink<Appointment> sink) throws SQLException, IOException;
+
+    @Override
+    void close() throws SQLException;
+}
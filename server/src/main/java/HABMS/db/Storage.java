@@ -0,0 +1,140 @@
+package HABMS.db;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 存储接口：服务器经由它读写账户、医生、排班与预约。{@link HABMSDB} 是 MariaDB 实现，
+ * {@link MemoryStorage} 是不需要数据库服务器的内存实现（演示部署与压测）。
+ * 方法语义以 HABMSDB 为准（见 数据对象与数据库接口.md）；错误统一以 SQLException 报告，
+ * 内存实现的唯一键冲突、时间段重复预约等与数据库实现抛出同样的异常。
+ */
+public interface Storage extends AutoCloseable {
+    // insert
+    void InsertAccount(Account account) throws SQLException;
+
+    void InsertDoctorAccount(DoctorAccount doctor) throws SQLException;
+
+    void UpdateDoctorAccount(DoctorAccount doctor) throws SQLException;
+
+    void UpdateSchedule(Schedule schedule) throws SQLException;
+
+    void InsertAppointment(Appointment appointment) throws SQLException;
+
+    void InsertSchedule(Schedule schedule) throws SQLException;
+
+    void InsertSchedules(List<Schedule> schedules) throws SQLException;
+
+    // delete
+    void DelAccount(String aid) throws SQLException;
+
+    void DelDoctorAccount(String did) throws SQLException;
+
+    void DelAppointment(String apid) throws SQLException;
+
+    void DelSchedule(int sid) throws SQLException;
+
+    // find
+    Account FindAccount(String aid, String pid, String phone) throws SQLException;
+
+    DoctorAccount FindDoctorAccount(String did, String name) throws SQLException;
+
+    DoctorAccount[] FindDoctorAccounts(String department) throws SQLException;
+
+    DoctorAccount[] FindDoctorAccountsByName(String name) throws SQLException;
+
+    Appointment FindAppointment(String apid) throws SQLException;
+
+    Appointment[] FindAppointmentBelongAccount(String aid) throws SQLException;
+
+    Appointment[] FindAppointmentBelongDoctorAccount(String did) throws SQLException;
+
+    Appointment[] FindAppointmentBelongSchedule(int sid) throws SQLException;
+
+    Appointment[] FindAppointmentBelongAccount(String aid, int afterSerial, LocalDateTime from, LocalDateTime to,
+            int limit) throws SQLException;
+
+    Appointment[] FindAppointmentBelongDoctorAccount(String did, int afterSerial, LocalDateTime from, LocalDateTime to,
+            int limit) throws SQLException;
+
+    Appointment[] FindAllAppointments(int afterSerial, LocalDateTime from, LocalDateTime to, int limit)
+            throws SQLException;
+
+    Appointment[] FindAllAppointments() throws SQLException;
+
+    Appointment[] FindAppointmentByStatu(AppointmentStatus statu) throws SQLException;
+
+    ReportSnapshot LoadReportSnapshot(Collection<String> departments) throws SQLException;
+
+    SnapshotReader OpenSnapshot() throws SQLException;
+
+    DailyStats[] FindDailyStats(LocalDate from, LocalDate to) throws SQLException;
+
+    int RebuildDailyStats(LocalDate from, LocalDate to) throws SQLException;
+
+    Schedule FindSchedule(int sid) throws SQLException;
+
+    Schedule[] FindScheduleBelongDoctorAccount(String did) throws SQLException;
+
+    Schedule[] FindScheduleBelongDoctorAccount(String did, LocalDateTime afterStart, int afterSid,
+            LocalDateTime from, LocalDateTime to, int limit) throws SQLException;
+
+    Map<String, List<Schedule>> FindSchedulesBelongDoctorAccounts(Collection<String> dids,
+            LocalDateTime from, LocalDateTime to) throws SQLException;
+
+    Schedule[] FindScheduleByTime(LocalDateTime time) throws SQLException;
+
+    Schedule[] FindScheduleByTimeInDepartment(LocalDateTime time, String department) throws SQLException;
+
+    // change
+    void ChangeAccountInfo(Account account) throws SQLException;
+
+    void ChangeDoctorAccountInfo(DoctorAccount doctor) throws SQLException;
+
+    void ChangeAppointmentStatu(String apid, AppointmentStatus statu) throws SQLException;
+
+    void ChangeScheduleCapacity(int sid, int delta) throws SQLException;
+
+    Appointment TryAppointment(String aid, int sid) throws SQLException;
+
+    Appointment CallNextAppointment(String did, int sid, int afterSerial) throws SQLException;
+
+    boolean hasOverlappingOkAppointment(String aid, LocalDateTime start, LocalDateTime end) throws SQLException;
+
+    // 可选能力：不支持的实现使用默认值
+
+    /** 等待尚未落库的写操作完成。 */
+    default void flushBookings() throws SQLException {
+    }
+
+    /** admin_report 是否改为整表读入内存后再输出（见 {@link HABMSDB#setBufferedReports}）。 */
+    default boolean isBufferedReports() {
+        return false;
+    }
+
+    /** 连接池统计，没有连接池时返回 null。 */
+    default PoolStats getPoolStats() {
+        return null;
+    }
+
+    /** 只读从库统计，未启用从库时返回 null。 */
+    default ReplicaStats getReplicaStats() {
+        return null;
+    }
+
+    /** 只读查询走从库的作用域，没有从库时为空作用域。 */
+    default ReadScope replicaReads(ReadSession session) {
+        return ReadScope.NONE;
+    }
+
+    /** 会话写入后把其读固定到主库，没有从库时无操作。 */
+    default void pinToPrimary(ReadSession session) {
+    }
+
+    @Override
+    void close();
+}
@@ -0,0 +1,87 @@
+package HABMS.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 按窗口检查编号是否已被占用：一次查出 [id, id + span) 内已存在的编号缓存在内存中，检查的编号越出窗口时再查下一段。
+ * 供单调递增的时间分配器（SID）跳过历史上随机分配、恰好落在新编号区间里的旧编号，
+ * 与 {@link SequenceBlockAllocator} 租用时跳过已有编号的做法相同。查询失败时抛出 IllegalStateException。
+ */
+final class TakenIdWindow implements IntPredicate {
+    private final HABMSDB db;
+    private final String existingSql;
+    private final int span;
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private volatile Window window = new Window(0, 0, Set.of());
+
+    /**
+     * @param existingSql 查询区间 [?, ?) 内已占用编号的 SQL
+     * @param span        每次查询的区间长度
+     */
+    TakenIdWindow(HABMSDB db, String existingSql, int span) {
+        this.db = db;
+        this.existingSql = existingSql;
+        this.span = span;
+    }
+
+    @Override
+    public boolean test(int id) {
+        Window w = window;
+        if (!w.covers(id)) {
+            w = load(id);
+        }
+        return w.taken.contains(id);
+    }
+
+    private Window load(int id) {
+        loadLock.lock();
+        try {
+            Window w = window;
+            if (w.covers(id)) {
+                return w; // 其他线程已经加载
+            }
+            long end = Math.min((long) id + span, Integer.MAX_VALUE + 1L);
+            Set<Integer> taken = new HashSet<>();
+            try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(existingSql)) {
+                ps.setLong(1, id);
+                ps.setLong(2, end);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        taken.add(rs.getInt(1));
+                    }
+                }
+            }
+            w = new Window(id, end, taken);
+            window = w;
+            return w;
+        } catch (SQLException e) {
+            throw new IllegalStateException("failed to load existing ids from " + id, e);
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /** 已查询的区间 [start, end) 与其中已占用的编号。 */
+    private static final class Window {
+        final long start;
+        final long end;
+        final Set<Integer> taken;
+
+        Window(long start, long end, Set<Integer> taken) {
+            this.start = start;
+            this.end = end;
+            this.taken = taken;
+        }
+
+        boolean covers(int id) {
+            return id >= start && id < end;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package HABMS.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 十进制 Snowflake 式编号分配器：编号 = (时间单位 × 节点数 + 节点号) × 序列范围 + 序列号，
+ * 各段按十进制位宽切分，以便装进现有的 CHAR(n) / INT 列。
+ * <p>
+ * 状态是一个逻辑时钟 (时间单位 × 序列范围 + 序列号)，用一次 CAS 单调推进，无锁；
+ * 逻辑时钟不小于墙钟，时钟回拨不会产生重复。同一时间单位的序列用尽时借用后续时间单位，
+ * 超前墙钟超过 maxLeadUnits 时抛出 IllegalStateException（不阻塞请求线程）。借用的编号在重启后
+ * 须由调用方用 {@link #observe} 从已落库的最大编号恢复。不同节点号的编号互不相交，多节点无需协调。
+ */
+final class TimeSequenceAllocator {
+    private final LongSupplier clock;
+    private final long seqRange;
+    private final int nodes;
+    private final int node;
+    private final long maxUnits;
+    private final long maxLeadUnits;
+    private final AtomicLong state = new AtomicLong(-1);
+
+    /**
+     * @param clock        当前时间单位（自各自纪元起）
+     * @param seqRange     每个时间单位每个节点的序列数
+     * @param nodes        节点号范围
+     * @param node         本节点号，0 <= node < nodes
+     * @param maxUnits     时间单位上限（位宽决定），用尽后抛出 IllegalStateException
+     * @param maxLeadUnits 允许借用的最大超前时间单位数，超过时 next() 抛出 IllegalStateException
+     */
+    TimeSequenceAllocator(LongSupplier clock, long seqRange, int nodes, int node, long maxUnits, long maxLeadUnits) {
+        if (node < 0 || node >= nodes) {
+            throw new IllegalArgumentException("node id out of range: " + node);
+        }
+        this.clock = clock;
+        this.seqRange = seqRange;
+        this.nodes = nodes;
+        this.node = node;
+        this.maxUnits = maxUnits;
+        this.maxLeadUnits = maxLeadUnits;
+    }
+
+    /** 分配下一个编号；编号空间用尽或超前墙钟过多时抛出 IllegalStateException。 */
+    long next() {
+        while (true) {
+            long current = state.get();
+            long now = clock.getAsLong();
+            long candidate = Math.max(current + 1, now * seqRange);
+            long unit = candidate / seqRange;
+            if (unit >= maxUnits) {
+                throw new IllegalStateException("id space exhausted");
+            }
+            if (unit - now > maxLeadUnits) {
+                throw new IllegalStateException("id allocation is more than " + maxLeadUnits + " units ahead of the clock");
+            }
+            if (state.compareAndSet(current, candidate)) {
+                return (unit * nodes + node) * seqRange + candidate % seqRange;
+            }
+        }
+    }
+
+    /** 已知本节点分配过 (unit, seq)，此后只分配更大的编号；用于重启后从数据库恢复进度。 */
+    void observe(long id) {
+        if (nodeOf(id) != node) {
+            return;
+        }
+        long logical = unitOf(id) * seqRange + id % seqRange;
+        state.accumulateAndGet(logical, Math::max);
+    }
+
+    /** 本节点已分配（或 observe 过）的最大编号，尚无时为 -1。 */
+    long last() {
+        long logical = state.get();
+        return logical < 0 ? -1 : (logical / seqRange * nodes + node) * seqRange + logical % seqRange;
+    }
+
+    /** 当前允许分配的编号上界（不含）：墙钟加最大借用量之后的第一个时间单位。 */
+    long upperBound() {
+        return (clock.getAsLong() + maxLeadUnits + 1) * nodes * seqRange;
+    }
+
+    long unitOf(long id) {
+        return id / seqRange / nodes;
+    }
+
+    int nodeOf(long id) {
+        return (int) (id / seqRange % nodes);
+    }
+
+    long seqOf(long id) {
+        return id % seqRange;
+    }
+
+    int node() {
+        return node;
+    }
+}
@@ -4,16 +4,25 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.CollectionType;
 
 import java.io.*;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-/** 从 JSON 数组文件加载科室列表，忽略空值并给出日志。 */
+/** 从 JSON 数组文件加载科室列表，忽略空值并给出日志；可监视文件变化热加载。 */
 final class DepartmentLoader {
     private static final Logger LOG = Logger.getLogger(DepartmentLoader.class.getName());
+    /** 编辑器保存时常连发多个事件（截断、写入、改名），收到事件后等这么久再读取。 */
+    private static final long SETTLE_MILLIS = 200;
 
     private DepartmentLoader() {
     }
@@ -27,8 +36,7 @@ final class DepartmentLoader {
             if (Files.exists(path)) {
                 // 从文件系统读取
                 LOG.info(() -> "Loading department.json from: " + path.toAbsolutePath());
-                List<String> list = mapper.readValue(path.toFile(), type);
-                return list.stream().map(String::trim).filter(s -> !s.isEmpty()).toList();
+                return read(path);
             } else {
                 // 尝试从 classpath（JAR 内部）读取
                 LOG.warning(() -> "department.json not found at " + path.toAbsolutePath() + ", trying to load from JAR");
@@ -37,13 +45,83 @@ final class DepartmentLoader {
                         LOG.warning("department.json not found in classpath");
                         return Collections.emptyList();
                     }
-                    List<String> list = mapper.readValue(is, type);
-                    return list.stream().map(String::trim).filter(s -> !s.isEmpty()).toList();
+                    return clean(mapper.readValue(is, type));
                 }
             }
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
             LOG.log(Level.WARNING, "Failed to read departments, using empty list", e);
             return Collections.emptyList();
         }
     }
+
+    /**
+     * 监视科室文件：所在目录的 WatchService 报告该文件被创建或修改时重新读取，
+     * 成功则整体替换 registry 中的快照；读取失败（文件被删除、写到一半的 JSON 等）时保留旧快照。
+     * 监视线程为守护线程，关闭返回的句柄即停止。文件所在目录不存在时抛出 IOException。
+     */
+    static AutoCloseable watch(Path path, DepartmentRegistry registry) throws IOException {
+        Path file = path.toAbsolutePath();
+        Path dir = file.getParent();
+        WatchService watcher = dir.getFileSystem().newWatchService();
+        dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    boolean touched = concerns(key, file);
+                    // 合并紧随其后的事件，只读取一次
+                    WatchKey more;
+                    while ((more = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                        touched |= concerns(more, file);
+                    }
+                    if (touched) {
+                        reload(file, registry);
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // 停止监视
+            }
+        }, "habms-department-watch");
+        thread.setDaemon(true);
+        thread.start();
+        LOG.info(() -> "Watching " + file + " for department changes");
+        return watcher::close;
+    }
+
+    private static boolean concerns(WatchKey key, Path file) {
+        boolean touched = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path name && file.getFileName().equals(name)) {
+                touched = true;
+            }
+        }
+        key.reset();
+        return touched;
+    }
+
+    private static void reload(Path file, DepartmentRegistry registry) {
+        try {
+            List<String> list = read(file);
+            if (registry.replace(list)) {
+                LOG.info(() -> "Reloaded departments: " + list.size());
+            }
+        } catch (IOException | RuntimeException e) {
+            // 任何异常都不能结束监视线程，否则之后的修改不再生效
+            LOG.log(Level.WARNING, "Failed to reload " + file + ", keeping previous departments", e);
+        }
+    }
+
+    private static List<String> read(Path path) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        CollectionType type = mapper.getTypeFactory().constructCollectionType(List.class, String.class);
+        return clean(mapper.readValue(path.toFile(), type));
+    }
+
+    /** 去掉 null 与空白项；文件内容为 JSON null 时视为格式错误。 */
+    private static List<String> clean(List<String> list) throws IOException {
+        if (list == null) {
+            throw new IOException("departments file is not a JSON array");
+        }
+        return list.stream().filter(Objects::nonNull).map(String::trim).filter(s -> !s.isEmpty()).toList();
+    }
 }
@@ -0,0 +1,51 @@
+package HABMS.server;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 全局科室表：所有连接共用一份不可变快照，经 volatile 引用发布。
+ * 热加载（见 {@link DepartmentLoader#watch}）整体替换快照，读取方每次取当前引用，不加锁也不复制。
+ */
+final class DepartmentRegistry {
+    private volatile Snapshot current;
+
+    DepartmentRegistry(List<String> departments) {
+        this.current = new Snapshot(departments);
+    }
+
+    /** 当前快照；同一请求内应只取一次，保证前后看到同一份科室表。 */
+    Snapshot current() {
+        return current;
+    }
+
+    /** 换上新的科室表，返回是否与当前不同。 */
+    boolean replace(List<String> departments) {
+        Snapshot next = new Snapshot(departments);
+        if (next.list.equals(current.list)) {
+            return false;
+        }
+        current = next;
+        return true;
+    }
+
+    /** 不可变科室表：保留文件中的顺序，另有集合用于存在判断。 */
+    static final class Snapshot {
+        private final List<String> list;
+        private final Set<String> set;
+
+        private Snapshot(List<String> departments) {
+            this.list = List.copyOf(departments);
+            this.set = Set.copyOf(departments);
+        }
+
+        List<String> list() {
+            return list;
+        }
+
+        /** 科室表为空时不做限制。 */
+        boolean allows(String department) {
+            return set.isEmpty() || set.contains(department);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package HABMS.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 分帧连接的负载压缩（协商 "compression":"deflate" 后启用，见 {@link Protocol}）。
+ * 每帧负载独立压缩为 zlib 格式并带 {@link Protocol#FLAG_DEFLATE}，接收方逐帧解压，不依赖前后帧；
+ * 负载小于阈值、或压缩后不比原文小的帧原样发送。每个连接一个 Deflater 与一个 Inflater，逐帧 reset 复用，
+ * 连接结束时 end() 释放其本地内存。全服务器的压缩量与耗时累计在 {@link #STATS}，由 admin_stats 输出。
+ */
+final class FrameCompressor {
+    static final Stats STATS = new Stats();
+
+    /** 由 ServerMain 按环境变量设置，对之后协商的连接生效。 */
+    private static volatile int defaultThreshold = 1024;
+    private static volatile int defaultLevel = Deflater.BEST_SPEED;
+
+    private final int threshold;
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    /** 分别受 deflater、inflater 监视器保护：end() 之后不再使用。 */
+    private boolean deflaterEnded;
+    private boolean inflaterEnded;
+
+    FrameCompressor() {
+        this.threshold = defaultThreshold;
+        this.deflater = new Deflater(defaultLevel);
+        STATS.connections.increment();
+    }
+
+    /** 设置压缩阈值（负载字节数）与 Deflater 级别（1 最快，9 最小）。 */
+    static void configure(int threshold, int level) {
+        defaultThreshold = Math.max(0, threshold);
+        defaultLevel = level;
+    }
+
+    static int threshold() {
+        return defaultThreshold;
+    }
+
+    /** 包装响应帧的去向：负载达到阈值的帧压缩后再交给 next。 */
+    FrameOutput.Sink wrap(FrameOutput.Sink next) {
+        return (frame, length, last) -> {
+            int payload = length - Protocol.HEADER_BYTES;
+            if (payload < threshold) {
+                next.send(frame, length, last);
+                return;
+            }
+            // 输出缓冲与原负载等长：写不下说明压缩无收益，原样发送
+            byte[] out = new byte[length];
+            int n = Protocol.HEADER_BYTES;
+            boolean finished;
+            long start = System.nanoTime();
+            synchronized (deflater) {
+                if (deflaterEnded) {
+                    throw new ClosedChannelException();
+                }
+                deflater.reset();
+                deflater.setInput(frame, Protocol.HEADER_BYTES, payload);
+                deflater.finish();
+                while (!deflater.finished() && n < out.length) {
+                    n += deflater.deflate(out, n, out.length - n);
+                }
+                finished = deflater.finished();
+            }
+            STATS.deflateNanos.add(System.nanoTime() - start);
+            STATS.framesIn.increment();
+            STATS.bytesIn.add(payload);
+            if (!finished) {
+                STATS.bytesOut.add(payload);
+                next.send(frame, length, last);
+                return;
+            }
+            STATS.framesCompressed.increment();
+            STATS.bytesOut.add(n - Protocol.HEADER_BYTES);
+            Protocol.header(out, n - Protocol.HEADER_BYTES, Protocol.getInt(frame, 4), frame[8] | Protocol.FLAG_DEFLATE);
+            next.send(out, n, last);
+        };
+    }
+
+    /** 解压一个带 {@link Protocol#FLAG_DEFLATE} 的请求负载；数据不完整、格式错误或解压后超过帧上限时抛出 IOException。 */
+    byte[] inflate(byte[] payload) throws IOException {
+        long start = System.nanoTime();
+        byte[] out = new byte[Math.max(256, Math.min(Protocol.MAX_FRAME_BYTES, payload.length * 4))];
+        int n = 0;
+        synchronized (inflater) {
+            if (inflaterEnded) {
+                throw new ClosedChannelException();
+            }
+            inflater.reset();
+            inflater.setInput(payload);
+            try {
+                while (!inflater.finished()) {
+                    if (n == out.length) {
+                        if (out.length >= Protocol.MAX_FRAME_BYTES) {
+                            throw new IOException("inflated frame too long");
+                        }
+                        out = Arrays.copyOf(out, Math.min(Protocol.MAX_FRAME_BYTES, out.length * 2));
+                    }
+                    int k = inflater.inflate(out, n, out.length - n);
+                    if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("truncated compressed frame");
+                    }
+                    n += k;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("invalid compressed frame", e);
+            }
+        }
+        STATS.inflateNanos.add(System.nanoTime() - start);
+        STATS.framesInflated.increment();
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /** 连接结束：释放 Deflater/Inflater 的本地内存；之后仍在写出的响应会失败。 */
+    void end() {
+        synchronized (deflater) {
+            if (!deflaterEnded) {
+                deflater.end();
+                deflaterEnded = true;
+            }
+        }
+        synchronized (inflater) {
+            if (!inflaterEnded) {
+                inflater.end();
+                inflaterEnded = true;
+            }
+        }
+    }
+
+    /** 全服务器的压缩统计（自启动起累计）。 */
+    static final class Stats {
+        final LongAdder connections = new LongAdder();
+        /** 达到阈值、尝试压缩的响应帧及其负载字节数与压缩后字节数（未压缩成功的按原大小计）。 */
+        final LongAdder framesIn = new LongAdder();
+        final LongAdder framesCompressed = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder deflateNanos = new LongAdder();
+        final LongAdder framesInflated = new LongAdder();
+        final LongAdder inflateNanos = new LongAdder();
+    }
+}
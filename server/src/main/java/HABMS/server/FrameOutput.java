@@ -0,0 +1,83 @@
+package HABMS.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 分帧模式下一个响应的输出流：缓冲负载，攒满一块时先发出带 {@link Protocol#FLAG_MORE} 的帧，
+ * close() 时发出最后一帧。每帧是一个完整的字节数组，交给 {@link Sink} 整体写出，不同响应的帧不会交错在帧内。
+ */
+final class FrameOutput extends OutputStream {
+    /** 单帧负载上限：流式响应按此拆帧，避免大响应长时间占住连接。 */
+    static final int CHUNK_BYTES = 64 * 1024;
+    private static final int INITIAL_BYTES = 1024;
+
+    /** 帧的去向；实现须保证一帧整体写出（多个响应并发写同一连接）。 */
+    @FunctionalInterface
+    interface Sink {
+        /** frame[0, length) 为帧头加负载，last 表示该响应的最后一帧。 */
+        void send(byte[] frame, int length, boolean last) throws IOException;
+    }
+
+    private final int id;
+    private final Sink sink;
+    private byte[] frame = new byte[Protocol.HEADER_BYTES + INITIAL_BYTES];
+    private int length = Protocol.HEADER_BYTES;
+    private boolean closed;
+
+    FrameOutput(int id, Sink sink) {
+        this.id = id;
+        this.sink = sink;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensure(1);
+        frame[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, ensure(len));
+            System.arraycopy(b, off, frame, length, n);
+            length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** 发出最后一帧（响应为空时负载也为空）。 */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        emit(false);
+    }
+
+    /** 保证至少有 1 字节空间，返回本帧还能写入的字节数（不超过 want）。 */
+    private int ensure(int want) throws IOException {
+        int payload = length - Protocol.HEADER_BYTES;
+        if (payload == CHUNK_BYTES) {
+            emit(true);
+            frame = new byte[Protocol.HEADER_BYTES + Math.max(INITIAL_BYTES, Math.min(want, CHUNK_BYTES))];
+            length = Protocol.HEADER_BYTES;
+            payload = 0;
+        }
+        int room = frame.length - length;
+        if (room < want && frame.length < Protocol.HEADER_BYTES + CHUNK_BYTES) {
+            int target = Math.min(Protocol.HEADER_BYTES + CHUNK_BYTES, Math.max(frame.length * 2, length + want));
+            frame = Arrays.copyOf(frame, target);
+            room = frame.length - length;
+        }
+        return Math.min(want, Math.min(room, CHUNK_BYTES - payload));
+    }
+
+    private void emit(boolean more) throws IOException {
+        Protocol.header(frame, length - Protocol.HEADER_BYTES, id, more ? Protocol.FLAG_MORE : 0);
+        sink.send(frame, length, !more);
+    }
+}
@@ -0,0 +1,139 @@
+package HABMS.server;
+
+import HABMS.db.Account;
+import HABMS.db.Appointment;
+import HABMS.db.AppointmentStatus;
+import HABMS.db.DoctorAccount;
+import HABMS.db.Schedule;
+import HABMS.db.Sex;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 全服务器共用的 JSON 编解码器：ObjectMapper 只配置一次，请求经流式解码（{@link Requests}），响应使用预先建好的 writer，
+ * 序列化器缓存因此跨连接复用，新连接不再付出建 mapper、注册 JavaTimeModule 与冷缓存的开销。
+ * 配置完成后只读，多线程共用安全。
+ * {@link #SHARED} 为 JSON 文本；{@link #SMILE} 为分帧连接可协商的 Smile 二进制编码（见 {@link Protocol}），
+ * 同一响应内重复的字段名与短字符串（科室、医生姓名、状态、时间）写成对前文的回引用，数据模型与 JSON 完全相同。
+ */
+final class JsonCodec {
+    static final JsonCodec SHARED = new JsonCodec("json", new JsonFactory());
+    static final JsonCodec SMILE = new JsonCodec("smile", SmileFactory.builder()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+            .build());
+
+    private final String name;
+    private final ObjectMapper mapper;
+    private final ObjectWriter responseWriter;
+
+    private JsonCodec(String name, JsonFactory factory) {
+        this.name = name;
+        this.mapper = new ObjectMapper(factory);
+        mapper.registerModule(new JavaTimeModule());
+        mapper.registerModule(ModelSerializers.module());
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        this.responseWriter = mapper.writerFor(Service.Response.class);
+    }
+
+    /** 协商用的编码名（json/smile），不支持时返回 null。 */
+    static JsonCodec forEncoding(String encoding) {
+        return switch (encoding) {
+            case "json" -> SHARED;
+            case "smile" -> SMILE;
+            default -> null;
+        };
+    }
+
+    String name() {
+        return name;
+    }
+
+    /** 一趟流式解码一行请求，data 直接填入按 type 选定的请求对象（见 {@link Requests}）。 */
+    Requests.Envelope readRequest(String line) throws IOException {
+        try (JsonParser p = mapper.getFactory().createParser(line)) {
+            return Requests.read(p);
+        }
+    }
+
+    /** 解码一个请求帧的负载。 */
+    Requests.Envelope readRequest(byte[] payload) throws IOException {
+        try (JsonParser p = mapper.getFactory().createParser(payload)) {
+            return Requests.read(p);
+        }
+    }
+
+    /** 日志中显示的请求内容：JSON 原文，二进制编码只给出长度。 */
+    String describe(byte[] payload) {
+        return this == SHARED ? new String(payload, StandardCharsets.UTF_8) : "<" + name + " " + payload.length + " bytes>";
+    }
+
+    byte[] writeResponse(Service.Response response) throws IOException {
+        return responseWriter.writeValueAsBytes(response);
+    }
+
+    /** 流式响应用的生成器，关闭时不关闭 out。 */
+    JsonGenerator generator(OutputStream out) throws IOException {
+        JsonGenerator gen = mapper.getFactory().createGenerator(out);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return gen;
+    }
+
+    /**
+     * 启动时预热：按响应中出现的各种形状（单个数据对象、对象列表、Map、错误、流式行）各编解码一次，
+     * 让序列化器查找与 JavaTimeModule 的初始化发生在第一个连接之前。
+     */
+    void warmUp() {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("apid", "0");
+        row.put("serialNumber", 1);
+        row.put("startTime", LocalDateTime.of(2000, 1, 1, 8, 0));
+        row.put("date", LocalDate.of(2000, 1, 1));
+        row.put("ok", Boolean.TRUE);
+        row.put("total", 1L);
+        row.put("nested", Map.of("k", "v"));
+        Schedule schedule = new Schedule(1, "00000000", LocalDateTime.of(2000, 1, 1, 8, 0),
+                LocalDateTime.of(2000, 1, 1, 9, 0), 1, 1);
+        Appointment appointment = new Appointment(1, "000000000000", "0000000000", "00000000", "", "", 1,
+                AppointmentStatus.Ok, schedule.getStartTime(), schedule.getEndTime());
+        try {
+            readRequest(mapper.writeValueAsBytes(Map.of("type", "appointment_list",
+                    "data", Map.of("limit", 1, "from", "2000-01-01T08:00:00"))));
+            Map<String, Object> dataFirst = new LinkedHashMap<>();
+            dataFirst.put("data", Map.of("schedules", List.of(Map.of("name", "", "capacity", 1))));
+            dataFirst.put("type", "admin_add_schedules");
+            readRequest(mapper.writeValueAsBytes(dataFirst));
+            writeResponse(new Service.Response("ok", row));
+            writeResponse(new Service.Response("ok", List.of(row)));
+            writeResponse(new Service.Response("ok", new Account("0000000000", "", "", "", "", Sex.M)));
+            writeResponse(new Service.Response("ok", List.of(new DoctorAccount("00000000", "", "", false, "", ""))));
+            writeResponse(new Service.Response("ok", List.of(schedule)));
+            writeResponse(new Service.Response("ok", Map.of("items", List.of(appointment))));
+            writeResponse(new Service.Response("err", Map.of("err_info", "warm up")));
+            try (JsonGenerator gen = generator(OutputStream.nullOutputStream())) {
+                gen.writeStartArray();
+                ModelSerializers.write(gen, appointment);
+                gen.writeEndArray();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package HABMS.server;
+
+import HABMS.db.Account;
+import HABMS.db.Appointment;
+import HABMS.db.DoctorAccount;
+import HABMS.db.Schedule;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 数据对象的 JSON 写法：字段直接写入 JsonGenerator，不再每行构造 Map、装箱 int 并由 Jackson 反射遍历。
+ * 字段名、顺序与时间格式与原先的 view() Map 完全相同（时间同 JavaTimeModule：ISO_LOCAL_DATE_TIME）。
+ * 密码摘要等不对外的字段不写出。
+ */
+final class ModelSerializers {
+    private ModelSerializers() {
+    }
+
+    /** 注册到 {@link JsonCodec} 的 mapper，使响应中的数据对象（含列表元素）走下面的写法。 */
+    static SimpleModule module() {
+        SimpleModule module = new SimpleModule("HABMS-model");
+        module.addSerializer(new Typed<>(Account.class, ModelSerializers::write));
+        module.addSerializer(new Typed<>(DoctorAccount.class, ModelSerializers::write));
+        module.addSerializer(new Typed<>(Schedule.class, ModelSerializers::write));
+        module.addSerializer(new Typed<>(Appointment.class, ModelSerializers::write));
+        return module;
+    }
+
+    static void write(JsonGenerator gen, Account account) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("aid", account.getAid());
+        gen.writeStringField("name", account.getName());
+        gen.writeStringField("pid", account.getPid());
+        gen.writeStringField("phone", account.getPhone());
+        gen.writeStringField("sex", account.getSex().name());
+        gen.writeEndObject();
+    }
+
+    static void write(JsonGenerator gen, DoctorAccount doctor) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("did", doctor.getDid());
+        gen.writeStringField("name", doctor.getName());
+        gen.writeBooleanField("admin", doctor.isAdmin());
+        gen.writeStringField("department", doctor.getDepartment());
+        gen.writeStringField("description", doctor.getDescription());
+        gen.writeEndObject();
+    }
+
+    static void write(JsonGenerator gen, Schedule schedule) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("sid", schedule.getSid());
+        gen.writeStringField("did", schedule.getDid());
+        writeTime(gen, "startTime", schedule.getStartTime());
+        writeTime(gen, "endTime", schedule.getEndTime());
+        gen.writeNumberField("capacity", schedule.getCapacity());
+        gen.writeNumberField("res", schedule.getRes());
+        gen.writeEndObject();
+    }
+
+    static void write(JsonGenerator gen, Appointment appointment) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("serialNumber", appointment.getSerialNumber());
+        gen.writeStringField("apid", appointment.getApid());
+        gen.writeStringField("aid", appointment.getAid());
+        gen.writeStringField("did", appointment.getDid());
+        gen.writeStringField("doctorName", appointment.getDoctorName());
+        gen.writeStringField("department", appointment.getDepartment());
+        gen.writeNumberField("sid", appointment.getSid());
+        gen.writeStringField("status", appointment.getStatus().name());
+        writeTime(gen, "startTime", appointment.getStartTime());
+        writeTime(gen, "endTime", appointment.getEndTime());
+        gen.writeEndObject();
+    }
+
+    private static void writeTime(JsonGenerator gen, String field, LocalDateTime time) throws IOException {
+        gen.writeFieldName(field);
+        if (time == null) {
+            gen.writeNull();
+        } else if (time.getNano() == 0 && time.getYear() >= 0 && time.getYear() <= 9999) {
+            // 常见情形（整秒、四位年份）直接写数字，与 ISO_LOCAL_DATE_TIME 输出一致
+            char[] buf = new char[19];
+            digits(buf, 0, time.getYear(), 4);
+            buf[4] = '-';
+            digits(buf, 5, time.getMonthValue(), 2);
+            buf[7] = '-';
+            digits(buf, 8, time.getDayOfMonth(), 2);
+            buf[10] = 'T';
+            digits(buf, 11, time.getHour(), 2);
+            buf[13] = ':';
+            digits(buf, 14, time.getMinute(), 2);
+            buf[16] = ':';
+            digits(buf, 17, time.getSecond(), 2);
+            gen.writeString(buf, 0, buf.length);
+        } else {
+            gen.writeString(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(time));
+        }
+    }
+
+    private static void digits(char[] buf, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Writer<T> {
+        void write(JsonGenerator gen, T value) throws IOException;
+    }
+
+    private static final class Typed<T> extends StdSerializer<T> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Writer<T> writer;
+
+        Typed(Class<T> type, Writer<T> writer) {
+            super(type);
+            this.writer = writer;
+        }
+
+        @Override
+        public void serialize(T value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            writer.write(gen, value);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package HABMS.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 分帧连接的请求调度：同一连接的请求按到达顺序排队，只读请求最多 {@link #MAX_CONCURRENT} 个并发执行，
+ * 响应完成即按请求 id 回帧（可乱序）；会改动会话或数据的请求（{@link Service.Call#exclusive()}）
+ * 等前面的请求全部完成后单独执行，之后的请求再等它完成，因此结果与逐条串行执行一致。
+ * 整表流式输出的请求（{@link Service.Call#streamed()}）在写完前一直占用池连接，同一连接同时只执行一个，
+ * 慢速链路上的管理端不会因并发报表占满连接池。
+ * 协商了压缩的连接由本类持有该连接的 {@link FrameCompressor}：收到的压缩请求先解压，响应帧经它写出，连接关闭时释放。
+ * 调度状态由 ReentrantLock 保护而不用 synchronized，虚拟线程模式下等待的读线程与工作线程不会钉住载体线程。
+ */
+final class Multiplexer {
+    private static final Logger LOG = Logger.getLogger(Multiplexer.class.getName());
+
+    /** 单连接同时执行的请求数上限。 */
+    static final int MAX_CONCURRENT = 8;
+    /** 单连接排队请求上限，超出的请求直接回复 server busy。 */
+    static final int MAX_PENDING = 1024;
+
+    private final Service service;
+    private final JsonCodec codec;
+    private final byte[] busyPayload;
+    private final Executor executor;
+    private final FrameCompressor compressor;
+    private final FrameOutput.Sink sink;
+    private final Runnable onFailure;
+    private final ArrayDeque<Task> pending = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    /** running 归零或连接关闭时唤醒 {@link #awaitIdle}。 */
+    private final Condition idle = lock.newCondition();
+
+    /** 以下与 pending 受 lock 保护。 */
+    private int running;
+    private boolean exclusiveRunning;
+    private boolean streamRunning;
+    private boolean closed;
+
+    /**
+     * @param negotiation 连接协商的负载编码与压缩
+     * @param sink 响应帧的去向，会被多个工作线程同时调用
+     * @param onFailure 响应写出失败时调用（断开连接）
+     */
+    Multiplexer(Service service, Protocol.Negotiation negotiation, Executor executor, FrameOutput.Sink sink, Runnable onFailure) {
+        this.service = service;
+        this.codec = negotiation.codec;
+        this.busyPayload = busyPayload(codec);
+        this.executor = executor;
+        this.compressor = negotiation.compressed ? new FrameCompressor() : null;
+        this.sink = compressor == null ? sink : compressor.wrap(sink);
+        this.onFailure = onFailure;
+    }
+
+    /** 提交一个请求帧：解压、解析后入队，能执行时立即交给执行器；压缩数据损坏时抛出 IOException 由运行时断开连接。 */
+    void submit(int id, int flags, byte[] payload) throws IOException {
+        if ((flags & Protocol.FLAG_DEFLATE) != 0) {
+            payload = compressor.inflate(payload);
+        }
+        Task task = new Task(id, service.prepare(codec, payload));
+        ArrayDeque<Task> ready;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (pending.size() >= MAX_PENDING) {
+                ready = null;
+            } else {
+                pending.add(task);
+                ready = takeReady();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (ready == null) {
+            busy(id);
+            return;
+        }
+        launch(ready);
+    }
+
+    /** 阻塞模式读到连接结束后调用：等已提交的请求全部回复。 */
+    void awaitIdle() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!closed && (running > 0 || !pending.isEmpty())) {
+                idle.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 连接关闭：丢弃尚未开始的请求，释放压缩器。 */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            pending.clear();
+            idle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (compressor != null) {
+            compressor.end();
+        }
+    }
+
+    /** 取出队首可以开始的请求并计入运行数；须持有 lock。 */
+    private ArrayDeque<Task> takeReady() {
+        ArrayDeque<Task> ready = new ArrayDeque<>(2);
+        while (!pending.isEmpty() && !exclusiveRunning && running < MAX_CONCURRENT) {
+            Task head = pending.peek();
+            if (head.call.exclusive() && running > 0 || head.call.streamed() && streamRunning) {
+                break;
+            }
+            pending.poll();
+            running++;
+            exclusiveRunning = head.call.exclusive();
+            streamRunning |= head.call.streamed();
+            ready.add(head);
+        }
+        return ready;
+    }
+
+    private void launch(ArrayDeque<Task> ready) {
+        Task task;
+        while ((task = ready.poll()) != null) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException rejected) {
+                busy(task.id);
+                lock.lock();
+                try {
+                    ready.addAll(finish(task));
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /** 一个请求结束：更新计数并取出接下来可以开始的请求；须持有 lock。 */
+    private ArrayDeque<Task> finish(Task task) {
+        running--;
+        exclusiveRunning = false;
+        if (task.call.streamed()) {
+            streamRunning = false;
+        }
+        idle.signalAll();
+        return closed ? new ArrayDeque<>(0) : takeReady();
+    }
+
+    private static byte[] busyPayload(JsonCodec codec) {
+        try {
+            return codec.writeResponse(new Service.Response("err", Map.of("err_info", "server busy")));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void busy(int id) {
+        byte[] frame = new byte[Protocol.HEADER_BYTES + busyPayload.length];
+        Protocol.header(frame, busyPayload.length, id, 0);
+        System.arraycopy(busyPayload, 0, frame, Protocol.HEADER_BYTES, busyPayload.length);
+        try {
+            sink.send(frame, frame.length, true);
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Client connection closed", e);
+            onFailure.run();
+        }
+    }
+
+    private final class Task implements Runnable {
+        private final int id;
+        private final Service.Call call;
+
+        Task(int id, Service.Call call) {
+            this.id = id;
+            this.call = call;
+        }
+
+        @Override
+        public void run() {
+            try (FrameOutput out = new FrameOutput(id, sink)) {
+                service.execute(call, out);
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Client connection closed", e);
+                onFailure.run();
+            } finally {
+                ArrayDeque<Task> ready;
+                lock.lock();
+                try {
+                    ready = finish(this);
+                } finally {
+                    lock.unlock();
+                }
+                launch(ready);
+            }
+        }
+    }
+}
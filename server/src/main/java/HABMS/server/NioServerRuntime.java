@@ -0,0 +1,532 @@
+package HABMS.server;
+
+import HABMS.db.Storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 非阻塞 TCP 服务器：少量 reactor 线程通过 Selector 管理全部连接，
+ * 按换行切分 JSON 帧后交给有界工作线程池执行；空闲连接不占用线程。
+ * 行模式下同一连接的请求严格按到达顺序串行处理，保持与阻塞模式一致的会话语义；
+ * 协商为分帧模式（见 {@link Protocol}）的连接按长度拆帧，由 {@link Multiplexer} 调度并发执行。
+ */
+final class NioServerRuntime {
+    private static final Logger LOG = Logger.getLogger(NioServerRuntime.class.getName());
+
+    /** 单行请求上限，超出视为异常客户端并断开。 */
+    private static final int MAX_LINE_BYTES = 16 * 1024 * 1024;
+    /** 每个 reactor 共用的读缓冲大小。 */
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    /** 单连接待发送字节超过该值时，工作线程等待 reactor 写出后再继续。 */
+    private static final long OUTBOUND_HIGH_WATER = 1024 * 1024;
+    private static final byte[] BUSY_RESPONSE =
+            "{\"Statu\":\"err\",\"data\":{\"err_info\":\"server busy\"}}\n".getBytes(StandardCharsets.UTF_8);
+
+    private final int port;
+    private final Storage db;
+    private final DepartmentRegistry departments;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final Reactor[] reactors;
+    private final ThreadPoolExecutor workers;
+    private final AtomicInteger nextReactor = new AtomicInteger();
+
+    private ServerSocketChannel serverChannel;
+
+    NioServerRuntime(int port, Storage db, DepartmentRegistry departments, int reactorCount, int workerCount, int workerQueue) {
+        this.port = port;
+        this.db = Objects.requireNonNull(db);
+        this.departments = Objects.requireNonNull(departments);
+        this.reactors = new Reactor[Math.max(1, reactorCount)];
+        AtomicInteger workerSeq = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(workerQueue), r -> {
+                    Thread t = new Thread(r, "habms-worker-" + workerSeq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /** 启动 reactor 线程，并在当前线程上阻塞接收新连接。 */
+    void start() throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i);
+            reactors[i].thread.start();
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        LOG.info(() -> "Listening (nio, reactors=" + reactors.length + ", workers=" + workers.getCorePoolSize() + ") on port " + port);
+
+        while (running.get()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                Reactor reactor = reactors[Math.floorMod(nextReactor.getAndIncrement(), reactors.length)];
+                reactor.register(new Connection(channel, reactor, new Service(db, departments)));
+            } catch (ClosedChannelException closed) {
+                break;
+            } catch (IOException acceptError) {
+                if (running.get()) {
+                    LOG.log(Level.WARNING, "Accept failed", acceptError);
+                }
+            }
+        }
+    }
+
+    /** 关闭监听、reactor 与工作线程池。 */
+    void stop() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error while closing server channel", e);
+        }
+        for (Reactor reactor : reactors) {
+            if (reactor != null) {
+                reactor.selector.wakeup();
+            }
+        }
+        workers.shutdownNow();
+        LOG.info("NioServerRuntime stopped");
+    }
+
+    /** 单个 selector 线程：负责一组连接的读、写与注册。 */
+    private final class Reactor implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        private final Queue<Connection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+        Reactor(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "habms-reactor-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void register(Connection connection) {
+            pendingRegistrations.add(connection);
+            selector.wakeup();
+        }
+
+        void requestWrite(Connection connection) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running.get()) {
+                    selector.select();
+                    drainRegistrations();
+                    drainWriteRequests();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                onReadable(connection);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flushOutbound();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            LOG.log(Level.FINE, "Client connection closed", e);
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Reactor stopped unexpectedly", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection connection) {
+                        connection.close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    LOG.log(Level.FINE, "Error while closing selector", e);
+                }
+            }
+        }
+
+        private void drainRegistrations() {
+            Connection connection;
+            while ((connection = pendingRegistrations.poll()) != null) {
+                try {
+                    connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (ClosedChannelException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void drainWriteRequests() {
+            Connection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                try {
+                    connection.flushOutbound();
+                } catch (IOException e) {
+                    LOG.log(Level.FINE, "Client connection closed", e);
+                    connection.close();
+                }
+            }
+        }
+
+        private void onReadable(Connection connection) throws IOException {
+            readBuffer.clear();
+            int n = connection.channel.read(readBuffer);
+            if (n < 0) {
+                connection.close();
+                return;
+            }
+            readBuffer.flip();
+            connection.decode(readBuffer);
+        }
+    }
+
+    /** 单连接状态：行解码、请求队列、待发送缓冲与会话 Service。 */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final Reactor reactor;
+        private final Service service;
+        private final ChannelOutput output = new ChannelOutput();
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final Object outboundLock = new Object();
+        private final ArrayDeque<String> requests = new ArrayDeque<>();
+        private volatile SelectionKey key;
+        private volatile boolean closed;
+        private volatile Multiplexer mux;
+
+        /** 仅在 reactor 线程访问：未结束的半行（分帧模式下为未收全的帧）。 */
+        private byte[] partial;
+        private int partialLen;
+        /** 仅在 reactor 线程访问：是否已收到首个非空行（协议协商只看首行）。 */
+        private boolean negotiated;
+        /** 仅在 reactor 线程访问：分帧模式下请求帧允许的标志位。 */
+        private int requestFlags;
+        /** 受 requests 监视器保护：是否已有工作线程在处理本连接。 */
+        private boolean processing;
+        /** 受 outboundLock 保护：尚未写出的字节数。 */
+        private long outboundBytes;
+
+        Connection(SocketChannel channel, Reactor reactor, Service service) {
+            this.channel = channel;
+            this.reactor = reactor;
+            this.service = service;
+        }
+
+        /** 在 reactor 线程上把读到的字节切成完整行（或帧），入队后调度处理。 */
+        void decode(ByteBuffer buffer) throws IOException {
+            byte[] data = buffer.array();
+            int pos = buffer.arrayOffset() + buffer.position();
+            int end = buffer.arrayOffset() + buffer.limit();
+            if (mux != null) {
+                decodeFrames(data, pos, end);
+                return;
+            }
+            List<String> lines = null;
+            int lineStart = pos;
+            for (int i = pos; i < end; i++) {
+                if (data[i] != '\n') {
+                    continue;
+                }
+                String line = takeLine(data, lineStart, i);
+                lineStart = i + 1;
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (!negotiated) {
+                    negotiated = true;
+                    Protocol.Negotiation negotiation = Protocol.negotiate(line);
+                    if (negotiation != null) {
+                        // 首行之前没有其他请求，应答直接入队，不经工作线程
+                        enqueueOutbound(ByteBuffer.wrap(negotiation.reply));
+                        reactor.requestWrite(this);
+                        if (negotiation.framed) {
+                            requestFlags = negotiation.requestFlags();
+                            mux = new Multiplexer(service, negotiation, workers, this::sendFrame, this::close);
+                            decodeFrames(data, lineStart, end);
+                            return;
+                        }
+                        continue;
+                    }
+                }
+                if (lines == null) {
+                    lines = new ArrayList<>(2);
+                }
+                lines.add(line);
+            }
+            appendPartial(data, lineStart, end, MAX_LINE_BYTES);
+            if (lines != null) {
+                enqueue(lines);
+            }
+        }
+
+        /** 分帧模式：拼接残留字节后取出全部完整的帧交给 Multiplexer，不完整的尾部留到下次。 */
+        private void decodeFrames(byte[] data, int from, int to) throws IOException {
+            appendPartial(data, from, to, Protocol.HEADER_BYTES + Protocol.MAX_FRAME_BYTES);
+            int offset = 0;
+            while (partialLen - offset >= Protocol.HEADER_BYTES) {
+                int length = Protocol.checkHeader(partial, offset, requestFlags);
+                if (partialLen - offset - Protocol.HEADER_BYTES < length) {
+                    break;
+                }
+                int start = offset + Protocol.HEADER_BYTES;
+                mux.submit(Protocol.getInt(partial, offset + 4), partial[offset + 8], Arrays.copyOfRange(partial, start, start + length));
+                offset += Protocol.HEADER_BYTES + length;
+            }
+            partialLen -= offset;
+            if (partialLen == 0) {
+                partial = null;
+            } else if (offset > 0) {
+                System.arraycopy(partial, offset, partial, 0, partialLen);
+            }
+        }
+
+        /** 响应帧整体入队；工作线程在积压过高时先等待，reactor 线程（回复 busy）不等待。 */
+        private void sendFrame(byte[] frame, int length, boolean last) throws IOException {
+            if (Thread.currentThread() != reactor.thread) {
+                awaitOutboundCapacity();
+            }
+            enqueueOutbound(ByteBuffer.wrap(frame, 0, length));
+            reactor.requestWrite(this);
+        }
+
+        /** 拼接此前残留的半行与 [from,to) 得到一整行，去掉行尾 \r。 */
+        private String takeLine(byte[] data, int from, int to) throws IOException {
+            byte[] src = data;
+            if (partialLen > 0) {
+                appendPartial(data, from, to, MAX_LINE_BYTES);
+                src = partial;
+                from = 0;
+                to = partialLen;
+                partialLen = 0;
+            }
+            if (to > from && src[to - 1] == '\r') {
+                to--;
+            }
+            String line = new String(src, from, to - from, StandardCharsets.UTF_8);
+            partial = null; // 空闲连接不长期持有半行缓冲
+            return line;
+        }
+
+        private void appendPartial(byte[] data, int from, int to, int limit) throws IOException {
+            int n = to - from;
+            if (n <= 0) {
+                return;
+            }
+            if (partialLen + n > limit) {
+                throw new IOException("request too long");
+            }
+            if (partial == null || partial.length < partialLen + n) {
+                int cap = Math.max(256, Math.max(partialLen + n, partial == null ? 0 : partial.length * 2));
+                partial = Arrays.copyOf(partial == null ? new byte[0] : partial, cap);
+            }
+            System.arraycopy(data, from, partial, partialLen, n);
+            partialLen += n;
+        }
+
+        private void enqueue(List<String> lines) {
+            boolean schedule;
+            synchronized (requests) {
+                requests.addAll(lines);
+                schedule = !processing;
+                processing = true;
+            }
+            if (!schedule) {
+                return;
+            }
+            try {
+                workers.execute(this::drainRequests);
+            } catch (RejectedExecutionException busy) {
+                int dropped;
+                synchronized (requests) {
+                    dropped = requests.size();
+                    requests.clear();
+                    processing = false;
+                }
+                for (int i = 0; i < dropped; i++) {
+                    enqueueOutbound(ByteBuffer.wrap(BUSY_RESPONSE));
+                }
+                reactor.requestWrite(this);
+            }
+        }
+
+        /** 工作线程：依次处理本连接积压的请求，保证响应顺序。 */
+        private void drainRequests() {
+            while (!closed) {
+                String line;
+                synchronized (requests) {
+                    line = requests.poll();
+                    if (line == null) {
+                        processing = false;
+                        return;
+                    }
+                }
+                try {
+                    service.process(line, output);
+                    output.flush();
+                } catch (IOException e) {
+                    LOG.log(Level.FINE, "Client connection closed", e);
+                    close();
+                }
+            }
+        }
+
+        private void enqueueOutbound(ByteBuffer buffer) {
+            synchronized (outboundLock) {
+                outboundBytes += buffer.remaining();
+            }
+            outbound.add(buffer);
+        }
+
+        /** 在 reactor 线程上尽量写出待发送缓冲，写不完时关注 OP_WRITE。 */
+        void flushOutbound() throws IOException {
+            SelectionKey k = key;
+            if (closed || k == null) {
+                return;
+            }
+            ByteBuffer head;
+            while ((head = outbound.peek()) != null) {
+                int written = channel.write(head);
+                if (written > 0) {
+                    synchronized (outboundLock) {
+                        outboundBytes -= written;
+                        outboundLock.notifyAll();
+                    }
+                }
+                if (head.hasRemaining()) {
+                    k.interestOps(k.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                outbound.poll();
+            }
+            k.interestOps(k.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+
+        /** 工作线程在待发送积压过高时阻塞等待，避免慢客户端撑爆内存。 */
+        private void awaitOutboundCapacity() throws IOException {
+            synchronized (outboundLock) {
+                while (!closed && outboundBytes > OUTBOUND_HIGH_WATER) {
+                    try {
+                        outboundLock.wait(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("interrupted while waiting for client to drain", e);
+                    }
+                }
+            }
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Multiplexer m = mux;
+            if (m != null) {
+                m.close();
+            }
+            SelectionKey k = key;
+            if (k != null) {
+                k.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Error while closing client channel", e);
+            }
+            synchronized (outboundLock) {
+                outboundLock.notifyAll();
+            }
+        }
+
+        /** 工作线程侧的输出流：攒满一块或 flush 时交给 reactor 发送。 */
+        private final class ChannelOutput extends OutputStream {
+            private static final int CHUNK_BYTES = 8 * 1024;
+            private ByteBuffer chunk;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (chunk == null) {
+                    chunk = ByteBuffer.allocate(CHUNK_BYTES);
+                }
+                chunk.put((byte) b);
+                if (!chunk.hasRemaining()) {
+                    handOff();
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (chunk == null) {
+                        chunk = ByteBuffer.allocate(Math.max(CHUNK_BYTES, Math.min(len, 256 * 1024)));
+                    }
+                    int n = Math.min(len, chunk.remaining());
+                    chunk.put(b, off, n);
+                    off += n;
+                    len -= n;
+                    if (!chunk.hasRemaining()) {
+                        handOff();
+                    }
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (chunk != null && chunk.position() > 0) {
+                    handOff();
+                }
+            }
+
+            private void handOff() throws IOException {
+                awaitOutboundCapacity();
+                chunk.flip();
+                enqueueOutbound(chunk);
+                chunk = null;
+                reactor.requestWrite(Connection.this);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package HABMS.server;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * 分页续读令牌：记录上一页最后一行的排序键，Base64 URL 编码后交给客户端原样带回，客户端不应解析。
+ * 预约按 SerialNumber 续读（"a:序列号"），排班按 (STime, SID) 续读（"s:开始时间:SID"）。
+ */
+final class PageToken {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private PageToken() {
+    }
+
+    static String ofSerial(int serial) {
+        return encode("a:" + serial);
+    }
+
+    /** 解析预约令牌，返回上一页最后的 SerialNumber。 */
+    static int serial(String token) {
+        String[] parts = decode(token, "a", 2);
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw invalid();
+        }
+    }
+
+    static String ofSchedule(LocalDateTime start, int sid) {
+        return encode("s:" + start + '|' + sid);
+    }
+
+    /** 解析排班令牌的开始时间部分。 */
+    static LocalDateTime scheduleStart(String token) {
+        try {
+            return LocalDateTime.parse(scheduleParts(token)[0]);
+        } catch (RuntimeException e) {
+            throw invalid();
+        }
+    }
+
+    /** 解析排班令牌的 SID 部分。 */
+    static int scheduleSid(String token) {
+        try {
+            return Integer.parseInt(scheduleParts(token)[1]);
+        } catch (NumberFormatException e) {
+            throw invalid();
+        }
+    }
+
+    private static String[] scheduleParts(String token) {
+        String[] parts = decode(token, "s", 2)[1].split("\\|", -1);
+        if (parts.length != 2) {
+            throw invalid();
+        }
+        return parts;
+    }
+
+    private static String encode(String raw) {
+        return ENCODER.encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decode(String token, String kind, int parts) {
+        String raw;
+        try {
+            raw = new String(DECODER.decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw invalid();
+        }
+        String[] split = raw.split(":", parts);
+        if (split.length != parts || !split[0].equals(kind)) {
+            throw invalid();
+        }
+        return split;
+    }
+
+    private static IllegalArgumentException invalid() {
+        return new IllegalArgumentException("invalid cursor");
+    }
+}
@@ -0,0 +1,195 @@
+package HABMS.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 连接协议协商与分帧格式。
+ * 连接默认为行模式（每行一个 JSON）。客户端可以把 {"type":"protocol","data":{"framing":"length"}} 作为连接上的第一行，
+ * 服务器以一行应答；接受后双方改用分帧模式：
+ * [4 字节负载长度][4 字节请求 id][1 字节标志][负载]，整数均为大端。请求帧的负载为一个完整请求，标志为 0；
+ * 响应帧带回请求 id，完成先后不定；流式响应拆成多帧，除最后一帧外带 {@link #FLAG_MORE}。
+ * 分帧模式下还可以协商 "encoding":"smile"，之后请求与响应负载改用 Smile 二进制编码（见 {@link JsonCodec#SMILE}），协商行本身总是 JSON；
+ * 以及 "compression":"deflate"，之后双方可以把超过阈值的帧负载逐帧压缩并带 {@link #FLAG_DEFLATE}（见 {@link FrameCompressor}）。
+ */
+final class Protocol {
+    static final String TYPE = "protocol";
+    static final int HEADER_BYTES = 9;
+    /** 单帧负载上限，与行模式单行上限相同。 */
+    static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    /** 同一请求的响应还有后续帧。 */
+    static final int FLAG_MORE = 1;
+    /** 帧负载为 zlib 压缩数据，仅在协商了 deflate 压缩的连接上出现（请求帧与响应帧均可）。 */
+    static final int FLAG_DEFLATE = 2;
+
+    private Protocol() {
+    }
+
+    /** 协商结果：应答行（含换行）、是否切换到分帧模式、帧负载的编码与是否压缩。 */
+    static final class Negotiation {
+        final byte[] reply;
+        final boolean framed;
+        final JsonCodec codec;
+        final boolean compressed;
+
+        private Negotiation(byte[] reply, boolean framed, JsonCodec codec, boolean compressed) {
+            this.reply = reply;
+            this.framed = framed;
+            this.codec = codec;
+            this.compressed = compressed;
+        }
+
+        /** 请求帧允许的标志位。 */
+        int requestFlags() {
+            return compressed ? FLAG_DEFLATE : 0;
+        }
+    }
+
+    /** 首行是协商请求时返回协商结果，否则返回 null（按普通请求处理）。 */
+    static Negotiation negotiate(String line) throws IOException {
+        if (!line.contains(TYPE)) {
+            return null;
+        }
+        Requests.Envelope request;
+        try {
+            request = JsonCodec.SHARED.readRequest(line);
+        } catch (IOException malformed) {
+            return null;
+        }
+        if (!TYPE.equals(request.type)) {
+            return null;
+        }
+        Requests.ProtocolOptions options = (Requests.ProtocolOptions) request.data;
+        String framing = options.framing;
+        String encoding = options.encoding == null ? "json" : options.encoding;
+        JsonCodec codec = JsonCodec.forEncoding(encoding);
+        String compression = options.compression == null ? "none" : options.compression;
+        Map<String, Object> data = new LinkedHashMap<>();
+        Service.Response response;
+        boolean framed = false;
+        if (framing != null && !"line".equals(framing) && !"length".equals(framing)) {
+            data.put("err_info", "unsupported framing: " + framing);
+            response = new Service.Response("err", data);
+        } else if (codec == null) {
+            data.put("err_info", "unsupported encoding: " + encoding);
+            response = new Service.Response("err", data);
+        } else if (!"length".equals(framing) && codec != JsonCodec.SHARED) {
+            // 二进制负载里可能出现换行字节，只能用于分帧模式
+            data.put("err_info", "encoding " + encoding + " requires length framing");
+            response = new Service.Response("err", data);
+        } else if (!"none".equals(compression) && !"deflate".equals(compression)) {
+            data.put("err_info", "unsupported compression: " + compression);
+            response = new Service.Response("err", data);
+        } else if (!"length".equals(framing) && !"none".equals(compression)) {
+            data.put("err_info", "compression " + compression + " requires length framing");
+            response = new Service.Response("err", data);
+        } else if ("length".equals(framing)) {
+            data.put("framing", "length");
+            data.put("encoding", codec.name());
+            data.put("compression", compression);
+            if (!"none".equals(compression)) {
+                data.put("compressThreshold", FrameCompressor.threshold());
+            }
+            data.put("maxFrameBytes", MAX_FRAME_BYTES);
+            response = new Service.Response("ok", data);
+            framed = true;
+        } else {
+            data.put("framing", "line");
+            data.put("encoding", codec.name());
+            response = new Service.Response("ok", data);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(JsonCodec.SHARED.writeResponse(response));
+        out.write('\n');
+        return new Negotiation(out.toByteArray(), framed, framed ? codec : JsonCodec.SHARED,
+                framed && "deflate".equals(compression));
+    }
+
+    /** 填写帧头。 */
+    static void header(byte[] frame, int payloadLength, int id, int flags) {
+        putInt(frame, 0, payloadLength);
+        putInt(frame, 4, id);
+        frame[8] = (byte) flags;
+    }
+
+    static int getInt(byte[] b, int offset) {
+        return (b[offset] & 0xff) << 24 | (b[offset + 1] & 0xff) << 16 | (b[offset + 2] & 0xff) << 8 | (b[offset + 3] & 0xff);
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    /** 一个请求帧，负载按协商的编码解码（带 {@link #FLAG_DEFLATE} 时先解压）。 */
+    static final class Frame {
+        final int id;
+        final int flags;
+        final byte[] payload;
+
+        Frame(int id, int flags, byte[] payload) {
+            this.id = id;
+            this.flags = flags;
+            this.payload = payload;
+        }
+    }
+
+    /** 阻塞读取一个请求帧；连接在帧边界处结束时返回 null。allowedFlags 见 {@link #checkHeader}。 */
+    static Frame readFrame(DataInputStream in, int allowedFlags) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        byte[] header = new byte[HEADER_BYTES];
+        header[0] = (byte) first;
+        in.readFully(header, 1, HEADER_BYTES - 1);
+        byte[] payload = new byte[checkHeader(header, 0, allowedFlags)];
+        in.readFully(payload);
+        return new Frame(getInt(header, 4), header[8], payload);
+    }
+
+    /**
+     * 校验位于 offset 的请求帧头，返回负载长度；不合法时抛出 IOException 由运行时断开连接。
+     * allowedFlags 为连接协商允许的请求帧标志（{@link Negotiation#requestFlags()}）。
+     */
+    static int checkHeader(byte[] b, int offset, int allowedFlags) throws IOException {
+        int length = getInt(b, offset);
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("invalid frame length " + length);
+        }
+        if ((b[offset + 8] & ~allowedFlags) != 0) {
+            throw new IOException("unsupported request frame flags " + b[offset + 8]);
+        }
+        return length;
+    }
+
+    /**
+     * 逐字节读取一行（不含行尾 \r\n），不预读后续字节，协商后剩余的字节留给分帧读取；
+     * 连接已结束且没有数据时返回 null。
+     */
+    static String readLine(InputStream in, int maxBytes) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                break;
+            }
+            if (line.size() >= maxBytes) {
+                throw new IOException("request line too long");
+            }
+            line.write(b);
+        }
+        String text = line.toString(StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+}
@@ -0,0 +1,480 @@
+package HABMS.server;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * 请求解码：一趟流式读取 {"type":...,"data":{...}}，按 type 把 data 直接填入对应的请求对象，不构造 JsonNode 树。
+ * data 出现在 type 之前时先缓存其 token，读到 type 后再解码。
+ * 字段只做类型提取（取不到时为 null），“xx required” 等校验仍由 Service 的处理方法按原顺序进行，错误信息不变：
+ * 文本字段只接受字符串，整数字段接受 int 范围内的数字（小数截断），布尔字段只接受 true/false。
+ */
+final class Requests {
+    private Requests() {
+    }
+
+    /** 一行请求：type 与按 type 解码的 data（type 缺失或未知时 data 为 {@link Empty}）。 */
+    static final class Envelope {
+        final String type;
+        final Body data;
+
+        Envelope(String type, Body data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    /** 读取一个请求对象；对象之后的内容忽略（与 ObjectMapper.readValue 一致）。 */
+    static Envelope read(JsonParser p) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(p, "request must be a JSON object");
+        }
+        String type = null;
+        Body data = null;
+        TokenBuffer pending = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken value = p.nextToken();
+            if ("type".equals(name)) {
+                if (value.isStructStart()) {
+                    throw new JsonParseException(p, "type must be a string");
+                }
+                String next = value == JsonToken.VALUE_NULL ? null : p.getText();
+                if (data != null && !Objects.equals(type, next)) {
+                    // data 已按前一个 type 解码，无法再按新的 type 解释
+                    throw new JsonParseException(p, "conflicting type fields");
+                }
+                type = next;
+            } else if ("data".equals(name)) {
+                if (type != null) {
+                    data = decode(type, p);
+                    pending = null;
+                } else {
+                    pending = new TokenBuffer(p);
+                    pending.copyCurrentStructure(p);
+                    data = null;
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+        if (type == null) {
+            return new Envelope(null, new Empty());
+        }
+        if (pending != null) {
+            try (JsonParser buffered = pending.asParser(p.getCodec())) {
+                buffered.nextToken();
+                data = decode(type, buffered);
+            }
+        }
+        return new Envelope(type, data != null ? data : body(type));
+    }
+
+    private static Body decode(String type, JsonParser p) throws IOException {
+        Body body = body(type);
+        new Fields(p).object(body);
+        return body;
+    }
+
+    /** 各请求类型对应的 data 对象，与 Service.dispatch 一一对应。 */
+    private static Body body(String type) {
+        return switch (type) {
+            case "account_register", "account_login", "account_logout", "account_delete", "account_update" -> new AccountForm();
+            case "doctor_query" -> new DoctorQuery();
+            case "schedule_by_doctor", "appointment_list", "doctor_appointments", "admin_all_appointments" -> new Listing();
+            case "schedule_by_time" -> new ScheduleByTime();
+            case "appointment_create" -> new AppointmentCreate();
+            case "appointment_cancel" -> new AppointmentCancel();
+            case "doctor_login" -> new DoctorLogin();
+            case "doctor_call_next" -> new CallNext();
+            case "admin_add_schedules" -> new AddSchedules();
+            case "admin_update_schedule" -> new ScheduleUpdate();
+            case "admin_add_doctors" -> new AddDoctors();
+            case "admin_delete_doctor", "admin_delete_schedule" -> new DeleteTarget();
+            case "admin_monthly_stats" -> new MonthlyStats();
+            case Protocol.TYPE -> new ProtocolOptions();
+            default -> new Empty();
+        };
+    }
+
+    /** 读取字段值的游标，每个方法都恰好消费当前值（容器值整体跳过）。 */
+    static final class Fields {
+        private final JsonParser p;
+
+        Fields(JsonParser p) {
+            this.p = p;
+        }
+
+        /** 当前为对象时逐字段交给 body，否则跳过（非对象的 data 视为空对象）。 */
+        void object(Body body) throws IOException {
+            if (p.currentToken() != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                return;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                p.nextToken();
+                body.field(name, this);
+            }
+        }
+
+        String text() throws IOException {
+            if (p.currentToken() == JsonToken.VALUE_STRING) {
+                return p.getText();
+            }
+            p.skipChildren();
+            return null;
+        }
+
+        Integer intValue() throws IOException {
+            JsonToken token = p.currentToken();
+            if (token == JsonToken.VALUE_NUMBER_INT) {
+                return p.getNumberType() == JsonParser.NumberType.INT ? p.getIntValue() : null;
+            }
+            if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+                double value = p.getDoubleValue();
+                return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ? (int) value : null;
+            }
+            p.skipChildren();
+            return null;
+        }
+
+        Boolean bool() throws IOException {
+            JsonToken token = p.currentToken();
+            if (token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE) {
+                return token == JsonToken.VALUE_TRUE;
+            }
+            p.skipChildren();
+            return null;
+        }
+
+        /** 任意值的文本形式（同 JsonNode.asText：null 为 "null"，对象与数组为 ""）。 */
+        String anyText() throws IOException {
+            if (p.currentToken().isStructStart()) {
+                p.skipChildren();
+                return "";
+            }
+            return p.getText();
+        }
+
+        /** 逐个元素解码成对象列表；不是数组时返回 null。非对象元素按空对象处理。 */
+        <T extends Body> List<T> objects(Supplier<T> factory) throws IOException {
+            if (p.currentToken() != JsonToken.START_ARRAY) {
+                p.skipChildren();
+                return null;
+            }
+            List<T> list = new ArrayList<>();
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+                T item = factory.get();
+                object(item);
+                list.add(item);
+            }
+            return list;
+        }
+
+        void skip() throws IOException {
+            p.skipChildren();
+        }
+    }
+
+    /** 请求 data 的基类：逐字段接收，未知字段跳过。 */
+    abstract static class Body {
+        void field(String name, Fields in) throws IOException {
+            in.skip();
+        }
+    }
+
+    static final class Empty extends Body {
+    }
+
+    /** account_register / login / logout / delete / update。 */
+    static final class AccountForm extends Body {
+        String aid;
+        String name;
+        String passwordHex;
+        String pid;
+        String phone;
+        /** sex 字段的文本形式，缺失时为 null。 */
+        String sex;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "aid" -> aid = in.text();
+                case "name" -> this.name = in.text();
+                case "passwordHex" -> passwordHex = in.text();
+                case "pid" -> pid = in.text();
+                case "phone" -> phone = in.text();
+                case "sex" -> sex = in.anyText();
+                default -> in.skip();
+            }
+        }
+    }
+
+    static final class DoctorQuery extends Body {
+        String did;
+        String name;
+        String department;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "did" -> did = in.text();
+                case "name" -> this.name = in.text();
+                case "department" -> department = in.text();
+                default -> in.skip();
+            }
+        }
+    }
+
+    /** 可分页的列表请求；带 limit、cursor、from、to 任一字段（任意值）即为分页请求。 */
+    static final class Listing extends Body {
+        String did;
+        boolean paged;
+        Integer limit;
+        String cursor;
+        String from;
+        String to;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "did" -> did = in.text();
+                case "limit" -> {
+                    paged = true;
+                    limit = in.intValue();
+                }
+                case "cursor" -> {
+                    paged = true;
+                    cursor = in.text();
+                }
+                case "from" -> {
+                    paged = true;
+                    from = in.text();
+                }
+                case "to" -> {
+                    paged = true;
+                    to = in.text();
+                }
+                default -> in.skip();
+            }
+        }
+    }
+
+    static final class ScheduleByTime extends Body {
+        String time;
+        String department;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "time" -> time = in.text();
+                case "department" -> department = in.text();
+                default -> in.skip();
+            }
+        }
+    }
+
+    static final class AppointmentCreate extends Body {
+        String did;
+        Integer sid;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "did" -> did = in.text();
+                case "sid" -> sid = in.intValue();
+                default -> in.skip();
+            }
+        }
+    }
+
+    static final class AppointmentCancel extends Body {
+        String apid;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            if ("apid".equals(name)) {
+                apid = in.text();
+            } else {
+                in.skip();
+            }
+        }
+    }
+
+    static final class DoctorLogin extends Body {
+        String name;
+        String department;
+        String passwordHex;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "name" -> this.name = in.text();
+                case "department" -> department = in.text();
+                case "passwordHex" -> passwordHex = in.text();
+                default -> in.skip();
+            }
+        }
+    }
+
+    static final class CallNext extends Body {
+        Integer sid;
+        Integer serialNumber;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "sid" -> sid = in.intValue();
+                case "serialNumber" -> serialNumber = in.intValue();
+                default -> in.skip();
+            }
+        }
+    }
+
+    /** admin_add_schedules：schedules 不是数组时为 null。 */
+    static final class AddSchedules extends Body {
+        List<ScheduleSpec> schedules;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            if ("schedules".equals(name)) {
+                schedules = in.objects(ScheduleSpec::new);
+            } else {
+                in.skip();
+            }
+        }
+    }
+
+    static final class ScheduleSpec extends Body {
+        String name;
+        String department;
+        String did;
+        String startTime;
+        String endTime;
+        Integer capacity;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "name" -> this.name = in.text();
+                case "department" -> department = in.text();
+                case "did" -> did = in.text();
+                case "startTime" -> startTime = in.text();
+                case "endTime" -> endTime = in.text();
+                case "capacity" -> capacity = in.intValue();
+                default -> in.skip();
+            }
+        }
+    }
+
+    static final class ScheduleUpdate extends Body {
+        Integer sid;
+        String did;
+        String startTime;
+        String endTime;
+        Integer capacity;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "sid" -> sid = in.intValue();
+                case "did" -> did = in.text();
+                case "startTime" -> startTime = in.text();
+                case "endTime" -> endTime = in.text();
+                case "capacity" -> capacity = in.intValue();
+                default -> in.skip();
+            }
+        }
+    }
+
+    /** admin_add_doctors：doctors 不是数组时为 null。 */
+    static final class AddDoctors extends Body {
+        List<DoctorSpec> doctors;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            if ("doctors".equals(name)) {
+                doctors = in.objects(DoctorSpec::new);
+            } else {
+                in.skip();
+            }
+        }
+    }
+
+    static final class DoctorSpec extends Body {
+        String name;
+        String passwordHex;
+        Boolean admin;
+        String department;
+        String description;
+        String did;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "name" -> this.name = in.text();
+                case "passwordHex" -> passwordHex = in.text();
+                case "admin" -> admin = in.bool();
+                case "department" -> department = in.text();
+                case "description" -> description = in.text();
+                case "did" -> did = in.text();
+                default -> in.skip();
+            }
+        }
+    }
+
+    /** admin_delete_doctor（did）/ admin_delete_schedule（sid）。 */
+    static final class DeleteTarget extends Body {
+        String did;
+        Integer sid;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "did" -> did = in.text();
+                case "sid" -> sid = in.intValue();
+                default -> in.skip();
+            }
+        }
+    }
+
+    static final class MonthlyStats extends Body {
+        String month;
+        Boolean rebuild;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "month" -> month = in.text();
+                case "rebuild" -> rebuild = in.bool();
+                default -> in.skip();
+            }
+        }
+    }
+
+    /** 连接首行的协议协商（见 {@link Protocol}）。 */
+    static final class ProtocolOptions extends Body {
+        String framing;
+        String encoding;
+        String compression;
+
+        @Override
+        void field(String name, Fields in) throws IOException {
+            switch (name) {
+                case "framing" -> framing = in.text();
+                case "encoding" -> encoding = in.text();
+                case "compression" -> compression = in.text();
+                default -> in.skip();
+            }
+        }
+    }
+}
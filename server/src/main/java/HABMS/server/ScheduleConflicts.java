@@ -0,0 +1,88 @@
+package HABMS.server;
+
+import HABMS.db.Schedule;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 批量排班的时间重叠校验：按医生分组，新旧排班一起按开始时间排序后扫描一遍（sweep line），O(N log N)。
+ * 扫描时只记住结束时间最晚的排班，开始时间不晚于它的结束时间即为重叠（端点相接也算，与单条校验一致）。
+ * 所有参与重叠的新排班都会被报告；已有排班之间的重叠不报告。
+ */
+final class ScheduleConflicts {
+    private ScheduleConflicts() {
+    }
+
+    /**
+     * @param incoming      新排班，下标即请求数组中的下标
+     * @param existingByDid 相关医生的已有排班
+     * @return 按下标排序的冲突列表，每条新排班最多一条
+     */
+    static List<Conflict> find(List<Schedule> incoming, Map<String, List<Schedule>> existingByDid) {
+        Map<String, List<Item>> byDid = new HashMap<>();
+        for (int i = 0; i < incoming.size(); i++) {
+            Schedule s = incoming.get(i);
+            byDid.computeIfAbsent(s.getDid(), k -> new ArrayList<>()).add(new Item(s, i));
+        }
+        Conflict[] found = new Conflict[incoming.size()];
+        for (Map.Entry<String, List<Item>> e : byDid.entrySet()) {
+            List<Item> items = e.getValue();
+            for (Schedule s : existingByDid.getOrDefault(e.getKey(), List.of())) {
+                items.add(new Item(s, -1));
+            }
+            items.sort(Comparator.comparing((Item it) -> it.schedule.getStartTime()));
+            Item latest = null;
+            for (Item it : items) {
+                if (latest != null && !it.schedule.getStartTime().isAfter(latest.schedule.getEndTime())) {
+                    record(found, it, latest);
+                    record(found, latest, it);
+                }
+                if (latest == null || it.schedule.getEndTime().isAfter(latest.schedule.getEndTime())) {
+                    latest = it;
+                }
+            }
+        }
+        List<Conflict> conflicts = new ArrayList<>();
+        for (Conflict c : found) {
+            if (c != null) {
+                conflicts.add(c);
+            }
+        }
+        return conflicts;
+    }
+
+    private static void record(Conflict[] found, Item item, Item with) {
+        if (item.index >= 0 && found[item.index] == null) {
+            found[item.index] = new Conflict(item.index, item.schedule, with.index, with.index < 0 ? with.schedule.getSid() : -1);
+        }
+    }
+
+    /** 一条冲突：新排班的下标，以及与之冲突的另一条新排班的下标或已有排班的 SID（另一项为 -1）。 */
+    static final class Conflict {
+        final int index;
+        final Schedule schedule;
+        final int withIndex;
+        final int withSid;
+
+        Conflict(int index, Schedule schedule, int withIndex, int withSid) {
+            this.index = index;
+            this.schedule = schedule;
+            this.withIndex = withIndex;
+            this.withSid = withSid;
+        }
+    }
+
+    private static final class Item {
+        final Schedule schedule;
+        final int index;
+
+        Item(Schedule schedule, int index) {
+            this.schedule = schedule;
+            this.index = index;
+        }
+    }
+}
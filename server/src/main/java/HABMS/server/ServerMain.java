@@ -1,14 +1,18 @@
 package HABMS.server;
 
+import HABMS.db.ConnectionPool;
 import HABMS.db.HABMSDB;
+import HABMS.db.MemoryStorage;
+import HABMS.db.SchemaMigrator;
+import HABMS.db.Storage;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-/** 服务器入口：读取配置，初始化数据库访问与运行时，然后启动监听。 */
+/** 服务器入口：读取配置，初始化存储与运行时，然后启动监听。 */
 public final class ServerMain {
     private static final Logger LOG = Logger.getLogger(ServerMain.class.getName());
 
@@ -17,26 +21,129 @@ public final class ServerMain {
 
     public static void main(String[] args) throws Exception {
         int port = Integer.parseInt(env("HABMS_PORT", "9000"));
-        String url = env("HABMS_URL", "jdbc:mariadb://localhost:3306/HABMSDB?useSSL=false&allowPublicKeyRetrieval=true");
-        String user = env("HABMS_USER", "rjava");
-        String pass = env("HABMS_PASS", "rjava");
         Path departmentsPath = Paths.get(env("HABMS_DEPARTMENTS", "department.json"));
 
-        List<String> departments = DepartmentLoader.load(departmentsPath);
-        LOG.info(() -> "Loaded departments: " + departments.size());
+        DepartmentRegistry departments = new DepartmentRegistry(DepartmentLoader.load(departmentsPath));
+        LOG.info(() -> "Loaded departments: " + departments.current().list().size());
+        // 科室文件变化时热加载，各连接下一个请求起看到新科室表
+        if (Boolean.parseBoolean(env("HABMS_DEPARTMENTS_WATCH", "true")) && Files.exists(departmentsPath)) {
+            DepartmentLoader.watch(departmentsPath, departments);
+        }
+
+        // 编解码器全服务器共用，启动时预热，首批连接不再承担序列化器初始化
+        JsonCodec.SHARED.warmUp();
+        JsonCodec.SMILE.warmUp();
 
-        HABMSDB db = new HABMSDB(url, user, pass);
-        ServerRuntime runtime = new ServerRuntime(port, db, departments);
+        // 分帧连接协商 deflate 后，负载不小于阈值的帧逐帧压缩；级别 1 对报表类 JSON 已压到约 12%，更高级别耗时成倍增加
+        FrameCompressor.configure(Integer.parseInt(env("HABMS_COMPRESS_THRESHOLD", "1024")),
+                Integer.parseInt(env("HABMS_COMPRESS_LEVEL", "1")));
 
-        Runtime.getRuntime().addShutdownHook(new Thread(runtime::stop, "habms-server-stop"));
-        LOG.info(() -> "Starting HABMS server on port " + port);
+        // db：MariaDB（默认）；memory：进程内存储，定期快照到本地文件，用于演示与压测（仅单节点）
+        Storage db = "memory".equalsIgnoreCase(env("HABMS_STORAGE", "db")) ? openMemory() : openDatabase();
+
+        // blocking：每连接一个线程；nio：Selector + 有界工作线程池，适合大量空闲长连接
+        String ioMode = env("HABMS_IO_MODE", "blocking");
+        LOG.info(() -> "Starting HABMS server on port " + port + " (io mode " + ioMode + ")");
         try {
-            runtime.start();
+            if ("nio".equalsIgnoreCase(ioMode)) {
+                int cpus = Runtime.getRuntime().availableProcessors();
+                int reactors = Integer.parseInt(env("HABMS_REACTORS", Integer.toString(Math.max(1, cpus / 2))));
+                int workers = Integer.parseInt(env("HABMS_WORKERS", "32"));
+                int workerQueue = Integer.parseInt(env("HABMS_WORKER_QUEUE", "1024"));
+                NioServerRuntime runtime = new NioServerRuntime(port, db, departments, reactors, workers, workerQueue);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    runtime.stop();
+                    db.close();
+                }, "habms-server-stop"));
+                runtime.start();
+            } else {
+                // platform：缓存线程池；virtual：每连接一个虚拟线程（需 JDK 21+）
+                ThreadMode threadMode = ThreadMode.parse(env("HABMS_THREAD_MODE", "platform"));
+                ServerRuntime runtime = new ServerRuntime(port, db, departments, threadMode);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    runtime.stop();
+                    db.close();
+                }, "habms-server-stop"));
+                runtime.start();
+            }
         } catch (Exception e) {
             LOG.log(Level.SEVERE, "Server stopped unexpectedly", e);
         }
     }
 
+    /** 内存存储：从快照文件恢复，按周期写回。 */
+    private static Storage openMemory() {
+        Path snapshot = Paths.get(env("HABMS_MEMORY_SNAPSHOT", "habms-memory.snapshot"));
+        MemoryStorage memory = new MemoryStorage(snapshot);
+        long period = Long.parseLong(env("HABMS_MEMORY_SNAPSHOT_SECONDS", "30"));
+        if (period > 0) {
+            memory.startSnapshots(period);
+        }
+        LOG.info(() -> "Using in-memory storage (snapshot " + snapshot + ", every " + period + " s)");
+        return memory;
+    }
+
+    /** MariaDB 存储：连接池、迁移与各可选子系统。 */
+    private static Storage openDatabase() throws Exception {
+        String url = env("HABMS_URL", "jdbc:mariadb://localhost:3306/HABMSDB?useSSL=false&allowPublicKeyRetrieval=true");
+        String user = env("HABMS_USER", "rjava");
+        String pass = env("HABMS_PASS", "rjava");
+        ConnectionPool pool = new ConnectionPool(url, user, pass,
+                Integer.parseInt(env("HABMS_POOL_SIZE", "20")),
+                Integer.parseInt(env("HABMS_POOL_MIN_IDLE", "2")),
+                Long.parseLong(env("HABMS_POOL_WAIT_MS", "5000")),
+                Long.parseLong(env("HABMS_POOL_IDLE_MS", "600000")),
+                Long.parseLong(env("HABMS_POOL_LEAK_MS", "60000")),
+                Integer.parseInt(env("HABMS_STMT_CACHE", "64")));
+        // 泄漏检测默认只记借出时间；排查时打开以记录借出处调用栈
+        boolean leakTrace = Boolean.parseBoolean(env("HABMS_POOL_LEAK_TRACE", "false"));
+        pool.setLeakTrace(leakTrace);
+        if (Boolean.parseBoolean(env("HABMS_MIGRATE", "true"))) {
+            int applied = new SchemaMigrator(pool).migrate();
+            LOG.info(() -> "Schema migrations applied: " + applied);
+        }
+        HABMSDB db = new HABMSDB(pool);
+        db.seedIdGenerators();
+        // SID 按段从数据库序列租用（需要迁移 V3）；关闭时退回时间 + 节点号分配
+        if (Boolean.parseBoolean(env("HABMS_SID_SEQUENCE", "true"))) {
+            db.enableSidLeasing();
+        }
+        // memory：号源在内存中扣减，后台批量落库（仅单节点部署）；默认 db 为逐次数据库事务
+        if ("memory".equalsIgnoreCase(env("HABMS_BOOKING", "db"))) {
+            db.enableBookingEngine();
+        }
+        // 排班时间索引：schedule_by_time 查询内存索引而不是扫描 Schedule 表（仅单节点部署）
+        if (Boolean.parseBoolean(env("HABMS_SCHEDULE_INDEX", "false"))) {
+            db.enableScheduleIndex();
+        }
+        // 叫号队列：doctor_call_next 从内存候诊队列出队（仅单节点部署）；默认在数据库中用 SKIP LOCKED 认领
+        if (Boolean.parseBoolean(env("HABMS_CALL_QUEUE", "false"))) {
+            db.enableCallQueues();
+        }
+        // admin_report：默认快照游标流式输出；BUFFERED 时整表读入内存再输出，PARALLEL 决定三条整表查询是否并行借连接
+        db.setBufferedReports(Boolean.parseBoolean(env("HABMS_REPORT_BUFFERED", "false")));
+        db.setParallelReports(Boolean.parseBoolean(env("HABMS_REPORT_PARALLEL", "false")));
+        // 只读从库：查询类请求走从库；延迟超过上限时退回主库，会话写入后一段时间内读主库
+        String replicaUrl = System.getenv("HABMS_REPLICA_URL");
+        if (replicaUrl != null && !replicaUrl.isBlank()) {
+            ConnectionPool replica = new ConnectionPool(replicaUrl,
+                    env("HABMS_REPLICA_USER", user),
+                    env("HABMS_REPLICA_PASS", pass),
+                    Integer.parseInt(env("HABMS_REPLICA_POOL_SIZE", env("HABMS_POOL_SIZE", "20"))),
+                    Integer.parseInt(env("HABMS_POOL_MIN_IDLE", "2")),
+                    Long.parseLong(env("HABMS_REPLICA_WAIT_MS", "1000")),
+                    Long.parseLong(env("HABMS_POOL_IDLE_MS", "600000")),
+                    Long.parseLong(env("HABMS_POOL_LEAK_MS", "60000")),
+                    Integer.parseInt(env("HABMS_STMT_CACHE", "64")));
+            replica.setLeakTrace(leakTrace);
+            db.enableReadReplica(replica,
+                    Long.parseLong(env("HABMS_REPLICA_MAX_LAG_MS", "1000")),
+                    Long.parseLong(env("HABMS_REPLICA_PIN_MS", "5000")));
+            LOG.info("Read replica enabled");
+        }
+        return db;
+    }
+
     /** 优先读取环境变量，缺省时返回默认值。 */
     private static String env(String key, String def) {
         String v = System.getenv(key);
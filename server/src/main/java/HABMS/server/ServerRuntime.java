@@ -1,38 +1,42 @@
 package HABMS.server;
 
-import HABMS.db.HABMSDB;
+import HABMS.db.Storage;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-/** 简易 TCP 服务器：接受客户端连接并为每个连接分配一个 Service 处理。 */
+/**
+ * 简易 TCP 服务器：接受客户端连接并为每个连接分配一个 Service 处理（平台线程或虚拟线程）。
+ * 分帧模式连接的并发请求也在同一执行器上运行。
+ */
 final class ServerRuntime {
     private static final Logger LOG = Logger.getLogger(ServerRuntime.class.getName());
 
     private final int port;
-    private final HABMSDB db;
-    private final List<String> departments;
+    private final Storage db;
+    private final DepartmentRegistry departments;
+    private final ThreadMode threadMode;
     private final AtomicBoolean running = new AtomicBoolean(false);
-    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
-        Thread t = new Thread(r, "habms-client");
-        t.setDaemon(true);
-        return t;
-    });
+    private final ExecutorService executor;
 
     private ServerSocket serverSocket;
 
-    ServerRuntime(int port, HABMSDB db, List<String> departments) {
+    ServerRuntime(int port, Storage db, DepartmentRegistry departments) {
+        this(port, db, departments, ThreadMode.PLATFORM);
+    }
+
+    ServerRuntime(int port, Storage db, DepartmentRegistry departments, ThreadMode threadMode) {
         this.port = port;
         this.db = Objects.requireNonNull(db);
-        this.departments = List.copyOf(departments);
+        this.departments = Objects.requireNonNull(departments);
+        this.threadMode = Objects.requireNonNull(threadMode);
+        this.executor = threadMode.newExecutor("habms-client");
     }
 
     /** 启动监听循环，接收新连接并交给线程池。 */
@@ -41,12 +45,12 @@ final class ServerRuntime {
             return;
         }
         serverSocket = new ServerSocket(port);
-        LOG.info(() -> "Listening on port " + port);
+        LOG.info(() -> "Listening (" + threadMode.name().toLowerCase() + " threads) on port " + port);
 
         while (running.get()) {
             try {
                 Socket socket = serverSocket.accept();
-                executor.submit(new Service(socket, db, departments));
+                executor.submit(new Service(socket, db, departments, executor));
             } catch (IOException acceptError) {
                 if (running.get()) {
                     LOG.log(Level.WARNING, "Accept failed", acceptError);
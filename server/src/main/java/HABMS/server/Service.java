@@ -3,28 +3,36 @@ package HABMS.server;
 import HABMS.db.Account;
 import HABMS.db.Appointment;
 import HABMS.db.AppointmentStatus;
+import HABMS.db.DailyStats;
 import HABMS.db.DoctorAccount;
-import HABMS.db.HABMSDB;
+import HABMS.db.PoolStats;
+import HABMS.db.ReadScope;
+import HABMS.db.ReadSession;
+import HABMS.db.ReplicaStats;
+import HABMS.db.ReportSnapshot;
 import HABMS.db.Schedule;
 import HABMS.db.Sex;
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import HABMS.db.SnapshotReader;
+import HABMS.db.Storage;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.core.JsonGenerator;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -32,49 +40,90 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * 单连接请求分发器：逐行读取 JSON 请求并按 type 路由，执行业务后返回 JSON 响应。
+ * 阻塞模式下由 run() 驱动 socket 读写；NIO 模式下由运行时逐行调用 process()。
+ * 协商为分帧模式的连接由 {@link Multiplexer} 调用 prepare()/execute()，同一连接的只读请求可以并发。
  */
 final class Service implements Runnable {
     private static final Logger LOG = Logger.getLogger(Service.class.getName());
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    /** 不写数据库的请求类型，配置了从库时其查询走从库。 */
+    private static final Set<String> READ_ONLY_TYPES = Set.of("department_list", "doctor_query",
+            "schedule_by_doctor", "schedule_by_time", "appointment_list", "doctor_schedules", "doctor_appointments",
+            "admin_all_appointments", "admin_report", "admin_monthly_stats", "admin_stats");
 
     private final Socket socket;
-    private final HABMSDB db;
-    private final Set<String> departments;
-    private final ObjectMapper mapper;
+    private final Executor executor;
+    private final Storage db;
+    private final DepartmentRegistry departments;
+    private final JsonCodec codec = JsonCodec.SHARED;
 
+    /** 分帧模式下会话字段只由独占请求修改，{@link Multiplexer} 保证它们与其他请求之间的先后。 */
     private Account sessionAccount;
     private DoctorAccount sessionDoctor;
+    private final ReadSession readSession = new ReadSession();
 
-    Service(Socket socket, HABMSDB db, List<String> departments) {
-        this.socket = Objects.requireNonNull(socket);
+    /** 阻塞模式：绑定一个 socket，由 run() 循环读写；分帧模式下的请求交给 executor 并发执行。 */
+    Service(Socket socket, Storage db, DepartmentRegistry departments, Executor executor) {
+        this(db, departments, Objects.requireNonNull(socket), Objects.requireNonNull(executor));
+    }
+
+    /** NIO 模式：不持有 socket，帧的收发由 NioServerRuntime 负责。 */
+    Service(Storage db, DepartmentRegistry departments) {
+        this(db, departments, null, null);
+    }
+
+    private Service(Storage db, DepartmentRegistry departments, Socket socket, Executor executor) {
+        this.socket = socket;
+        this.executor = executor;
         this.db = Objects.requireNonNull(db);
-        this.departments = new HashSet<>(departments);
-        this.mapper = new ObjectMapper();
-        mapper.registerModule(new JavaTimeModule());
-        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        this.departments = Objects.requireNonNull(departments);
     }
 
-    /** 循环读取客户端行，处理并写回响应。 */
+    /** 读取首行决定协议（见 {@link Protocol}），之后按行模式或分帧模式循环处理请求。 */
     @Override
     public void run() {
+        if (socket == null) {
+            throw new IllegalStateException("Service created without socket");
+        }
         try (socket;
-             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+             InputStream in = new BufferedInputStream(socket.getInputStream());
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
 
             String line;
+            do {
+                line = Protocol.readLine(in, Protocol.MAX_FRAME_BYTES);
+            } while (line != null && line.isBlank());
+            if (line == null) {
+                return;
+            }
+            Protocol.Negotiation negotiation = Protocol.negotiate(line);
+            if (negotiation == null) {
+                process(line, out);
+            } else {
+                out.write(negotiation.reply);
+            }
+            out.flush();
+            if (negotiation != null && negotiation.framed) {
+                serveFrames(negotiation, new DataInputStream(in), out);
+                return;
+            }
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
             while ((line = reader.readLine()) != null) {
                 if (line.isBlank()) {
                     continue;
                 }
-                Response resp = handleLine(line);
-                String json = mapper.writeValueAsString(resp);
-                writer.write(json);
-                writer.newLine();
-                writer.flush();
+                process(line, out);
+                out.flush();
             }
         } catch (IOException io) {
             LOG.log(Level.FINE, "Client connection closed", io);
@@ -83,54 +132,182 @@ final class Service implements Runnable {
         }
     }
 
-    /** 解析一行请求并分派到对应处理方法，异常时返回错误响应。 */
-    private Response handleLine(String line) {
+    /**
+     * 分帧模式：读线程只负责拆帧，请求由 Multiplexer 调度执行；连接结束时等已收到的请求回复完。
+     * 各工作线程写帧时用 ReentrantLock 互斥：写慢速客户端的 socket 会阻塞，持有 synchronized 时虚拟线程会钉住载体线程。
+     */
+    private void serveFrames(Protocol.Negotiation negotiation, DataInputStream in, OutputStream out) throws IOException, InterruptedException {
+        ReentrantLock writeLock = new ReentrantLock();
+        Multiplexer mux = new Multiplexer(this, negotiation, executor, (frame, length, last) -> {
+            writeLock.lock();
+            try {
+                out.write(frame, 0, length);
+                if (last) {
+                    out.flush();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }, this::closeSocket);
         try {
-            Request req = mapper.readValue(line, Request.class);
-            if (req.type == null || req.type.isBlank()) {
-                return err("type missing");
+            Protocol.Frame frame;
+            while ((frame = Protocol.readFrame(in, negotiation.requestFlags())) != null) {
+                mux.submit(frame.id, frame.flags, frame.payload);
             }
-            JsonNode data = req.data != null ? req.data : mapper.createObjectNode();
-            return switch (req.type) {
-                case "account_register" -> handleAccountRegister(data);
-                case "account_login" -> handleAccountLogin(data);
-                case "account_logout" -> handleAccountLogout(data);
-                case "account_delete" -> handleAccountDelete(data);
-                case "account_update" -> handleAccountUpdate(data);
-                case "department_list" -> handleDepartmentList();
-                case "doctor_query" -> handleDoctorQuery(data);
-                case "schedule_by_doctor" -> handleScheduleByDoctor(data);
-                case "schedule_by_time" -> handleScheduleByTime(data);
-                case "appointment_create" -> handleAppointmentCreate(data);
-                case "appointment_cancel" -> handleAppointmentCancel(data);
-                case "appointment_list" -> handleAppointmentList();
-                case "doctor_login" -> handleDoctorLogin(data);
-                case "doctor_logout" -> handleDoctorLogout();
-                case "doctor_schedules" -> handleDoctorSchedules();
-                case "doctor_appointments" -> handleDoctorAppointments();
-                case "doctor_call_next" -> handleDoctorCallNext(data);
-                case "admin_add_schedules" -> handleAdminAddSchedules(data);
-                case "admin_update_schedule" -> handleAdminUpdateSchedule(data);
-                case "admin_all_appointments" -> handleAdminAllAppointments();
-                case "admin_report" -> handleAdminReport();
-                case "admin_add_doctors" -> handleAdminAddDoctors(data);
-                case "admin_delete_doctor" -> handleAdminDeleteDoctor(data);
-                case "admin_delete_schedule" -> handleAdminDeleteSchedule(data);
-                default -> err("unknown type: " + req.type);
-            };
+        } finally {
+            mux.awaitIdle();
+            mux.close();
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Error while closing client socket", e);
+        }
+    }
+
+    /** 处理一行请求，把 JSON 响应与换行写入 out（不负责 flush）。 */
+    void process(String line, OutputStream out) throws IOException {
+        execute(prepare(line), out);
+        out.write('\n');
+    }
+
+    /** 解析一行 JSON 请求；解析失败时返回的 Call 携带错误响应。 */
+    Call prepare(String line) {
+        Requests.Envelope req;
+        try {
+            req = codec.readRequest(line);
         } catch (Exception e) {
             LOG.log(Level.WARNING, "Failed to handle line: " + line, e);
+            return new Call(codec, line, null, err("invalid request: " + e.getMessage()));
+        }
+        return prepared(codec, line, req);
+    }
+
+    /** 解析一个请求帧的负载，按连接协商的编码（JSON 或 Smile）解码，响应也用同一编码。 */
+    Call prepare(JsonCodec frameCodec, byte[] payload) {
+        Requests.Envelope req;
+        try {
+            req = frameCodec.readRequest(payload);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to handle line: " + frameCodec.describe(payload), e);
+            return new Call(frameCodec, payload, null, err("invalid request: " + e.getMessage()));
+        }
+        return prepared(frameCodec, payload, req);
+    }
+
+    private Call prepared(JsonCodec callCodec, Object source, Requests.Envelope req) {
+        if (req.type == null || req.type.isBlank()) {
+            return new Call(callCodec, source, null, err("type missing"));
+        }
+        return new Call(callCodec, source, req, null);
+    }
+
+    /** 执行请求，把响应按请求的编码写入 out（不含换行，不负责 flush）。 */
+    void execute(Call call, OutputStream out) throws IOException {
+        Response resp = call.error != null ? call.error : handle(call);
+        if (resp.data instanceof StreamedBody body) {
+            writeStreamed(call.codec, body, out);
+        } else {
+            out.write(call.codec.writeResponse(resp));
+        }
+    }
+
+    /**
+     * 边读边写 {"Statu":"ok","data":...}，内存占用与结果行数无关。响应头写出后无法再改为错误响应，
+     * 中途失败时抛出 IOException，由运行时关闭连接。
+     */
+    private void writeStreamed(JsonCodec callCodec, StreamedBody body, OutputStream out) throws IOException {
+        try (JsonGenerator gen = callCodec.generator(out)) {
+            gen.writeStartObject();
+            gen.writeStringField("Statu", "ok");
+            gen.writeFieldName("data");
+            body.write(gen);
+            gen.writeEndObject();
+        } catch (SQLException e) {
+            throw new IOException("streamed response failed", e);
+        }
+    }
+
+    /** 分派已解析的请求，异常时返回错误响应。 */
+    private Response handle(Call call) {
+        Requests.Envelope req = call.request;
+        boolean readOnly = !call.exclusive;
+        ReadScope scope = readOnly ? db.replicaReads(readSession) : ReadScope.NONE;
+        try (scope) {
+            return dispatch(req.type, req.data);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to handle line: " + call.describe(), e);
             return err("invalid request: " + e.getMessage());
+        } finally {
+            if (!readOnly) {
+                db.pinToPrimary(readSession);
+            }
         }
     }
 
+    /** 只读请求可以走从库；其余请求（包括登录）走主库，并把本连接之后一段时间的读固定到主库。 */
+    private static boolean isReadOnly(String type, Requests.Body data) {
+        if (data instanceof Requests.MonthlyStats stats) {
+            return !optionalBool(stats.rebuild, false);
+        }
+        return READ_ONLY_TYPES.contains(type);
+    }
+
+    /**
+     * 整表流式输出的请求（admin_report 与不分页的 admin_all_appointments）：执行期间占用一个池连接与一个只读事务，
+     * 直到响应写完，慢速链路上可能持续很久，因此同一分帧连接上同时只执行一个。
+     */
+    private static boolean isStreamed(String type, Requests.Body data) {
+        if (data instanceof Requests.Listing listing) {
+            return "admin_all_appointments".equals(type) && !listing.paged;
+        }
+        return "admin_report".equals(type);
+    }
+
+    /** data 已由 {@link Requests} 按 type 解码为对应的请求对象。 */
+    private Response dispatch(String type, Requests.Body data) throws Exception {
+        return switch (type) {
+            case "account_register" -> handleAccountRegister((Requests.AccountForm) data);
+            case "account_login" -> handleAccountLogin((Requests.AccountForm) data);
+            case "account_logout" -> handleAccountLogout((Requests.AccountForm) data);
+            case "account_delete" -> handleAccountDelete((Requests.AccountForm) data);
+            case "account_update" -> handleAccountUpdate((Requests.AccountForm) data);
+            case "department_list" -> handleDepartmentList();
+            case "doctor_query" -> handleDoctorQuery((Requests.DoctorQuery) data);
+            case "schedule_by_doctor" -> handleScheduleByDoctor((Requests.Listing) data);
+            case "schedule_by_time" -> handleScheduleByTime((Requests.ScheduleByTime) data);
+            case "appointment_create" -> handleAppointmentCreate((Requests.AppointmentCreate) data);
+            case "appointment_cancel" -> handleAppointmentCancel((Requests.AppointmentCancel) data);
+            case "appointment_list" -> handleAppointmentList((Requests.Listing) data);
+            case "doctor_login" -> handleDoctorLogin((Requests.DoctorLogin) data);
+            case "doctor_logout" -> handleDoctorLogout();
+            case "doctor_schedules" -> handleDoctorSchedules();
+            case "doctor_appointments" -> handleDoctorAppointments((Requests.Listing) data);
+            case "doctor_call_next" -> handleDoctorCallNext((Requests.CallNext) data);
+            case "admin_add_schedules" -> handleAdminAddSchedules((Requests.AddSchedules) data);
+            case "admin_update_schedule" -> handleAdminUpdateSchedule((Requests.ScheduleUpdate) data);
+            case "admin_all_appointments" -> handleAdminAllAppointments((Requests.Listing) data);
+            case "admin_report" -> handleAdminReport();
+            case "admin_add_doctors" -> handleAdminAddDoctors((Requests.AddDoctors) data);
+            case "admin_delete_doctor" -> handleAdminDeleteDoctor((Requests.DeleteTarget) data);
+            case "admin_delete_schedule" -> handleAdminDeleteSchedule((Requests.DeleteTarget) data);
+            case "admin_stats" -> handleAdminStats();
+            case "admin_monthly_stats" -> handleAdminMonthlyStats((Requests.MonthlyStats) data);
+            case Protocol.TYPE -> err("protocol must be the first request");
+            default -> err("unknown type: " + type);
+        };
+    }
+
     /** 患者注册：校验唯一性，创建账户并建立会话。 */
-    private Response handleAccountRegister(JsonNode data) throws Exception {
-        String name = requiredText(data, "name");
-        String passwordHex = requiredText(data, "passwordHex");
-        String pid = requiredText(data, "pid");
-        String phone = requiredText(data, "phone");
-        Sex sex = parseSex(data.path("sex"));
+    private Response handleAccountRegister(Requests.AccountForm data) throws Exception {
+        String name = requiredText(data.name, "name");
+        String passwordHex = requiredText(data.passwordHex, "passwordHex");
+        String pid = requiredText(data.pid, "pid");
+        String phone = requiredText(data.phone, "phone");
+        Sex sex = parseSex(data.sex);
 
         if (db.FindAccount(null, pid, null) != null) {
             return err("PID already exists");
@@ -143,14 +320,14 @@ final class Service implements Runnable {
         db.InsertAccount(account);
         sessionAccount = account;
         sessionDoctor = null;
-        return ok(view(account));
+        return ok(account);
     }
 
     /** 患者登录：按 PID/手机号查找并校验密码。 */
-    private Response handleAccountLogin(JsonNode data) throws Exception {
-        String pid = textOrNull(data, "pid");
-        String phone = textOrNull(data, "phone");
-        String passwordHex = requiredText(data, "passwordHex");
+    private Response handleAccountLogin(Requests.AccountForm data) throws Exception {
+        String pid = data.pid;
+        String phone = data.phone;
+        String passwordHex = requiredText(data.passwordHex, "passwordHex");
         if ((pid == null || pid.isBlank()) && (phone == null || phone.isBlank())) {
             return err("pid or phone required");
         }
@@ -163,15 +340,15 @@ final class Service implements Runnable {
         }
         sessionAccount = account;
         sessionDoctor = null;
-        return ok(view(account));
+        return ok(account);
     }
 
     /** 患者登出，校验 AID 匹配。 */
-    private Response handleAccountLogout(JsonNode data) {
+    private Response handleAccountLogout(Requests.AccountForm data) {
         if (sessionAccount == null) {
             return err("not logged in");
         }
-        String aid = textOrNull(data, "aid");
+        String aid = data.aid;
         if (aid != null && !aid.equals(sessionAccount.getAid())) {
             return err("aid mismatch");
         }
@@ -180,11 +357,11 @@ final class Service implements Runnable {
     }
 
     /** 患者注销账号并清理会话。 */
-    private Response handleAccountDelete(JsonNode data) throws Exception {
+    private Response handleAccountDelete(Requests.AccountForm data) throws Exception {
         if (sessionAccount == null) {
             return err("not logged in");
         }
-        String aid = requiredText(data, "aid");
+        String aid = requiredText(data.aid, "aid");
         if (!aid.equals(sessionAccount.getAid())) {
             return err("aid mismatch");
         }
@@ -194,19 +371,19 @@ final class Service implements Runnable {
     }
 
     /** 患者信息更新，禁止修改 PID/Phone。 */
-    private Response handleAccountUpdate(JsonNode data) throws Exception {
+    private Response handleAccountUpdate(Requests.AccountForm data) throws Exception {
         if (sessionAccount == null) {
             return err("not logged in");
         }
-        String aid = requiredText(data, "aid");
+        String aid = requiredText(data.aid, "aid");
         if (!aid.equals(sessionAccount.getAid())) {
             return err("aid mismatch");
         }
-        String name = requiredText(data, "name");
-        String passwordHex = requiredText(data, "passwordHex");
-        String pid = requiredText(data, "pid");
-        String phone = requiredText(data, "phone");
-        Sex sex = parseSex(data.path("sex"));
+        String name = requiredText(data.name, "name");
+        String passwordHex = requiredText(data.passwordHex, "passwordHex");
+        String pid = requiredText(data.pid, "pid");
+        String phone = requiredText(data.phone, "phone");
+        Sex sex = parseSex(data.sex);
 
         if (!pid.equals(sessionAccount.getPid()) || !phone.equals(sessionAccount.getPhone())) {
             return err("immutable field changed (pid/phone)");
@@ -215,7 +392,7 @@ final class Service implements Runnable {
         Account updated = new Account(aid, name, passwordHex, pid, phone, sex);
         db.ChangeAccountInfo(updated);
         sessionAccount = updated;
-        return ok(view(updated));
+        return ok(updated);
     }
 
     /** 返回科室列表（当前允许未登录访问）。 */
@@ -223,17 +400,17 @@ final class Service implements Runnable {
         // if (!isLoggedIn()) {
         //     return err("not logged in");
         // }
-        return ok(new ArrayList<>(departments));
+        return ok(departments.current().list());
     }
 
     /** 按 did/name/department 查询医生（需登录）。 */
-    private Response handleDoctorQuery(JsonNode data) throws Exception {
+    private Response handleDoctorQuery(Requests.DoctorQuery data) throws Exception {
         if (!isLoggedIn()) {
             return err("not logged in");
         }
-        String did = textOrNull(data, "did");
-        String name = textOrNull(data, "name");
-        String department = textOrNull(data, "department");
+        String did = data.did;
+        String name = data.name;
+        String department = data.department;
 
         List<DoctorAccount> found = new ArrayList<>();
         if (did != null) {
@@ -244,7 +421,7 @@ final class Service implements Runnable {
         } else if (name != null) {
             found.addAll(Arrays.asList(db.FindDoctorAccountsByName(name)));
         } else if (department != null) {
-            if (!departments.isEmpty() && !departments.contains(department)) {
+            if (!departments.current().allows(department)) {
                 return err("department not exists");
             }
             found.addAll(Arrays.asList(db.FindDoctorAccounts(department)));
@@ -252,41 +429,52 @@ final class Service implements Runnable {
             return err("department/name/did required");
         }
 
-        return ok(found.stream().map(this::view).toList());
+        return ok(found);
     }
 
     /** 查询指定医生的排班（需登录）。 */
-    private Response handleScheduleByDoctor(JsonNode data) throws Exception {
+    private Response handleScheduleByDoctor(Requests.Listing data) throws Exception {
         if (!isLoggedIn()) {
             return err("not logged in");
         }
-        String did = requiredText(data, "did");
+        String did = requiredText(data.did, "did");
+        if (data.paged) {
+            int limit = pageSize(data);
+            String cursor = data.cursor;
+            Schedule[] rows = db.FindScheduleBelongDoctorAccount(did,
+                    cursor != null ? PageToken.scheduleStart(cursor) : null, cursor != null ? PageToken.scheduleSid(cursor) : 0,
+                    optionalTime(data.from), optionalTime(data.to), limit + 1);
+            List<Schedule> items = Arrays.asList(rows).subList(0, Math.min(limit, rows.length));
+            Schedule last = items.isEmpty() ? null : items.get(items.size() - 1);
+            return page(items,
+                    rows.length > limit ? PageToken.ofSchedule(last.getStartTime(), last.getSid()) : null);
+        }
         Schedule[] schedules = db.FindScheduleBelongDoctorAccount(did);
-        return ok(Arrays.stream(schedules).map(this::view).toList());
+        return ok(schedules);
     }
 
     /** 按时间与科室查询可用排班。 */
-    private Response handleScheduleByTime(JsonNode data) throws Exception {
+    private Response handleScheduleByTime(Requests.ScheduleByTime data) throws Exception {
         if (!isLoggedIn()) {
             return err("not logged in");
         }
-        String timeStr = requiredText(data, "time");
-        String department = requiredText(data, "department");
-        if (!departments.isEmpty() && !departments.contains(department)) {
+        String timeStr = requiredText(data.time, "time");
+        String department = requiredText(data.department, "department");
+        if (!departments.current().allows(department)) {
             return err("department not exists");
         }
         LocalDateTime time = LocalDateTime.parse(timeStr);
         Schedule[] schedules = db.FindScheduleByTimeInDepartment(time, department);
-        return ok(Arrays.stream(schedules).map(this::view).toList());
+        return ok(schedules);
     }
 
     /** 患者创建预约，原子扣减号源并返回预约。 */
-    private Response handleAppointmentCreate(JsonNode data) throws Exception {
+    private Response handleAppointmentCreate(Requests.AppointmentCreate data) throws Exception {
         if (sessionAccount == null) {
             return err("not logged in");
         }
-        String did = requiredText(data, "did");
-        int sid = requiredInt(data, "sid");
+        String did = requiredText(data.did, "did");
+        int sid = requiredInt(data.sid, "sid");
 
         Schedule schedule = db.FindSchedule(sid);
         if (schedule == null) {
@@ -309,15 +497,15 @@ final class Service implements Runnable {
         if (appointment == null) {
             return err("capacity is zero");
         }
-        return ok(view(appointment));
+        return ok(appointment);
     }
 
     /** 患者取消预约，必要时返还号源。 */
-    private Response handleAppointmentCancel(JsonNode data) throws Exception {
+    private Response handleAppointmentCancel(Requests.AppointmentCancel data) throws Exception {
         if (sessionAccount == null) {
             return err("not logged in");
         }
-        String apid = requiredText(data, "apid");
+        String apid = requiredText(data.apid, "apid");
         Appointment ap = db.FindAppointment(apid);
         if (ap == null) {
             return err("apid not exists");
@@ -327,23 +515,28 @@ final class Service implements Runnable {
         }
         db.ChangeAppointmentStatu(apid, AppointmentStatus.Abandon);
         Appointment updated = db.FindAppointment(apid);
-        return ok(view(updated));
+        return ok(updated);
     }
 
     /** 获取当前患者的全部预约。 */
-    private Response handleAppointmentList() throws Exception {
+    private Response handleAppointmentList(Requests.Listing data) throws Exception {
         if (sessionAccount == null) {
             return err("not logged in");
         }
+        if (data.paged) {
+            int limit = pageSize(data);
+            return appointmentPage(db.FindAppointmentBelongAccount(sessionAccount.getAid(), afterSerial(data),
+                    optionalTime(data.from), optionalTime(data.to), limit + 1), limit);
+        }
         Appointment[] appointments = db.FindAppointmentBelongAccount(sessionAccount.getAid());
-        return ok(Arrays.stream(appointments).map(this::view).toList());
+        return ok(appointments);
     }
 
     /** 医生/管理员登录。 */
-    private Response handleDoctorLogin(JsonNode data) throws Exception {
-        String name = requiredText(data, "name");
-        String department = requiredText(data, "department");
-        String passwordHex = requiredText(data, "passwordHex");
+    private Response handleDoctorLogin(Requests.DoctorLogin data) throws Exception {
+        String name = requiredText(data.name, "name");
+        String department = requiredText(data.department, "department");
+        String passwordHex = requiredText(data.passwordHex, "passwordHex");
         DoctorAccount doctor = findDoctorByNameAndDepartment(name, department);
         if (doctor == null) {
             return err("doctor not found");
@@ -353,7 +546,7 @@ final class Service implements Runnable {
         }
         sessionDoctor = doctor;
         sessionAccount = null;
-        return ok(view(doctor));
+        return ok(doctor);
     }
 
     /** 医生登出。 */
@@ -371,107 +564,111 @@ final class Service implements Runnable {
             return err("not logged in");
         }
         Schedule[] schedules = db.FindScheduleBelongDoctorAccount(sessionDoctor.getDid());
-        return ok(Arrays.stream(schedules).map(this::view).toList());
+        return ok(schedules);
     }
 
     /** 医生查看自己的预约列表。 */
-    private Response handleDoctorAppointments() throws Exception {
+    private Response handleDoctorAppointments(Requests.Listing data) throws Exception {
         if (sessionDoctor == null) {
             return err("not logged in");
         }
+        if (data.paged) {
+            int limit = pageSize(data);
+            return appointmentPage(db.FindAppointmentBelongDoctorAccount(sessionDoctor.getDid(), afterSerial(data),
+                    optionalTime(data.from), optionalTime(data.to), limit + 1), limit);
+        }
         Appointment[] appointments = db.FindAppointmentBelongDoctorAccount(sessionDoctor.getDid());
-        return ok(Arrays.stream(appointments).map(this::view).toList());
+        return ok(appointments);
     }
 
     /** 医生按排班叫号下一位候诊预约并置为 Done。 */
-    private Response handleDoctorCallNext(JsonNode data) throws Exception {
+    private Response handleDoctorCallNext(Requests.CallNext data) throws Exception {
         if (sessionDoctor == null) {
             return err("not logged in");
         }
-        int sid = requiredInt(data, "sid");
-        int currentSerial = optionalInt(data, "serialNumber", -1);
-        Appointment[] appointments = db.FindAppointmentBelongSchedule(sid);
-        Appointment next = Arrays.stream(appointments)
-                .filter(a -> a.getDid().equals(sessionDoctor.getDid()))
-                .filter(a -> a.getSerialNumber() > currentSerial)
-                .filter(a -> a.getStatus() == AppointmentStatus.Ok)
-                .min(Comparator.comparingInt(Appointment::getSerialNumber))
-                .orElse(null);
+        int sid = requiredInt(data.sid, "sid");
+        int currentSerial = optionalInt(data.serialNumber, -1);
+        Appointment next = db.CallNextAppointment(sessionDoctor.getDid(), sid, currentSerial);
         if (next == null) {
             return err("no next appointment");
         }
-        db.ChangeAppointmentStatu(next.getApid(), AppointmentStatus.Done);
-        Appointment updated = db.FindAppointment(next.getApid());
-        return ok(view(updated));
+        return ok(next);
     }
 
     /** 管理员批量导入排班，按医生姓名或 DID 匹配。 */
-    private Response handleAdminAddSchedules(JsonNode data) throws Exception {
+    private Response handleAdminAddSchedules(Requests.AddSchedules data) throws Exception {
         if (!isAdmin()) {
             return err("not admin");
         }
-        JsonNode schedulesNode = data.path("schedules");
-        if (!schedulesNode.isArray()) {
+        if (data.schedules == null) {
             return err("schedules array required");
         }
         List<Schedule> newSchedules = new ArrayList<>();
-        for (JsonNode node : schedulesNode) {
-            String name = requiredText(node, "name");
-            String department = requiredText(node, "department");
-            String did = textOrNull(node, "did");
+        // 同一次导入中医生只查一次
+        Map<String, DoctorAccount> doctorsByDid = new HashMap<>();
+        Map<String, DoctorAccount> doctorsByName = new HashMap<>();
+        LocalDateTime from = LocalDateTime.MAX;
+        LocalDateTime to = LocalDateTime.MIN;
+        for (Requests.ScheduleSpec spec : data.schedules) {
+            String name = requiredText(spec.name, "name");
+            String department = requiredText(spec.department, "department");
+            String did = spec.did;
             
             DoctorAccount doctor;
             if (did != null && !did.isBlank()) {
-                doctor = db.FindDoctorAccount(did, "");
+                doctor = doctorsByDid.containsKey(did) ? doctorsByDid.get(did) : db.FindDoctorAccount(did, "");
+                doctorsByDid.put(did, doctor);
             } else {
-                doctor = findDoctorByNameAndDepartment(name, department);
+                String key = department + '\u0000' + name;
+                doctor = doctorsByName.containsKey(key) ? doctorsByName.get(key) : findDoctorByNameAndDepartment(name, department);
+                doctorsByName.put(key, doctor);
             }
 
             if (doctor == null) {
                 return err("doctor not exists");
             }
-            LocalDateTime start = LocalDateTime.parse(requiredText(node, "startTime"));
-            LocalDateTime end = LocalDateTime.parse(requiredText(node, "endTime"));
-            int capacity = requiredInt(node, "capacity");
+            LocalDateTime start = LocalDateTime.parse(requiredText(spec.startTime, "startTime"));
+            LocalDateTime end = LocalDateTime.parse(requiredText(spec.endTime, "endTime"));
+            int capacity = requiredInt(spec.capacity, "capacity");
             newSchedules.add(Schedule.create(doctor.getDid(), start, end, capacity));
+            from = start.isBefore(from) ? start : from;
+            to = end.isAfter(to) ? end : to;
         }
 
-        // simple overlap check per doctor
-        for (Schedule s : newSchedules) {
-            Schedule[] existing = db.FindScheduleBelongDoctorAccount(s.getDid());
-            for (Schedule e : existing) {
-                if (overlap(s, e)) {
-                    return err("schedule overlap for did " + s.getDid());
-                }
+        // 一次查询取回相关医生在导入时间范围内的已有排班，排序扫描后报告全部重叠的行
+        if (!newSchedules.isEmpty()) {
+            Set<String> dids = new HashSet<>();
+            for (Schedule s : newSchedules) {
+                dids.add(s.getDid());
             }
-            for (Schedule other : newSchedules) {
-                if (s == other) {
-                    continue;
-                }
-                if (s.getDid().equals(other.getDid()) && overlap(s, other)) {
-                    return err("new schedule overlap for did " + s.getDid());
-                }
+            List<ScheduleConflicts.Conflict> conflicts = ScheduleConflicts.find(newSchedules,
+                    db.FindSchedulesBelongDoctorAccounts(dids, from, to));
+            if (!conflicts.isEmpty()) {
+                Map<String, Object> info = new HashMap<>();
+                info.put("err_info", "schedule overlap: " + conflicts.size() + " rows");
+                info.put("conflicts", conflicts.stream().map(this::view).toList());
+                return new Response("err", info);
             }
         }
 
         db.InsertSchedules(newSchedules);
-        return ok(newSchedules.stream().map(this::view).toList());
+        return ok(newSchedules);
     }
 
-    private Response handleAdminUpdateSchedule(JsonNode data) throws Exception {
+    private Response handleAdminUpdateSchedule(Requests.ScheduleUpdate data) throws Exception {
         if (!isAdmin()) {
             return err("not admin");
         }
-        int sid = requiredInt(data, "sid");
+        int sid = requiredInt(data.sid, "sid");
         Schedule existing = db.FindSchedule(sid);
         if (existing == null) {
             return err("sid not exists");
         }
         
-        String did = textOrNull(data, "did");
-        String startStr = textOrNull(data, "startTime");
-        String endStr = textOrNull(data, "endTime");
-        int capacity = optionalInt(data, "capacity", -1);
+        String did = data.did;
+        String startStr = data.startTime;
+        String endStr = data.endTime;
+        int capacity = optionalInt(data.capacity, -1);
         
         String newDid = (did != null) ? did : existing.getDid();
         LocalDateTime newStart = (startStr != null) ? LocalDateTime.parse(startStr) : existing.getStartTime();
@@ -491,90 +688,92 @@ final class Service implements Runnable {
 
         Schedule updated = new Schedule(sid, newDid, newStart, newEnd, newCapacity, newRes);
         db.UpdateSchedule(updated);
-        return ok(view(updated));
+        return ok(updated);
     }
 
-    private Response handleAdminDeleteDoctor(JsonNode data) throws Exception {
+    private Response handleAdminDeleteDoctor(Requests.DeleteTarget data) throws Exception {
         if (!isAdmin()) {
             return err("not admin");
         }
-        String did = requiredText(data, "did");
+        String did = requiredText(data.did, "did");
         db.DelDoctorAccount(did);
         return ok(Map.of());
     }
 
-    private Response handleAdminDeleteSchedule(JsonNode data) throws Exception {
+    private Response handleAdminDeleteSchedule(Requests.DeleteTarget data) throws Exception {
         if (!isAdmin()) {
             return err("not admin");
         }
-        int sid = requiredInt(data, "sid");
+        int sid = requiredInt(data.sid, "sid");
         db.DelSchedule(sid);
         return ok(Map.of());
     }
 
-    private Response handleAdminAllAppointments() throws Exception {
+    private Response handleAdminAllAppointments(Requests.Listing data) throws Exception {
         if (!isAdmin()) {
             return err("not admin");
         }
-        Map<String, Appointment> map = new LinkedHashMap<>();
-        for (AppointmentStatus st : AppointmentStatus.values()) {
-            Appointment[] items = db.FindAppointmentByStatu(st);
-            for (Appointment a : items) {
-                map.put(a.getApid(), a);
-            }
+        if (data.paged) {
+            int limit = pageSize(data);
+            return appointmentPage(db.FindAllAppointments(afterSerial(data),
+                    optionalTime(data.from), optionalTime(data.to), limit + 1), limit);
         }
-        return ok(map.values().stream().map(this::view).toList());
+        SnapshotReader reader = db.OpenSnapshot();
+        return okStreamed(reader, gen -> {
+            gen.writeStartArray();
+            reader.appointments(a -> ModelSerializers.write(gen, a));
+            gen.writeEndArray();
+        });
     }
 
     private Response handleAdminReport() throws Exception {
         if (!isAdmin()) {
             return err("not admin");
         }
-        Map<String, Object> report = new LinkedHashMap<>();
-
-        List<DoctorAccount> doctors = new ArrayList<>();
-        for (String dep : departments) {
-            doctors.addAll(Arrays.asList(db.FindDoctorAccounts(dep)));
-        }
-        report.put("doctors", doctors.stream().map(this::view).toList());
-
-        List<Schedule> schedules = new ArrayList<>();
-        for (DoctorAccount d : doctors) {
-            schedules.addAll(Arrays.asList(db.FindScheduleBelongDoctorAccount(d.getDid())));
-        }
-        report.put("schedules", schedules.stream().map(this::view).toList());
-
-        Map<String, Appointment> apMap = new LinkedHashMap<>();
-        for (AppointmentStatus st : AppointmentStatus.values()) {
-            for (Appointment a : db.FindAppointmentByStatu(st)) {
-                apMap.put(a.getApid(), a);
-            }
+        if (db.isBufferedReports()) {
+            ReportSnapshot snapshot = db.LoadReportSnapshot(departments.current().list());
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("doctors", snapshot.getDoctors());
+            report.put("schedules", snapshot.getSchedules());
+            report.put("appointments", snapshot.getAppointments());
+            return ok(report);
         }
-        report.put("appointments", apMap.values().stream().map(this::view).toList());
-
-        return ok(report);
+        SnapshotReader reader = db.OpenSnapshot();
+        return okStreamed(reader, gen -> {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("doctors");
+            Set<String> dids = reader.doctors(departments.current().list(), d -> ModelSerializers.write(gen, d));
+            gen.writeEndArray();
+            gen.writeArrayFieldStart("schedules");
+            reader.schedules(dids, s -> ModelSerializers.write(gen, s));
+            gen.writeEndArray();
+            gen.writeArrayFieldStart("appointments");
+            reader.appointments(a -> ModelSerializers.write(gen, a));
+            gen.writeEndArray();
+            gen.writeEndObject();
+        });
     }
 
-    private Response handleAdminAddDoctors(JsonNode data) throws Exception {
+    private Response handleAdminAddDoctors(Requests.AddDoctors data) throws Exception {
         if (!isAdmin()) {
             return err("not admin");
         }
-        JsonNode doctorsNode = data.path("doctors");
-        if (!doctorsNode.isArray()) {
+        if (data.doctors == null) {
             return err("doctors array required");
         }
 
+        DepartmentRegistry.Snapshot known = departments.current();
         List<DoctorAccount> resultList = new ArrayList<>();
 
-        for (JsonNode node : doctorsNode) {
-            String name = requiredText(node, "name");
-            String passwordHex = textOrNull(node, "passwordHex");
-            boolean admin = optionalBool(node, "admin", false);
-            String department = requiredText(node, "department");
-            String description = textOrNull(node, "description");
-            String did = textOrNull(node, "did");
+        for (Requests.DoctorSpec spec : data.doctors) {
+            String name = requiredText(spec.name, "name");
+            String passwordHex = spec.passwordHex;
+            boolean admin = optionalBool(spec.admin, false);
+            String department = requiredText(spec.department, "department");
+            String description = spec.description;
+            String did = spec.did;
 
-            if (!departments.isEmpty() && !departments.contains(department)) {
+            if (!known.allows(department)) {
                 return err("department not exists");
             }
 
@@ -605,7 +804,85 @@ final class Service implements Runnable {
                 resultList.add(newDoc);
             }
         }
-        return ok(resultList.stream().map(this::view).toList());
+        return ok(resultList);
+    }
+
+    /** 管理员查看服务器运行统计（连接池、分帧压缩等，内存存储没有连接池）。 */
+    private Response handleAdminStats() {
+        if (!isAdmin()) {
+            return err("not admin");
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        PoolStats pool = db.getPoolStats();
+        if (pool != null) {
+            stats.put("pool", view(pool));
+        }
+        ReplicaStats replica = db.getReplicaStats();
+        if (replica != null) {
+            stats.put("replica", view(replica));
+        }
+        stats.put("compression", view(FrameCompressor.STATS));
+        return ok(stats);
+    }
+
+    /**
+     * 管理员月度统计：汇总该月的预约日统计，分别按科室、医生、日期给出预约总数与各状态数。
+     * rebuild=true 时先按预约表重算该月（回填历史或校正删除预约后的计数）。
+     */
+    private Response handleAdminMonthlyStats(Requests.MonthlyStats data) throws Exception {
+        if (!isAdmin()) {
+            return err("not admin");
+        }
+        YearMonth month = YearMonth.parse(requiredText(data.month, "month"));
+        LocalDate from = month.atDay(1);
+        LocalDate to = month.plusMonths(1).atDay(1);
+        if (optionalBool(data.rebuild, false)) {
+            db.RebuildDailyStats(from, to);
+        }
+        Tally all = new Tally();
+        Map<String, Tally> byDepartment = new TreeMap<>();
+        Map<String, Tally> byDoctor = new TreeMap<>();
+        Map<String, DailyStats> doctorInfo = new HashMap<>();
+        Map<LocalDate, Tally> byDay = new TreeMap<>();
+        for (DailyStats row : db.FindDailyStats(from, to)) {
+            all.add(row);
+            byDepartment.computeIfAbsent(row.getDepartment(), k -> new Tally()).add(row);
+            byDoctor.computeIfAbsent(row.getDid(), k -> new Tally()).add(row);
+            doctorInfo.put(row.getDid(), row); // 按日期升序，留下最近一天的姓名与科室
+            byDay.computeIfAbsent(row.getDate(), k -> new Tally()).add(row);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("month", month.toString());
+        all.putInto(stats);
+        List<Map<String, Object>> departmentList = new ArrayList<>();
+        byDepartment.forEach((department, tally) -> {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("department", department);
+            tally.putInto(map);
+            departmentList.add(map);
+        });
+        List<Map<String, Object>> doctorList = new ArrayList<>();
+        byDoctor.forEach((did, tally) -> {
+            DailyStats info = doctorInfo.get(did);
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("did", did);
+            map.put("name", info.getDoctorName());
+            map.put("department", info.getDepartment());
+            tally.putInto(map);
+            doctorList.add(map);
+        });
+        List<Map<String, Object>> dayList = new ArrayList<>();
+        byDay.forEach((day, tally) -> {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("date", day.toString());
+            tally.putInto(map);
+            dayList.add(map);
+        });
+        stats.put("departments", departmentList);
+        stats.put("doctors", doctorList);
+        stats.put("days", dayList);
+        return ok(stats);
     }
 
     private boolean isLoggedIn() {
@@ -626,115 +903,203 @@ final class Service implements Runnable {
         return null;
     }
 
-    private Sex parseSex(JsonNode node) {
-        if (node == null || node.isMissingNode()) {
+    /** sex 缺失时默认为 M；其余取值按文本解析，不合法时抛出异常。 */
+    private Sex parseSex(String text) {
+        if (text == null) {
             return Sex.M;
         }
-        return Sex.valueOf(node.asText());
+        return Sex.valueOf(text);
     }
 
-    private String requiredText(JsonNode node, String field) {
-        JsonNode child = node.path(field);
-        if (!child.isTextual()) {
+    /** 文本字段必须是非空白字符串。 */
+    private String requiredText(String value, String field) {
+        if (value == null || value.isBlank()) {
             throw new IllegalArgumentException(field + " required");
         }
-        String value = child.asText();
-        if (value.isBlank()) {
+        return value;
+    }
+
+    private int requiredInt(Integer value, String field) {
+        if (value == null) {
             throw new IllegalArgumentException(field + " required");
         }
         return value;
     }
 
-    private String textOrNull(JsonNode node, String field) {
-        JsonNode child = node.path(field);
-        return child.isTextual() ? child.asText() : null;
+    private int optionalInt(Integer value, int def) {
+        return value != null ? value : def;
     }
 
-    private int requiredInt(JsonNode node, String field) {
-        JsonNode child = node.path(field);
-        if (!child.canConvertToInt()) {
-            throw new IllegalArgumentException(field + " required");
-        }
-        return child.asInt();
+    private static boolean optionalBool(Boolean value, boolean def) {
+        return value != null ? value : def;
+    }
+
+    private int pageSize(Requests.Listing data) {
+        return Math.max(1, Math.min(MAX_PAGE_SIZE, optionalInt(data.limit, DEFAULT_PAGE_SIZE)));
+    }
+
+    private int afterSerial(Requests.Listing data) {
+        return data.cursor != null ? PageToken.serial(data.cursor) : -1;
     }
 
-    private int optionalInt(JsonNode node, String field, int def) {
-        JsonNode child = node.path(field);
-        return child.canConvertToInt() ? child.asInt() : def;
+    private LocalDateTime optionalTime(String value) {
+        return value != null ? LocalDateTime.parse(value) : null;
     }
 
-    private boolean optionalBool(JsonNode node, String field, boolean def) {
-        JsonNode child = node.path(field);
-        return child.isBoolean() ? child.asBoolean() : def;
+    /** rows 多查了一行：超过 limit 说明还有下一页，令牌指向本页最后一行。 */
+    private Response appointmentPage(Appointment[] rows, int limit) {
+        List<Appointment> items = Arrays.asList(rows).subList(0, Math.min(limit, rows.length));
+        String next = rows.length > limit ? PageToken.ofSerial(items.get(items.size() - 1).getSerialNumber()) : null;
+        return page(items, next);
+    }
+
+    private Response page(List<?> items, String next) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("items", items);
+        map.put("next", next);
+        return ok(map);
     }
 
     private Response ok(Object data) {
         return new Response("ok", data);
     }
 
+    /** 流式成功响应：写出时从快照游标逐行读取，写完（或失败）后关闭游标。 */
+    private Response okStreamed(SnapshotReader reader, StreamedBody body) {
+        return ok((StreamedBody) gen -> {
+            try (reader) {
+                body.write(gen);
+            }
+        });
+    }
+
     private Response err(String info) {
         Map<String, Object> data = new HashMap<>();
         data.put("err_info", info);
         return new Response("err", data);
     }
 
-    private Map<String, Object> view(Account account) {
+    private Map<String, Object> view(ScheduleConflicts.Conflict conflict) {
         Map<String, Object> map = new LinkedHashMap<>();
-        map.put("aid", account.getAid());
-        map.put("name", account.getName());
-        map.put("pid", account.getPid());
-        map.put("phone", account.getPhone());
-        map.put("sex", account.getSex().name());
+        map.put("index", conflict.index);
+        map.put("did", conflict.schedule.getDid());
+        map.put("startTime", conflict.schedule.getStartTime());
+        map.put("endTime", conflict.schedule.getEndTime());
+        if (conflict.withSid >= 0) {
+            map.put("withSid", conflict.withSid);
+        } else {
+            map.put("withIndex", conflict.withIndex);
+        }
         return map;
     }
 
-    private Map<String, Object> view(DoctorAccount doctor) {
+    private Map<String, Object> view(PoolStats stats) {
         Map<String, Object> map = new LinkedHashMap<>();
-        map.put("did", doctor.getDid());
-        map.put("name", doctor.getName());
-        map.put("admin", doctor.isAdmin());
-        map.put("department", doctor.getDepartment());
-        map.put("description", doctor.getDescription());
+        map.put("maxSize", stats.getMaxSize());
+        map.put("active", stats.getActive());
+        map.put("idle", stats.getIdle());
+        map.put("waiting", stats.getWaiting());
+        map.put("borrows", stats.getBorrows());
+        map.put("timeouts", stats.getTimeouts());
+        map.put("created", stats.getCreated());
+        map.put("destroyed", stats.getDestroyed());
+        map.put("leaks", stats.getLeaks());
+        map.put("avgWaitMicros", stats.getAvgWaitMicros());
+        map.put("maxWaitMicros", stats.getMaxWaitMicros());
+        map.put("statementCacheHits", stats.getStatementCacheHits());
+        map.put("statementCacheMisses", stats.getStatementCacheMisses());
         return map;
     }
 
-    private Map<String, Object> view(Schedule schedule) {
+    private Map<String, Object> view(ReplicaStats stats) {
         Map<String, Object> map = new LinkedHashMap<>();
-        map.put("sid", schedule.getSid());
-        map.put("did", schedule.getDid());
-        map.put("startTime", schedule.getStartTime());
-        map.put("endTime", schedule.getEndTime());
-        map.put("capacity", schedule.getCapacity());
-        map.put("res", schedule.getRes());
+        map.put("usable", stats.isUsable());
+        map.put("lagMillis", stats.getLagMillis());
+        map.put("replicaReads", stats.getReplicaReads());
+        map.put("primaryReads", stats.getPrimaryReads());
         return map;
     }
 
-    private Map<String, Object> view(Appointment appointment) {
+    private Map<String, Object> view(FrameCompressor.Stats stats) {
+        long in = stats.bytesIn.sum();
+        long out = stats.bytesOut.sum();
+        long deflateNanos = stats.deflateNanos.sum();
         Map<String, Object> map = new LinkedHashMap<>();
-        map.put("serialNumber", appointment.getSerialNumber());
-        map.put("apid", appointment.getApid());
-        map.put("aid", appointment.getAid());
-        map.put("did", appointment.getDid());
-        map.put("doctorName", appointment.getDoctorName());
-        map.put("department", appointment.getDepartment());
-        map.put("sid", appointment.getSid());
-        map.put("status", appointment.getStatus().name());
-        map.put("startTime", appointment.getStartTime());
-        map.put("endTime", appointment.getEndTime());
+        map.put("connections", stats.connections.sum());
+        map.put("framesIn", stats.framesIn.sum());
+        map.put("framesCompressed", stats.framesCompressed.sum());
+        map.put("bytesIn", in);
+        map.put("bytesOut", out);
+        map.put("ratio", in == 0 ? 1.0 : (double) out / in);
+        map.put("deflateMicros", deflateNanos / 1000);
+        map.put("deflateNanosPerKB", in == 0 ? 0 : deflateNanos * 1024 / in);
+        map.put("framesInflated", stats.framesInflated.sum());
+        map.put("inflateMicros", stats.inflateNanos.sum() / 1000);
         return map;
     }
 
-    private boolean overlap(Schedule a, Schedule b) {
-        return !a.getEndTime().isBefore(b.getStartTime()) && !a.getStartTime().isAfter(b.getEndTime());
+    /** 月度统计的一组累计值。 */
+    private static final class Tally {
+        int total;
+        int ok;
+        int abandon;
+        int done;
+
+        void add(DailyStats row) {
+            total += row.getTotal();
+            ok += row.getOk();
+            abandon += row.getAbandon();
+            done += row.getDone();
+        }
+
+        void putInto(Map<String, Object> map) {
+            map.put("total", total);
+            map.put("ok", ok);
+            map.put("abandon", abandon);
+            map.put("done", done);
+        }
     }
 
-    @JsonIgnoreProperties(ignoreUnknown = true)
-    private static final class Request {
-        public String type;
-        public JsonNode data;
+    /** 流式响应的 data 部分，在写出响应时才生成。 */
+    private interface StreamedBody {
+        void write(JsonGenerator gen) throws IOException, SQLException;
+    }
+
+    /** 解析好的请求（或解析错误）；执行前即可判断能否与同一连接的其他请求并发。 */
+    static final class Call {
+        private final JsonCodec codec;
+        /** 请求原文（行模式为 String，分帧模式为负载字节），仅用于日志。 */
+        private final Object source;
+        private final Requests.Envelope request;
+        private final Response error;
+        private final boolean exclusive;
+        private final boolean streamed;
+
+        private Call(JsonCodec codec, Object source, Requests.Envelope request, Response error) {
+            this.codec = codec;
+            this.source = source;
+            this.request = request;
+            this.error = error;
+            this.exclusive = request != null && !isReadOnly(request.type, request.data);
+            this.streamed = request != null && isStreamed(request.type, request.data);
+        }
+
+        /** 会改动会话或数据的请求（含登录、登出与全部写操作）须独占连接执行，只读请求与解析错误可以并发。 */
+        boolean exclusive() {
+            return exclusive;
+        }
+
+        /** 整表流式输出的只读请求：可以与其他只读请求并发，但同一连接同时只执行一个（见 {@link #isStreamed}）。 */
+        boolean streamed() {
+            return streamed;
+        }
+
+        private String describe() {
+            return source instanceof byte[] payload ? codec.describe(payload) : String.valueOf(source);
+        }
     }
 
-    private static final class Response {
+    static final class Response {
         @JsonProperty("Statu")
         public final String statu;
         public final Object data;
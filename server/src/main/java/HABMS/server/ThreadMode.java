@@ -0,0 +1,69 @@
+package HABMS.server;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 连接处理线程模式：平台线程池，或每个连接一个虚拟线程。
+ * 项目按 Java 17 编译，虚拟线程 API 通过反射获取；运行在 JDK 21 以下时回退为平台线程。
+ */
+enum ThreadMode {
+    PLATFORM,
+    VIRTUAL;
+
+    private static final Logger LOG = Logger.getLogger(ThreadMode.class.getName());
+
+    /** 解析配置值（platform/virtual，忽略大小写）。 */
+    static ThreadMode parse(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /** 当前 JVM 是否提供虚拟线程。 */
+    static boolean virtualThreadsAvailable() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /** 创建用于运行 Service 的执行器，线程名以 prefix 开头。 */
+    ExecutorService newExecutor(String prefix) {
+        if (this == VIRTUAL) {
+            ExecutorService virtual = newVirtualExecutor(prefix);
+            if (virtual != null) {
+                return virtual;
+            }
+            LOG.warning("Virtual threads need JDK 21+, falling back to platform threads");
+        }
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, prefix);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** 反射调用 Thread.ofVirtual().name(prefix, 0).factory() 与 Executors.newThreadPerTaskExecutor。 */
+    private static ExecutorService newVirtualExecutor(String prefix) {
+        if (!virtualThreadsAvailable()) {
+            return null;
+        }
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            LOG.log(Level.WARNING, "Failed to create virtual thread executor", e);
+            return null;
+        }
+    }
+}
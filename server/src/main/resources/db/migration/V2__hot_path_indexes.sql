@@ -0,0 +1,14 @@
+-- 叫号与排班下预约列表：SID=? AND Statu=? ORDER BY SerialNumber
+CREATE INDEX IF NOT EXISTS idx_appointment_sid_statu_serial ON Appointment (SID, Statu, SerialNumber);
+
+-- 患者预约列表与重叠校验：AID=? AND Statu='Ok'
+CREATE INDEX IF NOT EXISTS idx_appointment_aid_statu ON Appointment (AID, Statu);
+
+-- 医生预约列表：DID=?
+CREATE INDEX IF NOT EXISTS idx_appointment_did_statu ON Appointment (DID, Statu);
+
+-- 管理端按状态拉取：Statu=?
+CREATE INDEX IF NOT EXISTS idx_appointment_statu_serial ON Appointment (Statu, SerialNumber);
+
+-- 按时间查排班：STime<=? AND ETime>=?
+CREATE INDEX IF NOT EXISTS idx_schedule_time ON Schedule (STime, ETime);
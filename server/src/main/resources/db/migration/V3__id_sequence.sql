@@ -0,0 +1,8 @@
+-- 数据库序列：按名称租用连续编号段，NextValue 为下一个未租出的值
+CREATE TABLE IF NOT EXISTS IdSequence (
+    Name VARCHAR(32) NOT NULL PRIMARY KEY,
+    NextValue BIGINT NOT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- 排班 SID；与已有（随机分配的）SID 重叠的编号在租用时跳过
+INSERT IGNORE INTO IdSequence(Name, NextValue) VALUES ('Schedule.SID', 1);
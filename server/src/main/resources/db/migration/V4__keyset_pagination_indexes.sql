@@ -0,0 +1,7 @@
+-- 分页列表按 SerialNumber / (STime, SID) 续读：WHERE 键=? AND SerialNumber>? ORDER BY SerialNumber LIMIT ?
+CREATE INDEX IF NOT EXISTS idx_appointment_aid_serial ON Appointment (AID, SerialNumber);
+
+CREATE INDEX IF NOT EXISTS idx_appointment_did_serial ON Appointment (DID, SerialNumber);
+
+-- 医生排班分页：DID=? AND (STime, SID) > (?, ?) ORDER BY STime, SID LIMIT ?
+CREATE INDEX IF NOT EXISTS idx_schedule_did_stime_sid ON Schedule (DID, STime, SID);
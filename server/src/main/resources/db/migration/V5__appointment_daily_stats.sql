@@ -0,0 +1,20 @@
+-- 预约日统计：按 (排班开始日期, 医生) 计数，预约与状态变更时在同一事务内增量更新，月报直接汇总本表
+CREATE TABLE IF NOT EXISTS AppointmentDailyStats (
+    StatDate DATE NOT NULL,
+    DID CHAR(8) NOT NULL,
+    Department VARCHAR(30) NOT NULL,
+    Total INT NOT NULL,
+    OkCount INT NOT NULL,
+    AbandonCount INT NOT NULL,
+    DoneCount INT NOT NULL,
+    PRIMARY KEY (StatDate, DID)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- 回填历史预约；已有统计行（重复执行）保持不变
+INSERT IGNORE INTO AppointmentDailyStats(StatDate, DID, Department, Total, OkCount, AbandonCount, DoneCount)
+SELECT DATE(s.STime), s.DID, d.Department, COUNT(*),
+       SUM(CASE WHEN a.Statu='Ok' THEN 1 ELSE 0 END),
+       SUM(CASE WHEN a.Statu='Abandon' THEN 1 ELSE 0 END),
+       SUM(CASE WHEN a.Statu='Done' THEN 1 ELSE 0 END)
+FROM Appointment a JOIN Schedule s ON a.SID=s.SID JOIN Doctor d ON s.DID=d.DID
+GROUP BY DATE(s.STime), s.DID, d.Department;
@@ -0,0 +1,5 @@
+-- 从库延迟心跳：每个服务器实例在主库更新自己的一行，再从从库读回，按未读到的心跳计算复制延迟
+CREATE TABLE IF NOT EXISTS ReplicaHeartbeat (
+    Instance BIGINT NOT NULL PRIMARY KEY,
+    Seq BIGINT NOT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
@@ -0,0 +1,12 @@
+-- 预约日统计的待合并增量：逐次预约事务内插入一行，提交后由单独的短事务删除该行并累加到 AppointmentDailyStats；
+-- RebuildDailyStats 先删除范围内的待合并行再重算，被删除的增量已计入重算结果，之后不会再被累加
+CREATE TABLE IF NOT EXISTS AppointmentStatsPending (
+    Id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    StatDate DATE NOT NULL,
+    SID INT NOT NULL,
+    Total INT NOT NULL,
+    OkCount INT NOT NULL,
+    AbandonCount INT NOT NULL,
+    DoneCount INT NOT NULL,
+    INDEX idx_stats_pending_date (StatDate)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
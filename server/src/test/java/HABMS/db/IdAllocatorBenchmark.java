@@ -0,0 +1,176 @@
+package HABMS.db;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+/**
+ * 编号分配器吞吐与碰撞检查（不需要数据库），按 IdGenerator 实际使用的 AID、APID、DID、SID 格式：
+ * 1. 多线程从同一分配器突发取号的吞吐，以及借用上限内能取到的编号数（超过上限时分配失败而不是等待）；
+ * 2. 多个节点号各自多线程取号，合并后检查是否有重复编号；
+ * 3. 模拟重启：新分配器 observe 上一轮的最大编号后继续取号，检查不与上一轮重复；
+ * 4. 以实际格式生成 APID 与 DID，检查重复与 DID 格式，对照旧的 "日期 + 6 位随机数" 方案的碰撞数。
+ * 任一检查失败时退出码为 1。用法：IdAllocatorBenchmark [idsPerThread] [threads]
+ */
+public final class IdAllocatorBenchmark {
+    public static void main(String[] args) throws Exception {
+        int perThread = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        String[] names = {"aid", "apid", "did", "sid"};
+        List<IntFunction<TimeSequenceAllocator>> layouts = List.of(
+                IdGenerator::aidLayout, IdGenerator::apidLayout, IdGenerator::didLayout, IdGenerator::sidLayout);
+        boolean failed = false;
+        System.out.printf("%-5s %-8s %12s %10s %8s %11s %12s%n", "id", "threads", "ids", "M ids/s", "limited", "duplicates", "restart");
+        for (int l = 0; l < names.length; l++) {
+            IntFunction<TimeSequenceAllocator> layout = layouts.get(l);
+
+            // 吞吐与借用上限：单节点、threads 个线程
+            TimeSequenceAllocator allocator = layout.apply(0);
+            Burst single = burst(threads, perThread, i -> allocator);
+
+            // 碰撞：4 个节点号 × threads 个线程，共用同一时钟
+            int nodes = 4;
+            TimeSequenceAllocator[] allocators = new TimeSequenceAllocator[nodes];
+            for (int n = 0; n < nodes; n++) {
+                allocators[n] = layout.apply(n);
+            }
+            Burst multi = burst(nodes * threads, perThread, i -> allocators[i % nodes]);
+            long duplicates = countDuplicates(multi.merged());
+
+            // 重启：单节点那一轮的最大编号即存储层 seed 时读到的编号
+            long[] before = single.merged();
+            Arrays.sort(before);
+            TimeSequenceAllocator restarted = layout.apply(0);
+            if (before.length > 0) {
+                restarted.observe(before[before.length - 1]);
+            }
+            long[] after = burst(threads, Math.max(1, perThread / 10), i -> restarted).merged();
+            long overlap = Arrays.stream(after).filter(id -> Arrays.binarySearch(before, id) >= 0).count();
+
+            System.out.printf("%-5s %-8d %12d %10.1f %8s %11d %12s%n", names[l], threads, single.count,
+                    (double) single.count * 1_000 / single.nanos, single.limited, duplicates, overlap == 0 ? "ok/" + after.length : overlap + " reused");
+            failed |= duplicates != 0 || overlap != 0 || single.count == 0;
+        }
+
+        // 实际 APID 格式：一天内 5 万个预约
+        int daily = 50_000;
+        Set<String> apids = new HashSet<>();
+        for (int i = 0; i < daily; i++) {
+            apids.add(IdGenerator.newApid());
+        }
+        Set<Long> legacy = new HashSet<>();
+        Random random = new Random(1);
+        for (int i = 0; i < daily; i++) {
+            legacy.add(Math.abs(random.nextLong()) % 1_000_000L);
+        }
+        System.out.printf("apid/day=%d duplicates: allocator=%d legacy-random=%d%n", daily, daily - apids.size(), daily - legacy.size());
+
+        // 实际 DID 格式：一次批量添加 1000 名医生（借用约 10 天），全部为 D 开头，不会与旧的 8 位数字 DID 相同
+        Set<String> dids = new HashSet<>();
+        boolean format = true;
+        for (int i = 0; i < 1_000; i++) {
+            String did = IdGenerator.newDid();
+            format &= IdGenerator.isAllocatedDid(did);
+            dids.add(did);
+        }
+        System.out.printf("did batch=1000 duplicates=%d format=%s%n", 1_000 - dids.size(), format ? "ok" : "invalid");
+
+        if (failed || apids.size() != daily || dids.size() != 1_000 || !format) {
+            System.exit(1);
+        }
+    }
+
+    /** 一轮突发取号的结果：每个线程取到的编号（到 perThread 或借用上限为止）。 */
+    private static final class Burst {
+        final long[][] ids;
+        final int[] counts;
+        long count;
+        long nanos;
+        boolean limited;
+
+        Burst(int threads, int perThread) {
+            ids = new long[threads][perThread];
+            counts = new int[threads];
+        }
+
+        long[] merged() {
+            long[] merged = new long[(int) count];
+            int offset = 0;
+            for (int i = 0; i < ids.length; i++) {
+                System.arraycopy(ids[i], 0, merged, offset, counts[i]);
+                offset += counts[i];
+            }
+            return merged;
+        }
+    }
+
+    private static Burst burst(int threads, int perThread, IntFunction<TimeSequenceAllocator> allocatorOf) throws InterruptedException {
+        Burst burst = new Burst(threads, perThread);
+        boolean[] limited = new boolean[threads];
+        burst.nanos = run(threads, i -> {
+            TimeSequenceAllocator allocator = allocatorOf.apply(i);
+            long[] ids = burst.ids[i];
+            int k = 0;
+            try {
+                for (; k < ids.length; k++) {
+                    ids[k] = allocator.next();
+                }
+            } catch (IllegalStateException beyondLead) {
+                limited[i] = true;
+            }
+            burst.counts[i] = k;
+        });
+        for (int i = 0; i < threads; i++) {
+            burst.count += burst.counts[i];
+            burst.limited |= limited[i];
+        }
+        return burst;
+    }
+
+    private static long countDuplicates(long[] ids) {
+        Arrays.parallelSort(ids);
+        long duplicates = 0;
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] == ids[i - 1]) {
+                duplicates++;
+            }
+        }
+        return duplicates;
+    }
+
+    private interface Worker {
+        void run(int index);
+    }
+
+    private static long run(int threads, Worker worker) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            int index = i;
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    worker.run(index);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        long nanos = System.nanoTime() - t0;
+        pool.shutdown();
+        return nanos;
+    }
+}
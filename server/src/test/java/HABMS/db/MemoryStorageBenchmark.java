@@ -0,0 +1,111 @@
+package HABMS.db;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存存储的预约吞吐与一致性检查（不需要数据库）：
+ * 1. threads 个线程对 schedules 个排班并发 TryAppointment，直到全部约满；
+ * 2. 检查每个排班 余量 + Ok 预约数 == 容量、同一患者没有时间段重复的 Ok 预约（不满足时退出码为 1）；
+ * 3. 写一份快照再加载，比较预约数与余量。
+ * 用法：MemoryStorageBenchmark [schedules] [capacity] [threads]
+ */
+public final class MemoryStorageBenchmark {
+    public static void main(String[] args) throws Exception {
+        int scheduleCount = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int patients = scheduleCount * capacity / 4;
+
+        Path file = Files.createTempFile("habms-memory", ".snapshot");
+        Files.delete(file);
+        MemoryStorage storage = new MemoryStorage(file);
+        DoctorAccount doctor = DoctorAccount.create("Bench", "00", false, "Bench", null);
+        storage.InsertDoctorAccount(doctor);
+        LocalDateTime base = LocalDateTime.of(2030, 1, 1, 8, 0);
+        List<Schedule> schedules = new ArrayList<>();
+        for (int i = 0; i < scheduleCount; i++) {
+            // 每 4 个排班共用一个时间段，同一患者在其中只能约到一个
+            LocalDateTime start = base.plusHours(i / 4);
+            schedules.add(new Schedule(i + 1, doctor.getDid(), start, start.plusMinutes(30 + i % 4), capacity, capacity));
+        }
+        storage.InsertSchedules(schedules);
+
+        AtomicLong booked = new AtomicLong();
+        AtomicLong full = new AtomicLong();
+        AtomicLong duplicate = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    while (booked.get() < (long) scheduleCount * capacity && full.get() < 50L * scheduleCount * capacity) {
+                        String aid = Long.toString(1_000_000_000L + random.nextInt(patients));
+                        int sid = 1 + random.nextInt(scheduleCount);
+                        try {
+                            if (storage.TryAppointment(aid, sid) != null) {
+                                booked.incrementAndGet();
+                            } else {
+                                full.incrementAndGet();
+                            }
+                        } catch (SQLException e) {
+                            duplicate.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        done.await();
+        long nanos = System.nanoTime() - start;
+        long attempts = booked.get() + full.get() + duplicate.get();
+        System.out.printf("threads=%d schedules=%d capacity=%d booked=%d full=%d duplicate=%d %8.0f attempts/s%n",
+                threads, scheduleCount, capacity, booked.get(), full.get(), duplicate.get(), attempts * 1e9 / nanos);
+
+        long violations = 0;
+        for (Schedule s : schedules) {
+            int res = storage.FindSchedule(s.getSid()).getRes();
+            int ok = storage.FindAppointmentBelongSchedule(s.getSid()).length;
+            if (res < 0 || res + ok != capacity) {
+                violations++;
+            }
+        }
+        for (int p = 0; p < patients; p++) {
+            List<LocalDateTime> starts = new ArrayList<>();
+            for (Appointment a : storage.FindAppointmentBelongAccount(Long.toString(1_000_000_000L + p))) {
+                if (starts.contains(a.getStartTime())) {
+                    violations++;
+                }
+                starts.add(a.getStartTime());
+            }
+        }
+        System.out.printf("consistency violations=%d%n", violations);
+
+        long t0 = System.nanoTime();
+        storage.saveSnapshot();
+        long t1 = System.nanoTime();
+        MemoryStorage reloaded = new MemoryStorage(file);
+        long t2 = System.nanoTime();
+        boolean same = reloaded.FindAllAppointments().length == storage.FindAllAppointments().length
+                && reloaded.FindSchedule(1).getRes() == storage.FindSchedule(1).getRes();
+        System.out.printf("snapshot %d bytes: save %.1f ms, load %.1f ms, reload matches=%b%n",
+                Files.size(file), (t1 - t0) / 1e6, (t2 - t1) / 1e6, same);
+        storage.close();
+        reloaded.close();
+        Files.deleteIfExists(file);
+
+        if (violations != 0 || !same) {
+            System.exit(1);
+        }
+    }
+}
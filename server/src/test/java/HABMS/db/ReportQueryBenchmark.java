@@ -0,0 +1,178 @@
+package HABMS.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 对比 admin_report 的两种取数方式：逐科室、逐医生、逐状态查询（旧做法）与 {@link HABMSDB#LoadReportSnapshot} 的三条整表查询。
+ * 必须指向一个空的临时库（会建表、灌数据并在结束时删表）：
+ * HABMS_BENCH_URL（默认 jdbc:mariadb://localhost:3306/HABMSBench）, HABMS_USER, HABMS_PASS。
+ * 用法：ReportQueryBenchmark [appointments] [iterations]
+ */
+public final class ReportQueryBenchmark {
+    private static final int DEPARTMENTS = 30;
+    private static final int DOCTORS = 900;
+    private static final int SCHEDULES = 4500;
+    private static final int ACCOUNTS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        String url = getenvOrDefault("HABMS_BENCH_URL", "jdbc:mariadb://localhost:3306/HABMSBench?useSSL=false&allowPublicKeyRetrieval=true");
+        String user = getenvOrDefault("HABMS_USER", "rjava");
+        String pass = getenvOrDefault("HABMS_PASS", "rjava");
+        int appointments = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        try (ConnectionPool pool = new ConnectionPool(url, user, pass, 4, 1, 5_000, 600_000, 0, 64)) {
+            if (!isEmpty(pool)) {
+                System.err.println("HABMS_BENCH_URL must point to an empty database");
+                return;
+            }
+            new SchemaMigrator(pool).migrate();
+            HABMSDB db = new HABMSDB(pool);
+            try {
+                seed(db, appointments);
+                List<String> departments = new ArrayList<>();
+                for (int i = 0; i < DEPARTMENTS; i++) {
+                    departments.add("dep" + i);
+                }
+                System.out.printf("doctors=%d schedules=%d appointments=%d%n", DOCTORS, SCHEDULES, appointments);
+                System.out.printf("%-24s %10s %10s %10s %8s%n", "method", "avg(ms)", "p50(ms)", "max(ms)", "rows");
+                long[] perQuery = new long[iterations];
+                long[] snapshot = new long[iterations];
+                int rowsPerQuery = 0;
+                int rowsSnapshot = 0;
+                for (int i = 0; i < iterations; i++) {
+                    long t0 = System.nanoTime();
+                    rowsPerQuery = loadPerQuery(db, departments);
+                    long t1 = System.nanoTime();
+                    ReportSnapshot s = db.LoadReportSnapshot(departments);
+                    long t2 = System.nanoTime();
+                    rowsSnapshot = s.getDoctors().size() + s.getSchedules().size() + s.getAppointments().size();
+                    perQuery[i] = t1 - t0;
+                    snapshot[i] = t2 - t1;
+                }
+                print("per-department/doctor", perQuery, rowsPerQuery);
+                print("LoadReportSnapshot", snapshot, rowsSnapshot);
+            } finally {
+                try (Connection conn = db.getConnection(); Statement st = conn.createStatement()) {
+                    st.execute("DROP TABLE IF EXISTS Appointment, Schedule, Doctor, Account, IdSequence,"
+                            + " AppointmentDailyStats, AppointmentStatsPending, ReplicaHeartbeat, SchemaVersion");
+                }
+            }
+        }
+    }
+
+    /** 旧的取数方式：每个科室一次、每个医生一次、每个状态一次。 */
+    private static int loadPerQuery(HABMSDB db, List<String> departments) throws SQLException {
+        List<DoctorAccount> doctors = new ArrayList<>();
+        for (String dep : departments) {
+            doctors.addAll(Arrays.asList(db.FindDoctorAccounts(dep)));
+        }
+        List<Schedule> schedules = new ArrayList<>();
+        for (DoctorAccount d : doctors) {
+            schedules.addAll(Arrays.asList(db.FindScheduleBelongDoctorAccount(d.getDid())));
+        }
+        Map<String, Appointment> appointments = new LinkedHashMap<>();
+        for (AppointmentStatus st : AppointmentStatus.values()) {
+            for (Appointment a : db.FindAppointmentByStatu(st)) {
+                appointments.put(a.getApid(), a);
+            }
+        }
+        return doctors.size() + schedules.size() + appointments.size();
+    }
+
+    private static boolean isEmpty(ConnectionPool pool) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             ResultSet rs = conn.getMetaData().getTables(conn.getCatalog(), null, "%", new String[]{"TABLE"})) {
+            return !rs.next();
+        }
+    }
+
+    private static void seed(HABMSDB db, int appointments) throws SQLException {
+        Random random = new Random(42);
+        LocalDateTime base = LocalDateTime.now().withNano(0).minusDays(30);
+        try (Connection conn = db.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO Doctor(DID,Name,Password,Admin,Department,Description) VALUES (?,?,?,?,?,?)")) {
+                for (int i = 0; i < DOCTORS; i++) {
+                    ps.setString(1, did(i));
+                    ps.setString(2, "bench" + i);
+                    ps.setString(3, "00");
+                    ps.setBoolean(4, false);
+                    ps.setString(5, "dep" + i % DEPARTMENTS);
+                    ps.setString(6, "");
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO Schedule(SID,DID,STime,ETime,Capacity,Res) VALUES (?,?,?,?,?,?)")) {
+                for (int i = 0; i < SCHEDULES; i++) {
+                    LocalDateTime start = base.plusHours(i / DOCTORS * 4L);
+                    ps.setInt(1, i + 1);
+                    ps.setString(2, did(i % DOCTORS));
+                    ps.setTimestamp(3, Timestamp.valueOf(start));
+                    ps.setTimestamp(4, Timestamp.valueOf(start.plusHours(4)));
+                    ps.setInt(5, 1000);
+                    ps.setInt(6, 1000);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO Appointment(APID,AID,DID,SID,Statu) VALUES (?,?,?,?,?)")) {
+                AppointmentStatus[] statuses = AppointmentStatus.values();
+                for (int i = 0; i < appointments; i++) {
+                    int sid = random.nextInt(SCHEDULES) + 1;
+                    ps.setString(1, String.format("%012d", i));
+                    ps.setString(2, String.format("9%09d", random.nextInt(ACCOUNTS)));
+                    ps.setString(3, did((sid - 1) % DOCTORS));
+                    ps.setInt(4, sid);
+                    ps.setString(5, statuses[random.nextInt(statuses.length)].name());
+                    ps.addBatch();
+                    if (i % 5000 == 4999) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            conn.commit();
+        }
+        try (Connection conn = db.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("ANALYZE TABLE Doctor, Schedule, Appointment");
+        }
+    }
+
+    private static String did(int i) {
+        return String.format("9%07d", i);
+    }
+
+    private static void print(String method, long[] all, int rows) {
+        // 第一轮视为预热，不计入统计
+        long[] samples = all.length > 1 ? Arrays.copyOfRange(all, 1, all.length) : all;
+        long sum = 0;
+        for (long v : samples) {
+            sum += v;
+        }
+        Arrays.sort(samples);
+        System.out.printf("%-24s %10.1f %10.1f %10.1f %8d%n", method, sum / samples.length / 1e6,
+                samples[samples.length / 2] / 1e6, samples[samples.length - 1] / 1e6, rows);
+    }
+
+    private static String getenvOrDefault(String key, String def) {
+        String v = System.getenv(key);
+        return v != null && !v.isEmpty() ? v : def;
+    }
+}
@@ -0,0 +1,176 @@
+package HABMS.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 对比 V2 迁移（热点查询索引）前后的查询耗时。
+ * 必须指向一个空的临时库（会建表、灌数据并在结束时删表）：
+ * HABMS_BENCH_URL（默认 jdbc:mariadb://localhost:3306/HABMSBench）, HABMS_USER, HABMS_PASS。
+ * 用法：SchemaIndexBenchmark [appointments] [iterations]
+ */
+public final class SchemaIndexBenchmark {
+    private static final int DOCTORS = 200;
+    private static final int SCHEDULES = 4000;
+    private static final int ACCOUNTS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        String url = getenvOrDefault("HABMS_BENCH_URL", "jdbc:mariadb://localhost:3306/HABMSBench?useSSL=false&allowPublicKeyRetrieval=true");
+        String user = getenvOrDefault("HABMS_USER", "rjava");
+        String pass = getenvOrDefault("HABMS_PASS", "rjava");
+        int appointments = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        try (ConnectionPool pool = new ConnectionPool(url, user, pass, 4, 1, 5_000, 600_000, 0, 64)) {
+            if (!isEmpty(pool)) {
+                System.err.println("HABMS_BENCH_URL must point to an empty database");
+                return;
+            }
+            SchemaMigrator migrator = new SchemaMigrator(pool);
+            migrator.migrate(1);
+            HABMSDB db = new HABMSDB(pool);
+            try {
+                seed(db, appointments);
+                System.out.printf("%-8s %-36s %10s %10s %10s%n", "schema", "query", "avg(us)", "p50(us)", "p99(us)");
+                run(db, "V1", iterations);
+                migrator.migrate();
+                analyze(db);
+                run(db, "V2", iterations);
+            } finally {
+                try (Connection conn = db.getConnection(); Statement st = conn.createStatement()) {
+                    st.execute("DROP TABLE IF EXISTS Appointment, Schedule, Doctor, Account, SchemaVersion");
+                }
+            }
+        }
+    }
+
+    private static boolean isEmpty(ConnectionPool pool) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             ResultSet rs = conn.getMetaData().getTables(conn.getCatalog(), null, "%", new String[]{"TABLE"})) {
+            return !rs.next();
+        }
+    }
+
+    private static void seed(HABMSDB db, int appointments) throws SQLException {
+        Random random = new Random(42);
+        LocalDateTime base = LocalDateTime.now().withNano(0).minusDays(30);
+        try (Connection conn = db.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO Doctor(DID,Name,Password,Admin,Department,Description) VALUES (?,?,?,?,?,?)")) {
+                for (int i = 0; i < DOCTORS; i++) {
+                    ps.setString(1, did(i));
+                    ps.setString(2, "bench" + i);
+                    ps.setString(3, "00");
+                    ps.setBoolean(4, false);
+                    ps.setString(5, "dep" + i % 10);
+                    ps.setString(6, "");
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO Schedule(SID,DID,STime,ETime,Capacity,Res) VALUES (?,?,?,?,?,?)")) {
+                for (int i = 0; i < SCHEDULES; i++) {
+                    LocalDateTime start = base.plusHours(i / DOCTORS * 4L);
+                    ps.setInt(1, i + 1);
+                    ps.setString(2, did(i % DOCTORS));
+                    ps.setTimestamp(3, Timestamp.valueOf(start));
+                    ps.setTimestamp(4, Timestamp.valueOf(start.plusHours(4)));
+                    ps.setInt(5, 1000);
+                    ps.setInt(6, 1000);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO Appointment(APID,AID,DID,SID,Statu) VALUES (?,?,?,?,?)")) {
+                AppointmentStatus[] statuses = AppointmentStatus.values();
+                for (int i = 0; i < appointments; i++) {
+                    int sid = random.nextInt(SCHEDULES) + 1;
+                    ps.setString(1, String.format("%012d", i));
+                    ps.setString(2, aid(random.nextInt(ACCOUNTS)));
+                    ps.setString(3, did((sid - 1) % DOCTORS));
+                    ps.setInt(4, sid);
+                    ps.setString(5, statuses[random.nextInt(statuses.length)].name());
+                    ps.addBatch();
+                    if (i % 5000 == 4999) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            conn.commit();
+        }
+        analyze(db);
+    }
+
+    private static void analyze(HABMSDB db) throws SQLException {
+        try (Connection conn = db.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("ANALYZE TABLE Appointment, Schedule");
+        }
+    }
+
+    private static void run(HABMSDB db, String label, int iterations) throws SQLException {
+        Random random = new Random(7);
+        LocalDateTime base = LocalDateTime.now().withNano(0).minusDays(30);
+        long[] bySid = new long[iterations];
+        long[] byAid = new long[iterations];
+        long[] overlap = new long[iterations];
+        long[] byTime = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            int sid = random.nextInt(SCHEDULES) + 1;
+            String aid = aid(random.nextInt(ACCOUNTS));
+            LocalDateTime time = base.plusMinutes(random.nextInt(SCHEDULES / DOCTORS * 4 * 60));
+            long t0 = System.nanoTime();
+            db.FindAppointmentBelongSchedule(sid);
+            long t1 = System.nanoTime();
+            db.FindAppointmentBelongAccount(aid);
+            long t2 = System.nanoTime();
+            db.hasOverlappingOkAppointment(aid, time, time.plusHours(1));
+            long t3 = System.nanoTime();
+            db.FindScheduleByTime(time);
+            long t4 = System.nanoTime();
+            bySid[i] = t1 - t0;
+            byAid[i] = t2 - t1;
+            overlap[i] = t3 - t2;
+            byTime[i] = t4 - t3;
+        }
+        print(label, "FindAppointmentBelongSchedule", bySid);
+        print(label, "FindAppointmentBelongAccount", byAid);
+        print(label, "hasOverlappingOkAppointment", overlap);
+        print(label, "FindScheduleByTime", byTime);
+    }
+
+    private static String did(int i) {
+        return String.format("9%07d", i);
+    }
+
+    private static String aid(int i) {
+        return String.format("9%09d", i);
+    }
+
+    private static void print(String label, String op, long[] all) {
+        // 前 10% 视为预热，不计入统计
+        long[] samples = Arrays.copyOfRange(all, all.length / 10, all.length);
+        long sum = 0;
+        for (long v : samples) {
+            sum += v;
+        }
+        Arrays.sort(samples);
+        System.out.printf("%-8s %-36s %10d %10d %10d%n", label, op, sum / samples.length / 1000,
+                samples[samples.length / 2] / 1000, samples[(int) (samples.length * 0.99)] / 1000);
+    }
+
+    private static String getenvOrDefault(String key, String def) {
+        String v = System.getenv(key);
+        return v != null && !v.isEmpty() ? v : def;
+    }
+}
@@ -0,0 +1,87 @@
+package HABMS.db;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 对比语句缓存关闭（每次客户端 prepare，等同改造前）与开启（缓存 + 服务端预处理）时
+ * TryAppointment 与 FindAppointmentBelongAccount 的单次耗时。
+ * 需要可用的 MariaDB，连接参数同 HABMSDBSmoke：HABMS_URL, HABMS_USER, HABMS_PASS。
+ * 用法：StatementCacheBenchmark [iterations]
+ */
+public final class StatementCacheBenchmark {
+    public static void main(String[] args) throws Exception {
+        String url = getenvOrDefault("HABMS_URL", "jdbc:mariadb://localhost:3306/HABMSDB?useSSL=false&allowPublicKeyRetrieval=true");
+        String user = getenvOrDefault("HABMS_USER", "rjava");
+        String pass = getenvOrDefault("HABMS_PASS", "rjava");
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        System.out.printf("%-10s %-30s %10s %10s %10s%n", "cache", "operation", "avg(us)", "p50(us)", "p99(us)");
+        for (int cacheSize : new int[]{0, 64}) {
+            try (HABMSDB db = new HABMSDB(new ConnectionPool(url, user, pass, 4, 1, 5_000, 600_000, 0, cacheSize))) {
+                run(db, cacheSize, iterations);
+                System.out.println("  " + db.getPoolStats());
+            }
+        }
+    }
+
+    private static void run(HABMSDB db, int cacheSize, int iterations) throws Exception {
+        String label = cacheSize == 0 ? "off" : "on(" + cacheSize + ")";
+        DoctorAccount doctor = DoctorAccount.create("BenchDoc" + System.nanoTime() % 100000, "00", false, "内科", "bench");
+        db.InsertDoctorAccount(doctor);
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        Schedule schedule = Schedule.create(doctor.getDid(), start, start.plusHours(4), iterations + 1000);
+        db.InsertSchedule(schedule);
+
+        List<Account> accounts = new ArrayList<>();
+        try {
+            for (int i = 0; i < iterations; i++) {
+                String n = String.format("%08d", i);
+                Account account = Account.create("bench", "00", "9" + n + "000000000", "1" + n + "00", Sex.M);
+                db.InsertAccount(account);
+                accounts.add(account);
+            }
+            long[] book = new long[iterations];
+            long[] list = new long[iterations];
+            for (int i = 0; i < iterations; i++) {
+                String aid = accounts.get(i).getAid();
+                long t0 = System.nanoTime();
+                db.TryAppointment(aid, schedule.getSid());
+                long t1 = System.nanoTime();
+                db.FindAppointmentBelongAccount(aid);
+                long t2 = System.nanoTime();
+                book[i] = t1 - t0;
+                list[i] = t2 - t1;
+            }
+            // 前 10% 视为预热，不计入统计
+            print(label, "TryAppointment", Arrays.copyOfRange(book, iterations / 10, iterations));
+            print(label, "FindAppointmentBelongAccount", Arrays.copyOfRange(list, iterations / 10, iterations));
+        } finally {
+            for (Account account : accounts) {
+                for (Appointment a : db.FindAppointmentBelongAccount(account.getAid())) {
+                    db.DelAppointment(a.getApid());
+                }
+                db.DelAccount(account.getAid());
+            }
+            db.DelSchedule(schedule.getSid());
+            db.DelDoctorAccount(doctor.getDid());
+        }
+    }
+
+    private static void print(String label, String op, long[] samples) {
+        long sum = 0;
+        for (long v : samples) {
+            sum += v;
+        }
+        Arrays.sort(samples);
+        System.out.printf("%-10s %-30s %10d %10d %10d%n", label, op, sum / samples.length / 1000,
+                samples[samples.length / 2] / 1000, samples[(int) (samples.length * 0.99)] / 1000);
+    }
+
+    private static String getenvOrDefault(String key, String def) {
+        String v = System.getenv(key);
+        return v != null && !v.isEmpty() ? v : def;
+    }
+}
@@ -0,0 +1,119 @@
+package HABMS.server;
+
+import HABMS.db.DoctorAccount;
+import HABMS.db.MemoryStorage;
+import HABMS.db.Schedule;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 连接抖动（大量短连接反复重连）下编解码器的开销对比（内存存储，不需要数据库）：
+ * 每个“连接”解析一组请求并写出对应响应。
+ * 1. per-connection：按旧做法每连接新建 ObjectMapper 并注册 JavaTimeModule；
+ * 2. shared：使用全服务器共用、已预热的 {@link JsonCodec}；
+ * 3. service：新建 Service 并经 process() 处理同一组请求，作为每连接总开销的参照。
+ * 输出每连接平均分配字节数与耗时分位。用法：ConnectionChurnBenchmark [connections]
+ */
+public final class ConnectionChurnBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+
+        Path file = Files.createTempFile("habms-churn", ".snapshot");
+        Files.delete(file);
+        MemoryStorage storage = new MemoryStorage(file);
+        DoctorAccount doctor = DoctorAccount.create("Churn", "00", false, "内科", null);
+        storage.InsertDoctorAccount(doctor);
+        LocalDateTime base = LocalDateTime.of(2030, 1, 1, 8, 0);
+        List<Schedule> schedules = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            schedules.add(new Schedule(i + 1, doctor.getDid(), base.plusHours(i), base.plusHours(i).plusMinutes(30), 10, 10));
+        }
+        storage.InsertSchedules(schedules);
+        DepartmentRegistry departments = new DepartmentRegistry(List.of("内科", "外科"));
+
+        List<String> requests = List.of(
+                "{\"type\":\"department_list\"}",
+                "{\"type\":\"doctor_query\",\"data\":{\"department\":\"内科\"}}",
+                "{\"type\":\"schedule_by_doctor\",\"data\":{\"did\":\"" + doctor.getDid() + "\"}}");
+        // 响应内容取自服务的真实输出，两种编解码路径写出同样的数据
+        ObjectMapper plain = new ObjectMapper();
+        List<Object> responses = new ArrayList<>();
+        Service probe = new Service(storage, departments);
+        for (String line : requests) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            probe.process(line, out);
+            responses.add(plain.readValue(out.toByteArray(), Map.class));
+        }
+
+        JsonCodec.SHARED.warmUp();
+        System.out.printf("%-15s %8s %14s %10s %10s %10s%n", "path", "conns", "alloc/conn(B)", "mean(us)", "p50(us)", "p99(us)");
+        for (int round = 0; round < 2; round++) {
+            // 第一轮兼作 JIT 预热，只输出第二轮
+            boolean print = round == 1;
+            measure("per-connection", connections, print, () -> {
+                ObjectMapper mapper = new ObjectMapper();
+                mapper.registerModule(new JavaTimeModule());
+                mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+                for (int i = 0; i < requests.size(); i++) {
+                    mapper.readTree(requests.get(i));
+                    mapper.writeValueAsBytes(responses.get(i));
+                }
+            });
+            measure("shared", connections, print, () -> {
+                JsonCodec codec = JsonCodec.SHARED;
+                for (int i = 0; i < requests.size(); i++) {
+                    codec.readRequest(requests.get(i));
+                    codec.writeResponse(new Service.Response("ok", responses.get(i)));
+                }
+            });
+            measure("service", connections, print, () -> {
+                Service service = new Service(storage, departments);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+                for (String line : requests) {
+                    service.process(line, out);
+                }
+            });
+        }
+        storage.close();
+        Files.deleteIfExists(file);
+    }
+
+    private static void measure(String name, int connections, boolean print, Connection connection) throws Exception {
+        long thread = Thread.currentThread().getId();
+        long[] nanos = new long[connections];
+        long allocated = THREADS.getThreadAllocatedBytes(thread);
+        long total = 0;
+        for (int i = 0; i < connections; i++) {
+            long start = System.nanoTime();
+            connection.run();
+            nanos[i] = System.nanoTime() - start;
+            total += nanos[i];
+        }
+        allocated = THREADS.getThreadAllocatedBytes(thread) - allocated;
+        if (print) {
+            Arrays.sort(nanos);
+            System.out.printf("%-15s %8d %14d %10.1f %10.1f %10.1f%n", name, connections, allocated / connections,
+                    total / 1e3 / connections, nanos[connections / 2] / 1e3, nanos[(int) (connections * 0.99)] / 1e3);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Connection {
+        void run() throws Exception;
+    }
+}
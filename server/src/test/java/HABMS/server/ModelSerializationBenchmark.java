@@ -0,0 +1,188 @@
+package HABMS.server;
+
+import HABMS.db.Account;
+import HABMS.db.Appointment;
+import HABMS.db.AppointmentStatus;
+import HABMS.db.DoctorAccount;
+import HABMS.db.Schedule;
+import HABMS.db.Sex;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 列表响应序列化的前后对比（不需要数据库）：
+ * 1. maps：旧做法，每行 view() 成 LinkedHashMap 后由 Jackson 遍历；
+ * 2. typed：{@link ModelSerializers} 直接写 JsonGenerator；
+ * 分别测整包响应（appointment_list 等）与流式逐行写出（admin_all_appointments），
+ * 输出每行耗时与分配字节数。两种写法的输出必须逐字节相同，否则退出码为 1。
+ * 用法：ModelSerializationBenchmark [rows] [iterations]
+ */
+public final class ModelSerializationBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        List<Appointment> appointments = new ArrayList<>(rows);
+        List<Schedule> schedules = new ArrayList<>(rows);
+        LocalDateTime base = LocalDateTime.of(2030, 1, 1, 8, 0);
+        AppointmentStatus[] statuses = AppointmentStatus.values();
+        for (int i = 0; i < rows; i++) {
+            LocalDateTime start = base.plusMinutes(30L * i);
+            // 偶数行带秒，覆盖时间格式的两种写法
+            LocalDateTime end = start.plusMinutes(30).plusSeconds(i % 2 * 15);
+            appointments.add(new Appointment(i + 1, String.format("%012d", i), String.format("%010d", i % 97), "00000001",
+                    "医生" + i % 7, i % 3 == 0 ? null : "内科", i / 10 + 1, statuses[i % statuses.length], start, end));
+            schedules.add(new Schedule(i + 1, "00000001", start, end, 10, i % 11));
+        }
+
+        // 旧版 Service 的 mapper 配置与 view()
+        ObjectMapper legacy = new ObjectMapper();
+        legacy.registerModule(new JavaTimeModule());
+        legacy.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        ObjectWriter legacyRows = legacy.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        JsonCodec codec = JsonCodec.SHARED;
+        codec.warmUp();
+
+        Body mapsList = () -> legacy.writeValueAsBytes(new Service.Response("ok",
+                appointments.stream().map(ModelSerializationBenchmark::view).toList()));
+        Body typedList = () -> codec.writeResponse(new Service.Response("ok", appointments));
+        Body mapsSchedules = () -> legacy.writeValueAsBytes(new Service.Response("ok",
+                schedules.stream().map(ModelSerializationBenchmark::view).toList()));
+        Body typedSchedules = () -> codec.writeResponse(new Service.Response("ok", schedules));
+        Body mapsStream = () -> stream(codec, gen -> {
+            for (Appointment a : appointments) {
+                legacyRows.writeValue(gen, view(a));
+            }
+        });
+        Body typedStream = () -> stream(codec, gen -> {
+            for (Appointment a : appointments) {
+                ModelSerializers.write(gen, a);
+            }
+        });
+
+        Account account = new Account("0000000001", "张三", "00", "110101200001010000", "13800000000", Sex.F);
+        DoctorAccount doctor = new DoctorAccount("00000001", "李四", "00", true, "内科", null);
+        boolean same = Arrays.equals(legacy.writeValueAsBytes(new Service.Response("ok", view(account))),
+                        codec.writeResponse(new Service.Response("ok", account)))
+                && Arrays.equals(legacy.writeValueAsBytes(new Service.Response("ok", List.of(view(doctor)))),
+                        codec.writeResponse(new Service.Response("ok", List.of(doctor))))
+                && Arrays.equals(mapsList.write(), typedList.write())
+                && Arrays.equals(mapsSchedules.write(), typedSchedules.write())
+                && Arrays.equals(mapsStream.write(), typedStream.write());
+        System.out.printf("rows=%d iterations=%d identical output=%b%n", rows, iterations, same);
+        System.out.printf("%-24s %10s %14s%n", "case", "ns/row", "bytes/row");
+        for (int round = 0; round < 2; round++) {
+            // 第一轮兼作 JIT 预热，只输出第二轮
+            boolean print = round == 1;
+            measure("appointments maps", mapsList, rows, iterations, print);
+            measure("appointments typed", typedList, rows, iterations, print);
+            measure("schedules maps", mapsSchedules, rows, iterations, print);
+            measure("schedules typed", typedSchedules, rows, iterations, print);
+            measure("stream maps", mapsStream, rows, iterations, print);
+            measure("stream typed", typedStream, rows, iterations, print);
+        }
+        if (!same) {
+            System.exit(1);
+        }
+    }
+
+    private static void measure(String name, Body body, int rows, int iterations, boolean print) throws Exception {
+        long thread = Thread.currentThread().getId();
+        long allocated = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            body.write();
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = THREADS.getThreadAllocatedBytes(thread) - allocated;
+        if (print) {
+            double ops = (double) rows * iterations;
+            System.out.printf("%-24s %10.1f %14.1f%n", name, nanos / ops, allocated / ops);
+        }
+    }
+
+    /** 同 Service.writeStreamed 的信封，data 为逐行写出的数组。 */
+    private static byte[] stream(JsonCodec codec, Rows rows) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator gen = codec.generator(out)) {
+            gen.writeStartObject();
+            gen.writeStringField("Statu", "ok");
+            gen.writeArrayFieldStart("data");
+            rows.write(gen);
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<String, Object> view(Account account) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("aid", account.getAid());
+        map.put("name", account.getName());
+        map.put("pid", account.getPid());
+        map.put("phone", account.getPhone());
+        map.put("sex", account.getSex().name());
+        return map;
+    }
+
+    private static Map<String, Object> view(DoctorAccount doctor) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("did", doctor.getDid());
+        map.put("name", doctor.getName());
+        map.put("admin", doctor.isAdmin());
+        map.put("department", doctor.getDepartment());
+        map.put("description", doctor.getDescription());
+        return map;
+    }
+
+    private static Map<String, Object> view(Appointment appointment) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("serialNumber", appointment.getSerialNumber());
+        map.put("apid", appointment.getApid());
+        map.put("aid", appointment.getAid());
+        map.put("did", appointment.getDid());
+        map.put("doctorName", appointment.getDoctorName());
+        map.put("department", appointment.getDepartment());
+        map.put("sid", appointment.getSid());
+        map.put("status", appointment.getStatus().name());
+        map.put("startTime", appointment.getStartTime());
+        map.put("endTime", appointment.getEndTime());
+        return map;
+    }
+
+    private static Map<String, Object> view(Schedule schedule) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("sid", schedule.getSid());
+        map.put("did", schedule.getDid());
+        map.put("startTime", schedule.getStartTime());
+        map.put("endTime", schedule.getEndTime());
+        map.put("capacity", schedule.getCapacity());
+        map.put("res", schedule.getRes());
+        return map;
+    }
+
+    @FunctionalInterface
+    private interface Body {
+        byte[] write() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Rows {
+        void write(JsonGenerator gen) throws Exception;
+    }
+}
@@ -0,0 +1,82 @@
+package HABMS.server;
+
+import HABMS.db.HABMSDB;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 对比 platform / virtual 两种线程模式：建立 N 个长连接（各发一次 department_list 后保持空闲），
+ * 统计连接耗时、请求延迟分位、JVM 平台线程数与堆占用。department_list 不访问数据库，无需 MariaDB。
+ * 用法：ServerModeBenchmark [connections] [modes...]，例如 `20000 platform virtual`；
+ * 大连接数需先调高 ulimit -n，virtual 模式需 JDK 21+。
+ */
+public final class ServerModeBenchmark {
+    private static final byte[] REQUEST = "{\"type\":\"department_list\"}\n".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        List<String> modes = args.length > 1 ? Arrays.asList(args).subList(1, args.length) : List.of("platform", "virtual");
+        HABMSDB db = new HABMSDB("jdbc:mariadb://localhost:3306/unused", "unused", "unused");
+        int port = 19100;
+        System.out.printf("%-9s %8s %12s %10s %10s %10s %10s%n",
+                "mode", "conns", "connect(ms)", "p50(us)", "p99(us)", "threads", "heap(MB)");
+        for (String mode : modes) {
+            run(ThreadMode.parse(mode), connections, port++, db);
+        }
+    }
+
+    private static void run(ThreadMode mode, int connections, int port, HABMSDB db) throws Exception {
+        ServerRuntime runtime = new ServerRuntime(port, db, new DepartmentRegistry(List.of("内科", "外科")), mode);
+        Thread server = new Thread(() -> {
+            try {
+                runtime.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "bench-server");
+        server.setDaemon(true);
+        server.start();
+        Thread.sleep(300);
+
+        List<Socket> sockets = new ArrayList<>(connections);
+        long[] latencies = new long[connections];
+        long t0 = System.nanoTime();
+        try {
+            for (int i = 0; i < connections; i++) {
+                Socket s = new Socket();
+                s.connect(new InetSocketAddress("localhost", port));
+                sockets.add(s);
+                OutputStream out = s.getOutputStream();
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                long start = System.nanoTime();
+                out.write(REQUEST);
+                out.flush();
+                in.readLine();
+                latencies[i] = System.nanoTime() - start;
+            }
+            long connectMs = (System.nanoTime() - t0) / 1_000_000;
+            System.gc();
+            Thread.sleep(200);
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            long heapMb = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024);
+            Arrays.sort(latencies);
+            System.out.printf("%-9s %8d %12d %10d %10d %10d %10d%n", mode.name().toLowerCase(), connections, connectMs,
+                    latencies[connections / 2] / 1000, latencies[(int) (connections * 0.99)] / 1000, threads, heapMb);
+        } finally {
+            for (Socket s : sockets) {
+                s.close();
+            }
+            runtime.stop();
+            Thread.sleep(300);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package HABMS.server;
+
+import HABMS.db.Appointment;
+import HABMS.db.AppointmentStatus;
+import HABMS.db.DoctorAccount;
+import HABMS.db.Schedule;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 分帧连接负载编码的对比（不需要数据库）：JSON 文本与 Smile（{@link JsonCodec#SMILE}，字段名与短字符串回引用），
+ * 另附只回引用字段名的 Smile 以区分两种回引用各自的效果。
+ * 负载为 admin_report（医生、排班、预约三段）与 admin_all_appointments 的流式响应，服务端按 Service 的写法逐行编码，
+ * 客户端按 NetworkClient 的做法解码成树。输出每次编码/解码的 CPU 时间与字节数；三种编码解码出的树必须相同，否则退出码为 1。
+ * 用法：WireEncodingBenchmark [doctors] [appointments] [iterations]
+ */
+public final class WireEncodingBenchmark {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final String[] DEPARTMENTS = {"内科", "外科", "儿科", "妇产科", "眼科", "耳鼻喉科", "口腔科", "皮肤科"};
+    private static final String[] SURNAMES = {"王", "李", "张", "刘", "陈", "杨", "赵", "黄", "周", "吴"};
+
+    public static void main(String[] args) throws Exception {
+        int doctorCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int appointmentCount = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+
+        // 每位医生两周、每天上下午各一个排班；预约随机分布在排班上，状态以 Ok 为主
+        List<DoctorAccount> doctors = new ArrayList<>(doctorCount);
+        List<Schedule> schedules = new ArrayList<>();
+        LocalDateTime base = LocalDateTime.of(2030, 3, 4, 8, 0);
+        int sid = 100_000;
+        for (int d = 0; d < doctorCount; d++) {
+            String did = String.format("%08d", 10_000_000 + d);
+            doctors.add(new DoctorAccount(did, SURNAMES[d % SURNAMES.length] + "医生" + d, "", d % 50 == 0,
+                    DEPARTMENTS[d % DEPARTMENTS.length], d % 3 == 0 ? "主任医师，擅长常见病与慢性病诊治" : ""));
+            for (int day = 0; day < 14; day++) {
+                LocalDateTime morning = base.plusDays(day);
+                schedules.add(new Schedule(sid++, did, morning, morning.plusHours(4), 30, 30 - day % 7));
+                schedules.add(new Schedule(sid++, did, morning.plusHours(6), morning.plusHours(10), 30, 30 - day % 5));
+            }
+        }
+        List<Appointment> appointments = new ArrayList<>(appointmentCount);
+        Random random = new Random(42);
+        AppointmentStatus[] statuses = {AppointmentStatus.Ok, AppointmentStatus.Ok, AppointmentStatus.Done, AppointmentStatus.Abandon};
+        for (int i = 0; i < appointmentCount; i++) {
+            Schedule s = schedules.get(random.nextInt(schedules.size()));
+            DoctorAccount d = doctors.get((s.getSid() - 100_000) / 28);
+            appointments.add(new Appointment(i + 1, String.format("2603%08d", i), String.format("%010d", random.nextInt(appointmentCount)),
+                    d.getDid(), d.getName(), d.getDepartment(), s.getSid(), statuses[random.nextInt(statuses.length)],
+                    s.getStartTime(), s.getEndTime()));
+        }
+
+        JsonCodec json = JsonCodec.SHARED;
+        JsonCodec smile = JsonCodec.SMILE;
+        json.warmUp();
+        smile.warmUp();
+        SmileFactory namesOnlyFactory = SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+                .disable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build();
+        ObjectMapper jsonReader = new ObjectMapper();
+        ObjectMapper smileReader = new ObjectMapper(new SmileFactory());
+
+        Body report = gen -> {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("doctors");
+            for (DoctorAccount d : doctors) {
+                ModelSerializers.write(gen, d);
+            }
+            gen.writeEndArray();
+            gen.writeArrayFieldStart("schedules");
+            for (Schedule s : schedules) {
+                ModelSerializers.write(gen, s);
+            }
+            gen.writeEndArray();
+            gen.writeArrayFieldStart("appointments");
+            for (Appointment a : appointments) {
+                ModelSerializers.write(gen, a);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        };
+        Body all = gen -> {
+            gen.writeStartArray();
+            for (Appointment a : appointments) {
+                ModelSerializers.write(gen, a);
+            }
+            gen.writeEndArray();
+        };
+
+        boolean same = true;
+        System.out.printf("doctors=%d schedules=%d appointments=%d iterations=%d%n",
+                doctors.size(), schedules.size(), appointments.size(), iterations);
+        System.out.printf("%-42s %12s %12s %12s %8s%n", "payload/encoding", "bytes", "encode us", "decode us", "ratio");
+        for (String name : new String[]{"admin_report", "admin_all_appointments"}) {
+            Body body = "admin_report".equals(name) ? report : all;
+            Encoder[] encoders = {
+                    () -> json.generator(new ByteArrayOutputStream()),
+                    () -> smile.generator(new ByteArrayOutputStream()),
+                    () -> namesOnlyFactory.createGenerator(new ByteArrayOutputStream()),
+            };
+            String[] labels = {"json", "smile", "smile (names only)"};
+            ObjectMapper[] readers = {jsonReader, smileReader, smileReader};
+            byte[][] encoded = new byte[encoders.length][];
+            JsonNode expected = null;
+            for (int e = 0; e < encoders.length; e++) {
+                encoded[e] = encode(encoders[e], body);
+                JsonNode tree = readers[e].readTree(encoded[e]);
+                if (expected == null) {
+                    expected = tree;
+                } else {
+                    same &= expected.equals(tree);
+                }
+            }
+            for (int round = 0; round < 2; round++) {
+                // 第一轮兼作 JIT 预热，只输出第二轮
+                for (int e = 0; e < encoders.length; e++) {
+                    Encoder encoder = encoders[e];
+                    ObjectMapper reader = readers[e];
+                    byte[] bytes = encoded[e];
+                    long encodeNanos = cpu(iterations, () -> encode(encoder, body));
+                    long decodeNanos = cpu(iterations, () -> reader.readTree(bytes));
+                    if (round == 1) {
+                        System.out.printf("%-42s %12d %12.0f %12.0f %7.1f%%%n", name + " " + labels[e], bytes.length,
+                                encodeNanos / 1e3 / iterations, decodeNanos / 1e3 / iterations, 100.0 * bytes.length / encoded[0].length);
+                    }
+                }
+            }
+        }
+        System.out.println("identical decoded trees=" + same);
+        if (!same) {
+            System.exit(1);
+        }
+    }
+
+    /** 当前线程在 iterations 次运行中消耗的 CPU 时间（不支持时退回墙钟时间）。 */
+    private static long cpu(int iterations, Task task) throws IOException {
+        boolean cpuTime = THREADS.isCurrentThreadCpuTimeSupported();
+        long start = cpuTime ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        return (cpuTime ? THREADS.getCurrentThreadCpuTime() : System.nanoTime()) - start;
+    }
+
+    /** 同 Service.writeStreamed 的信封，data 由 body 逐行写出。 */
+    private static byte[] encode(Encoder encoder, Body body) throws IOException {
+        JsonGenerator gen = encoder.open();
+        ByteArrayOutputStream out = (ByteArrayOutputStream) gen.getOutputTarget();
+        try (gen) {
+            gen.writeStartObject();
+            gen.writeStringField("Statu", "ok");
+            gen.writeFieldName("data");
+            body.write(gen);
+            gen.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface Encoder {
+        JsonGenerator open() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Body {
+        void write(JsonGenerator gen) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws IOException;
+    }
+}